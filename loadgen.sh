@@ -0,0 +1 @@
+java -Dloader.main=edu.harvard.fas.zfeledy.fiximulator.core.LoadGenerator -cp target/FIXimulator-1.0.0.jar org.springframework.boot.loader.PropertiesLauncher config/LoadGenerator.cfg
@@ -0,0 +1,24 @@
+USE quickfix;
+
+DROP TABLE IF EXISTS messages_index;
+
+CREATE TABLE messages_index (
+  id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT,
+  time DATETIME NOT NULL,
+  beginstring CHAR(8) NOT NULL,
+  sendercompid VARCHAR(64) NOT NULL,
+  targetcompid VARCHAR(64) NOT NULL,
+  msgtype VARCHAR(8) NOT NULL,
+  symbol VARCHAR(64),
+  side CHAR(1),
+  clordid VARCHAR(64),
+  orderid VARCHAR(64),
+  execid VARCHAR(64),
+  log_id INT UNSIGNED NOT NULL, -- the messages_log row with the text
+  PRIMARY KEY (id),
+  INDEX msgtype_idx (msgtype, id),
+  INDEX symbol_idx (symbol, msgtype, id),
+  INDEX clordid_idx (clordid),
+  INDEX orderid_idx (orderid),
+  INDEX execid_idx (execid)
+);
@@ -3,4 +3,5 @@ source fiximulator_user;
 source sessions_table.sql;
 source messages_table.sql;
 source messages_log_table.sql;
-source event_log_table.sql;
\ No newline at end of file
+source event_log_table.sql;
+source messages_index_table.sql;
\ No newline at end of file
@@ -0,0 +1,142 @@
+/*
+ * File : ExecutionReportBenchmark.java
+ *
+ * Contents : Building, validating and encoding an ExecutionReport through
+ * sendExecution, the path every acknowledgement and fill takes. Before the
+ * template run starts, reports for a spread of orders are encoded both ways
+ * and the benchmark fails unless every one comes out byte for byte the same.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.fas.zfeledy.fiximulator.core.CustomField;
+import edu.harvard.fas.zfeledy.fiximulator.core.EncodedExecutionReport;
+import edu.harvard.fas.zfeledy.fiximulator.core.Execution;
+import edu.harvard.fas.zfeledy.fiximulator.core.ExecutionReportEncoder;
+import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulatorApplication;
+import edu.harvard.fas.zfeledy.fiximulator.core.Order;
+import edu.harvard.fas.zfeledy.fiximulator.util.FixedPoint;
+import quickfix.ConfigError;
+import quickfix.Message;
+import quickfix.SessionSettings;
+import quickfix.field.BeginString;
+import quickfix.field.ExecTransType;
+import quickfix.field.ExecType;
+import quickfix.field.MsgSeqNum;
+import quickfix.field.OnBehalfOfCompID;
+import quickfix.field.OrderQty;
+import quickfix.field.SenderCompID;
+import quickfix.field.SendingTime;
+import quickfix.field.TargetCompID;
+import quickfix.fix44.NewOrderSingle;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExecutionReportBenchmark {
+	// Y writes reports from the order's template, N has QuickFIX/J
+	// serialize them field by field
+	@Param({ "Y", "N" })
+	public String templates;
+
+	private FIXimulatorApplication application;
+	private Order order;
+
+	@Setup
+	public void setUp() throws ConfigError, IOException {
+		SessionSettings settings = Fixtures.settings();
+		settings.setString("FIXimulatorExecutionTemplates", templates);
+		application = Fixtures.application(settings);
+		order = new Order(Fixtures.newOrderSingle(0));
+		order.setSessionID(Fixtures.SESSION_ID);
+		if (templates.equals("Y"))
+			checkTemplates();
+	}
+
+	/*
+	 * Encodes reports for orders with and without a custom field, security
+	 * ID, ExecRefID and fractional quantities, through a template and field
+	 * by field, with the same header, and fails on the first that differs.
+	 */
+	private void checkTemplates() {
+		ExecutionReportEncoder encoder = new ExecutionReportEncoder();
+		Random random = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			NewOrderSingle message = Fixtures.newOrderSingle(i);
+			message.setDouble(OrderQty.FIELD, random.nextInt(100000) / (i % 2 == 0 ? 1.0 : 100.0));
+			if (i % 3 == 0)
+				message.removeField(CustomField.FIELD);
+			Order checked = new Order(message);
+			if (i % 7 == 0) {
+				checked.setSecurityID("US4592001014");
+				checked.setIdSource("4");
+			}
+			for (int report = 0; report < 4; report++) {
+				Execution execution = new Execution(checked);
+				checked.setStatus((char) ('0' + random.nextInt(3)));
+				execution.setExecType((char) ('0' + random.nextInt(3)));
+				execution.setLeavesQtyUnits(random.nextInt(10000000));
+				execution.setCumQtyUnits(random.nextInt(10000000));
+				execution.setAvgPxUnits(random.nextInt(1000000000));
+				execution.setLastPxUnits(report == 0 ? 0 : random.nextInt(1000000000));
+				if (report == 3)
+					execution.setRefID("E" + i);
+				Message expected = application.buildExecutionReport(execution);
+				Message encoded = new EncodedExecutionReport(execution, encoder);
+				setHeader(expected, i * 4 + report);
+				setHeader(encoded, i * 4 + report);
+				String fields = expected.toString();
+				String template = encoded.toString();
+				if (!fields.equals(template))
+					throw new IllegalStateException("Template encoding differs:\n" + fields.replace('\001', '|') + "\n"
+							+ template.replace('\001', '|'));
+			}
+		}
+	}
+
+	// the header as the session initializes it, with an OnBehalfOfCompID on
+	// some reports
+	private static void setHeader(Message message, int sequence) {
+		message.getHeader().setField(new BeginString("FIX.4.4"));
+		message.getHeader().setField(new SenderCompID("COUNTERPARTY"));
+		message.getHeader().setField(new TargetCompID("TAPWS"));
+		message.getHeader().setField(new MsgSeqNum(sequence + 1));
+		message.getHeader().setString(SendingTime.FIELD, "20261018-14:00:00.123");
+		if (sequence % 5 == 0)
+			message.getHeader().setField(new OnBehalfOfCompID("DESK"));
+	}
+
+	@Benchmark
+	public Execution sendExecution() {
+		Execution fill = new Execution(order);
+		fill.setExecType(ExecType.PARTIAL_FILL);
+		fill.setExecTranType(ExecTransType.NEW);
+		fill.setLeavesQtyUnits(FixedPoint.toQty(700));
+		fill.setCumQtyUnits(FixedPoint.toQty(300));
+		fill.setAvgPxUnits(FixedPoint.toPrice(25.37));
+		fill.setLastSharesUnits(FixedPoint.toQty(300));
+		fill.setLastPxUnits(FixedPoint.toPrice(25.37));
+		application.sendExecution(fill);
+		return fill;
+	}
+}
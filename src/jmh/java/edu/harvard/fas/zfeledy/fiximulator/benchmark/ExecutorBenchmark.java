@@ -0,0 +1,74 @@
+/*
+ * File : ExecutorBenchmark.java
+ *
+ * Contents : The executor filling an order in partials, each one an order
+ * update and an ExecutionReport. The Order is decoded inside the benchmark
+ * as it would be for every order the executor sees; OrderBenchmark gives
+ * that part on its own.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulatorApplication;
+import edu.harvard.fas.zfeledy.fiximulator.core.Order;
+import quickfix.ConfigError;
+import quickfix.fix44.NewOrderSingle;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExecutorBenchmark {
+	private static final int MESSAGES = 1024;
+
+	@Param({ "1", "10" })
+	private int partials;
+
+	private FIXimulatorApplication application;
+	private FIXimulatorApplication.Executor executor;
+	private NewOrderSingle[] messages;
+	private int next = 0;
+
+	@Setup
+	public void setUp() throws ConfigError, IOException {
+		application = Fixtures.application();
+		// the session is never logged on, so no executor thread starts
+		application.startExecutor(0, partials);
+		executor = application.new Executor(application.getSession(Fixtures.SESSION_ID));
+		messages = new NewOrderSingle[MESSAGES];
+		for (int i = 0; i < MESSAGES; i++)
+			messages[i] = Fixtures.newOrderSingle(i);
+	}
+
+	@TearDown
+	public void tearDown() {
+		application.stopExecutor();
+	}
+
+	@Benchmark
+	public Order fill() {
+		Order order = new Order(messages[next++ & (MESSAGES - 1)]);
+		order.setSessionID(Fixtures.SESSION_ID);
+		executor.fill(order);
+		return order;
+	}
+}
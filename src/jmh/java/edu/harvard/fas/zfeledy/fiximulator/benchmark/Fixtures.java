@@ -0,0 +1,149 @@
+/*
+ * File : Fixtures.java
+ *
+ * Contents : Messages and application state shared by the benchmarks. The
+ * application gets a real QuickFIX/J session, created but never logged on,
+ * so execution reports are built, validated against BAADER.FIX44.xml and
+ * encoded exactly as they would be for a counterparty, but go nowhere.
+ *
+ * The benchmarks expect to run from the project directory, where the data
+ * dictionary and config/instruments.xml are.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import edu.harvard.fas.zfeledy.fiximulator.core.CustomExecutionReport;
+import edu.harvard.fas.zfeledy.fiximulator.core.CustomField;
+import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulator;
+import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulatorApplication;
+import edu.harvard.fas.zfeledy.fiximulator.core.InstrumentSet;
+import edu.harvard.fas.zfeledy.fiximulator.core.LogMessageSet;
+import quickfix.ConfigError;
+import quickfix.DefaultSessionFactory;
+import quickfix.InvalidMessage;
+import quickfix.Message;
+import quickfix.MemoryStoreFactory;
+import quickfix.Session;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.AvgPx;
+import quickfix.field.ClOrdID;
+import quickfix.field.CumQty;
+import quickfix.field.ExecID;
+import quickfix.field.ExecType;
+import quickfix.field.HandlInst;
+import quickfix.field.LastPx;
+import quickfix.field.LastQty;
+import quickfix.field.LeavesQty;
+import quickfix.field.MsgSeqNum;
+import quickfix.field.OrdStatus;
+import quickfix.field.OrdType;
+import quickfix.field.OrderID;
+import quickfix.field.OrderQty;
+import quickfix.field.Price;
+import quickfix.field.SenderCompID;
+import quickfix.field.SendingTime;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+import quickfix.field.TargetCompID;
+import quickfix.field.TimeInForce;
+import quickfix.field.TransactTime;
+import quickfix.fix44.NewOrderSingle;
+
+final class Fixtures {
+	static final SessionID SESSION_ID = new SessionID("FIX.4.4", "COUNTERPARTY", "TAPWS");
+	static final String[] SYMBOLS = { "IBM", "MSFT", "ORCL", "CSCO", "INTC", "AAPL", "GOOG", "YHOO" };
+
+	private static final String SETTINGS = "[DEFAULT]\n" + "ConnectionType=acceptor\n" + "BeginString=FIX.4.4\n"
+			+ "DataDictionary=BAADER.FIX44.xml\n" + "StartTime=00:00:00\n" + "EndTime=00:00:00\n"
+			+ "HeartBtInt=30\n" + "PersistMessages=N\n" + "FIXimulatorAutoAcknowledge=Y\n"
+			+ "FIXimulatorSendOnBehalfOfCompID=N\n" + "FIXimulatorSendOnBehalfOfSubID=N\n"
+			+ "FIXimulatorCachedObjects=1000\n" + "[SESSION]\n" + "SenderCompID=COUNTERPARTY\n"
+			+ "TargetCompID=TAPWS\n";
+
+	private Fixtures() {
+	}
+
+	static SessionSettings settings() throws ConfigError {
+		return new SessionSettings(new ByteArrayInputStream(SETTINGS.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	/**
+	 * @return an application with the instruments loaded and its session
+	 *         registered, as the acceptor would leave it.
+	 */
+	static FIXimulatorApplication application() throws ConfigError, IOException {
+		return application(settings());
+	}
+
+	static FIXimulatorApplication application(SessionSettings settings) throws ConfigError, IOException {
+		FIXimulator.setInstruments(new InstrumentSet(new File("config/instruments.xml")));
+		FIXimulatorApplication application = new FIXimulatorApplication(settings, new LogMessageSet());
+		Session session = Session.lookupSession(SESSION_ID);
+		if (session != null)
+			session.close();
+		new DefaultSessionFactory(application, new MemoryStoreFactory(), null).create(SESSION_ID, settings);
+		return application;
+	}
+
+	/**
+	 * @return a limit order as a buy side OMS would send it, with the header
+	 *         filled in so it encodes like the message on the wire.
+	 */
+	static NewOrderSingle newOrderSingle(int sequence) {
+		NewOrderSingle order = new NewOrderSingle(new ClOrdID("ORD" + sequence), new Side(Side.BUY),
+				new TransactTime(), new OrdType(OrdType.LIMIT));
+		order.set(new HandlInst(HandlInst.AUTOMATED_EXECUTION_ORDER_PRIVATE_NO_BROKER_INTERVENTION));
+		order.set(new Symbol(SYMBOLS[sequence % SYMBOLS.length]));
+		order.set(new OrderQty(1000 + 100 * (sequence % 50)));
+		order.set(new Price(25.37));
+		order.set(new TimeInForce(TimeInForce.DAY));
+		order.setString(CustomField.FIELD, "BENCH");
+		setHeader(order, "TAPWS", "COUNTERPARTY", sequence);
+		return order;
+	}
+
+	/**
+	 * @return the order parsed back from its encoded form, holding string
+	 *         fields the way a message read off the socket does.
+	 */
+	static NewOrderSingle receivedOrderSingle(int sequence) {
+		NewOrderSingle received = new NewOrderSingle();
+		try {
+			received.fromString(newOrderSingle(sequence).toString(), null, false);
+		} catch (InvalidMessage e) {
+			throw new IllegalStateException(e);
+		}
+		return received;
+	}
+
+	/**
+	 * @return a partial fill, built the way sendExecution builds it.
+	 */
+	static Message executionReport(int sequence) {
+		CustomExecutionReport report = new CustomExecutionReport(new OrderID("O" + (1000000 + sequence)),
+				new ExecID("E" + (2000000 + sequence)), new ExecType(ExecType.PARTIAL_FILL),
+				new OrdStatus(OrdStatus.PARTIALLY_FILLED), new Side(Side.BUY), new LeavesQty(700), new CumQty(300),
+				new AvgPx(25.37), new CustomField("BENCH"));
+		report.set(new ClOrdID("ORD" + sequence));
+		report.set(new OrderQty(1000));
+		report.set(new LastQty(300));
+		report.set(new LastPx(25.37));
+		report.set(new Symbol(SYMBOLS[sequence % SYMBOLS.length]));
+		setHeader(report, "COUNTERPARTY", "TAPWS", sequence);
+		return report;
+	}
+
+	private static void setHeader(Message message, String sender, String target, int sequence) {
+		message.getHeader().setField(new SenderCompID(sender));
+		message.getHeader().setField(new TargetCompID(target));
+		message.getHeader().setField(new MsgSeqNum(sequence + 1));
+		message.getHeader().setField(new SendingTime());
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * File : InstrumentSetBenchmark.java
+ *
+ * Contents : Looking an instrument up by each kind of identifier, and
+ * missing, in the shipped instruments file. Later identifier kinds fall
+ * through the earlier indexes first.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.fas.zfeledy.fiximulator.core.Instrument;
+import edu.harvard.fas.zfeledy.fiximulator.core.InstrumentSet;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InstrumentSetBenchmark {
+	private static final int IDENTIFIERS = 256;
+
+	@Param({ "ticker", "sedol", "cusip", "ric", "missing" })
+	private String identifierType;
+
+	private InstrumentSet instruments;
+	private String[] identifiers;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		instruments = new InstrumentSet(new File("config/instruments.xml"));
+		identifiers = new String[IDENTIFIERS];
+		for (int i = 0; i < IDENTIFIERS; i++) {
+			Instrument instrument = instruments.getInstrument(i * 7919 % instruments.getCount());
+			if (identifierType.equals("ticker"))
+				identifiers[i] = instrument.getTicker();
+			else if (identifierType.equals("sedol"))
+				identifiers[i] = instrument.getSedol();
+			else if (identifierType.equals("cusip"))
+				identifiers[i] = instrument.getCusip();
+			else if (identifierType.equals("ric"))
+				identifiers[i] = instrument.getRIC();
+			else
+				identifiers[i] = "NOSUCH" + i;
+		}
+	}
+
+	@Benchmark
+	public Instrument getInstrument() {
+		return instruments.getInstrument(identifiers[next++ & (IDENTIFIERS - 1)]);
+	}
+}
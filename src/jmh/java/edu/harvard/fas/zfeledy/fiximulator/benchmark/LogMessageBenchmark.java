@@ -0,0 +1,66 @@
+/*
+ * File : LogMessageBenchmark.java
+ *
+ * Contents : Wrapping a message for the message table, which happens on the
+ * session thread for every message, and breaking it into fields, which
+ * happens on the event dispatch thread when a row is selected.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.fas.zfeledy.fiximulator.core.LogMessage;
+import edu.harvard.fas.zfeledy.fiximulator.util.LogField;
+import quickfix.ConfigError;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LogMessageBenchmark {
+	@Param({ "NewOrderSingle", "ExecutionReport" })
+	private String messageType;
+
+	private String rawMessage;
+	private LogMessage message;
+	private int next = 0;
+
+	@Setup
+	public void setUp() throws ConfigError, IOException {
+		// the dictionary is looked up through the registered session
+		Fixtures.application();
+		if (messageType.equals("NewOrderSingle"))
+			rawMessage = Fixtures.newOrderSingle(1).toString();
+		else
+			rawMessage = Fixtures.executionReport(1).toString();
+		message = new LogMessage(0, true, Fixtures.SESSION_ID, rawMessage);
+	}
+
+	@Benchmark
+	public LogMessage construct() {
+		return new LogMessage(next++, true, Fixtures.SESSION_ID, rawMessage);
+	}
+
+	@Benchmark
+	public List<LogField> getLogFields() {
+		return message.getLogFields();
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * File : MarketSimulatorBenchmark.java
+ *
+ * Contents : One tick of the market simulator over instrument files of
+ * different sizes, and reading a price the way a fill does while the
+ * market is not ticking.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulator;
+import edu.harvard.fas.zfeledy.fiximulator.core.Instrument;
+import edu.harvard.fas.zfeledy.fiximulator.core.InstrumentSet;
+import edu.harvard.fas.zfeledy.fiximulator.core.MarketSimulator;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MarketSimulatorBenchmark {
+	private static final int LOOKUPS = 256;
+
+	@Param({ "1000", "100000" })
+	private int instrumentCount;
+
+	private MarketSimulator market;
+	private Instrument[] instruments;
+	private int next = 0;
+
+	@Setup
+	public void setUp() throws IOException {
+		File file = File.createTempFile("instruments", ".xml");
+		file.deleteOnExit();
+		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		writer.println("<instruments>");
+		for (int i = 0; i < instrumentCount; i++)
+			writer.println("   <instrument name=\"N" + i + "\" ticker=\"T" + i + "\" sedol=\"S" + i + "\" ric=\"R" + i
+					+ "\" cusip=\"C" + i + "\" price=\"" + (10 + i % 490) + ".25\"/>");
+		writer.println("</instruments>");
+		writer.close();
+		InstrumentSet set = new InstrumentSet(file);
+		FIXimulator.setInstruments(set);
+		market = new MarketSimulator(1000, 0.3, 0, 0.0005);
+		market.tick();
+		instruments = new Instrument[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++)
+			instruments[i] = set.getInstrument(i * 7919 % instrumentCount);
+	}
+
+	@Benchmark
+	public void tick() {
+		market.tick();
+	}
+
+	@Benchmark
+	public long getPrice() {
+		return market.getPrice(instruments[next++ & (LOOKUPS - 1)], true);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * File : OrderBenchmark.java
+ *
+ * Contents : Decoding a NewOrderSingle into an Order, the first thing done
+ * with every order that comes in. The messages are parsed from their
+ * encoded form, as the acceptor hands them over.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.fas.zfeledy.fiximulator.core.Order;
+import quickfix.fix44.NewOrderSingle;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderBenchmark {
+	private static final int MESSAGES = 1024;
+
+	private NewOrderSingle[] messages;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		messages = new NewOrderSingle[MESSAGES];
+		for (int i = 0; i < MESSAGES; i++)
+			messages[i] = Fixtures.receivedOrderSingle(i);
+	}
+
+	@Benchmark
+	public Order newOrder() {
+		return new Order(messages[next++ & (MESSAGES - 1)]);
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * File : OrderSetBenchmark.java
+ *
+ * Contents : Adding orders to a full OrderSet, so that every add also
+ * evicts and unindexes the oldest order, at a few cache sizes.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.fas.zfeledy.fiximulator.core.Order;
+import edu.harvard.fas.zfeledy.fiximulator.core.OrderSet;
+import quickfix.field.ClOrdID;
+import quickfix.fix44.NewOrderSingle;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderSetBenchmark {
+	@Param({ "50", "1000", "100000" })
+	private int cachedObjects;
+
+	private OrderSet orders;
+	// twice the cache, so an order has been evicted before it is added again
+	private Order[] pool;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		orders = new OrderSet();
+		orders.setLimit(cachedObjects);
+		pool = new Order[cachedObjects * 2];
+		NewOrderSingle message = Fixtures.newOrderSingle(0);
+		for (int i = 0; i < pool.length; i++) {
+			message.set(new ClOrdID("ORD" + i));
+			pool[i] = new Order(message);
+		}
+		for (int i = 0; i < cachedObjects; i++)
+			add();
+	}
+
+	@Benchmark
+	public OrderSet add() {
+		orders.add(pool[next], false);
+		if (++next == pool.length)
+			next = 0;
+		return orders;
+	}
+}
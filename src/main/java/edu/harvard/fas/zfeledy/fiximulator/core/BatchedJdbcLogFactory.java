@@ -0,0 +1,628 @@
+/*
+ * File : BatchedJdbcLogFactory.java
+ *
+ * Contents : This class logs FIX messages and session events to the
+ * messages_log and event_log tables without touching the database on the
+ * session threads. Entries are queued in memory and a background thread
+ * writes them as multi-row inserts over a pooled connection. When the queue
+ * is full, or the database is unavailable, entries are spilled to a file and
+ * loaded once the database has caught up.
+ *
+ * Messages are also written to the messages_index table with their type,
+ * symbol, side and order and execution IDs in indexed columns, which is what
+ * the reports query. An index row refers to its message by the id of the
+ * messages_log row rather than holding the text a second time.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.AsyncLog;
+import edu.harvard.fas.zfeledy.fiximulator.util.ConnectionPool;
+import edu.harvard.fas.zfeledy.fiximulator.util.FIXTagScanner;
+import quickfix.ConfigError;
+import quickfix.FieldConvertError;
+import quickfix.Log;
+import quickfix.LogFactory;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.field.ClOrdID;
+import quickfix.field.ExecID;
+import quickfix.field.MsgType;
+import quickfix.field.OrderID;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+
+public class BatchedJdbcLogFactory implements LogFactory {
+	private static final int DEFAULT_BATCH_SIZE = 500;
+	private static final int DEFAULT_QUEUE_SIZE = 65536;
+	private static final String DEFAULT_SPILL_FILE = "logs/messages_log.spill";
+	// how long to leave the database alone after a failed insert
+	private static final long RETRY_INTERVAL = 5000;
+	private static final String COLUMNS = " (time, beginstring, sendercompid, sendersubid, senderlocid, "
+			+ "targetcompid, targetsubid, targetlocid, session_qualifier, text) VALUES ";
+	private static final String ROW = "(?,?,?,?,?,?,?,?,?,?)";
+	public static final String LOG_TABLE = "messages_log";
+	public static final String INDEX_TABLE = "messages_index";
+	/**
+	 * The index rows joined to the messages they refer to, as i and m, for
+	 * reports that select the text.
+	 */
+	public static final String INDEXED_MESSAGES = INDEX_TABLE + " i join " + LOG_TABLE + " m on m.id = i.log_id";
+	private static final String INDEX_COLUMNS = " (time, beginstring, sendercompid, targetcompid, msgtype, "
+			+ "symbol, side, clordid, orderid, execid, log_id) VALUES ";
+	private static final String INDEX_ROW = "(?,?,?,?,?,?,?,?,?,?,?)";
+	private static final int ID_LENGTH = 64;
+
+	private final SessionSettings settings;
+	private final String[] tables = new String[3];
+	private final boolean logHeartbeats;
+	private final boolean indexMessages;
+	// only used on the writer thread
+	private final FIXTagScanner scanner = new FIXTagScanner();
+	private final int batchSize;
+	private final ArrayBlockingQueue<Entry> queue;
+	private final Thread writer;
+	private volatile boolean running = true;
+	private long retryAt = 0;
+	// the step between generated ids, 0 until read
+	private long idIncrement = 0;
+
+	// entries that did not make it into the database yet
+	private final Object spillLock = new Object();
+	private final File spillFile;
+	private Writer spill = null;
+	private volatile boolean spilled;
+
+	public BatchedJdbcLogFactory(SessionSettings settings) throws ConfigError {
+		this.settings = settings;
+		try {
+			tables[Entry.INCOMING] = getString(settings, "JdbcLogIncomingTable", LOG_TABLE);
+			tables[Entry.OUTGOING] = getString(settings, "JdbcLogOutgoingTable", LOG_TABLE);
+			tables[Entry.EVENT] = getString(settings, "JdbcLogEventTable", "event_log");
+			logHeartbeats = !settings.isSetting("JdbcLogHeartBeats") || settings.getBool("JdbcLogHeartBeats");
+			boolean index = !settings.isSetting("FIXimulatorLogToDBIndex")
+					|| settings.getBool("FIXimulatorLogToDBIndex");
+			// index rows refer to messages_log ids, which would be ambiguous
+			// or dangling with the messages logged elsewhere
+			if (index && !(LOG_TABLE.equals(tables[Entry.INCOMING]) && LOG_TABLE.equals(tables[Entry.OUTGOING]))) {
+				AsyncLog.warn("Not indexing messages, " + INDEX_TABLE + " refers to rows of " + LOG_TABLE
+						+ " but messages are logged to " + tables[Entry.INCOMING] + " and " + tables[Entry.OUTGOING]);
+				index = false;
+			}
+			indexMessages = index;
+			batchSize = (int) getLong(settings, "FIXimulatorLogToDBBatchSize", DEFAULT_BATCH_SIZE);
+			queue = new ArrayBlockingQueue<Entry>(
+					(int) getLong(settings, "FIXimulatorLogToDBQueueSize", DEFAULT_QUEUE_SIZE));
+			spillFile = new File(getString(settings, "FIXimulatorLogToDBSpillFile", DEFAULT_SPILL_FILE));
+		} catch (FieldConvertError e) {
+			throw new ConfigError(e);
+		}
+		// pick up whatever the last run could not write
+		spilled = spillFile.length() > 0 || replayFile().exists();
+
+		writer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "FIXimulator-JdbcLog");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				close();
+			}
+		}, "FIXimulator-JdbcLog-Close"));
+	}
+
+	public Log create(SessionID sessionID) {
+		return new BatchedJdbcLog(sessionID);
+	}
+
+	/**
+	 * Stops the writer. Anything it could not write in time is left in the
+	 * spill file for the next run.
+	 */
+	public void close() {
+		running = false;
+		writer.interrupt();
+		try {
+			writer.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Entry> remaining = new ArrayList<Entry>();
+		queue.drainTo(remaining);
+		synchronized (spillLock) {
+			for (Entry entry : remaining)
+				spill(entry);
+			closeSpill();
+		}
+	}
+
+	/*
+	 * Called on the session threads, never waits for the database. A full
+	 * queue means the database has fallen behind, so the entry goes to the
+	 * spill file instead.
+	 */
+	private void enqueue(Entry entry) {
+		if (!running || !queue.offer(entry)) {
+			synchronized (spillLock) {
+				spill(entry);
+			}
+		}
+	}
+
+	private void drain() {
+		List<Entry> batch = new ArrayList<Entry>(batchSize);
+		while (running) {
+			Entry first;
+			try {
+				first = queue.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (first == null) {
+				// quiet, a good time to catch up on the spill file
+				if (spilled)
+					loadSpill();
+				continue;
+			}
+			batch.add(first);
+			queue.drainTo(batch, batchSize - 1);
+			if (!insert(batch)) {
+				synchronized (spillLock) {
+					for (Entry entry : batch)
+						spill(entry);
+					flushSpill();
+				}
+			}
+			batch.clear();
+			if (spilled && queue.size() < batchSize)
+				loadSpill();
+		}
+	}
+
+	/**
+	 * @return false if the batch could not be written.
+	 */
+	private boolean insert(List<Entry> batch) {
+		if (System.currentTimeMillis() < retryAt)
+			return false;
+		Connection connection = null;
+		try {
+			connection = ConnectionPool.getConnection(settings);
+			// one transaction, so a failed batch is spilled without any of
+			// its rows having been written
+			connection.setAutoCommit(false);
+			// entries for each table keep their order
+			for (int type = 0; type < tables.length; type++) {
+				List<Entry> rows = new ArrayList<Entry>(batch.size());
+				for (Entry entry : batch) {
+					if (entry.type == type)
+						rows.add(entry);
+				}
+				if (!rows.isEmpty())
+					insert(connection, tables[type], rows);
+			}
+			if (indexMessages)
+				index(connection, batch);
+			connection.commit();
+			return true;
+		} catch (SQLException e) {
+			AsyncLog.warn("Could not write " + batch.size() + " entries to the database, spilling them to "
+					+ spillFile + ": " + e.getMessage());
+			retryAt = System.currentTimeMillis() + RETRY_INTERVAL;
+			if (connection != null) {
+				try {
+					connection.rollback();
+				} catch (SQLException rollback) {
+				}
+			}
+			return false;
+		} finally {
+			if (connection != null) {
+				try {
+					connection.setAutoCommit(true);
+					connection.close();
+				} catch (SQLException e) {
+				}
+			}
+		}
+	}
+
+	private void insert(Connection connection, String table, List<Entry> rows) throws SQLException {
+		// the index needs the ids given to the messages
+		boolean keys = indexMessages && rows.get(0).type != Entry.EVENT;
+		PreparedStatement statement = connection.prepareStatement(insertSQL(table, COLUMNS, ROW, rows.size()),
+				keys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+		try {
+			int column = 1;
+			for (Entry entry : rows) {
+				SessionID session = entry.sessionID;
+				statement.setTimestamp(column++, new Timestamp(entry.time));
+				statement.setString(column++, session.getBeginString());
+				statement.setString(column++, session.getSenderCompID());
+				statement.setString(column++, session.getSenderSubID());
+				statement.setString(column++, session.getSenderLocationID());
+				statement.setString(column++, session.getTargetCompID());
+				statement.setString(column++, session.getTargetSubID());
+				statement.setString(column++, session.getTargetLocationID());
+				statement.setString(column++, session.getSessionQualifier());
+				statement.setString(column++, entry.text);
+			}
+			statement.executeUpdate();
+			if (keys) {
+				long first;
+				ResultSet ids = statement.getGeneratedKeys();
+				try {
+					if (!ids.next())
+						throw new SQLException("No id was generated for the rows inserted into " + table);
+					first = ids.getLong(1);
+				} finally {
+					ids.close();
+				}
+				// MySQL gives the rows of one multi-row insert consecutive
+				// ids, auto_increment_increment apart, in any lock mode.
+				// Connector/J 5.1 counts its keys up by one instead, so only
+				// the first is taken from it
+				long increment = getIdIncrement(connection);
+				for (int i = 0; i < rows.size(); i++)
+					rows.get(i).logID = first + i * increment;
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	/*
+	 * Reads the server's auto_increment_increment the first time it is
+	 * needed.
+	 */
+	private long getIdIncrement(Connection connection) throws SQLException {
+		if (idIncrement == 0) {
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet result = statement.executeQuery("select @@auto_increment_increment");
+				idIncrement = result.next() ? Math.max(1, result.getLong(1)) : 1;
+			} finally {
+				statement.close();
+			}
+		}
+		return idIncrement;
+	}
+
+	/*
+	 * Pulls the indexed fields out of each message with a single scan. The
+	 * messages have been inserted by then, so each knows its row.
+	 */
+	private void index(Connection connection, List<Entry> batch) throws SQLException {
+		int count = 0;
+		for (Entry entry : batch) {
+			if (entry.type != Entry.EVENT)
+				count++;
+		}
+		if (count == 0)
+			return;
+		PreparedStatement statement = connection
+				.prepareStatement(insertSQL(INDEX_TABLE, INDEX_COLUMNS, INDEX_ROW, count));
+		try {
+			int column = 1;
+			for (Entry entry : batch) {
+				if (entry.type == Entry.EVENT)
+					continue;
+				scanner.scan(entry.text, FIXTagScanner.SOH);
+				char side = scanner.getChar(Side.FIELD);
+				statement.setTimestamp(column++, new Timestamp(entry.time));
+				statement.setString(column++, entry.sessionID.getBeginString());
+				statement.setString(column++, entry.sessionID.getSenderCompID());
+				statement.setString(column++, entry.sessionID.getTargetCompID());
+				statement.setString(column++, limit(scanner.getString(MsgType.FIELD), 8, ""));
+				statement.setString(column++, limit(scanner.getString(Symbol.FIELD), ID_LENGTH, null));
+				statement.setString(column++, side == 0 ? null : String.valueOf(side));
+				statement.setString(column++, limit(scanner.getString(ClOrdID.FIELD), ID_LENGTH, null));
+				statement.setString(column++, limit(scanner.getString(OrderID.FIELD), ID_LENGTH, null));
+				statement.setString(column++, limit(scanner.getString(ExecID.FIELD), ID_LENGTH, null));
+				statement.setLong(column++, entry.logID);
+			}
+			statement.executeUpdate();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static String insertSQL(String table, String columns, String row, int rows) {
+		StringBuilder sql = new StringBuilder(64 + columns.length() + rows * (row.length() + 1));
+		sql.append("INSERT INTO ").append(table).append(columns);
+		for (int i = 0; i < rows; i++) {
+			if (i > 0)
+				sql.append(',');
+			sql.append(row);
+		}
+		return sql.toString();
+	}
+
+	private static String limit(String value, int length, String missing) {
+		if (value == null)
+			return missing;
+		return value.length() > length ? value.substring(0, length) : value;
+	}
+
+	// spill file, all callers hold spillLock
+
+	private void spill(Entry entry) {
+		try {
+			if (spill == null) {
+				if (spillFile.getParentFile() != null)
+					spillFile.getParentFile().mkdirs();
+				spill = new BufferedWriter(
+						new OutputStreamWriter(new FileOutputStream(spillFile, true), StandardCharsets.UTF_8));
+			}
+			SessionID session = entry.sessionID;
+			spill.write(Integer.toString(entry.type));
+			spill.write('\t');
+			spill.write(Long.toString(entry.time));
+			String[] keys = { session.getBeginString(), session.getSenderCompID(), session.getSenderSubID(),
+					session.getSenderLocationID(), session.getTargetCompID(), session.getTargetSubID(),
+					session.getTargetLocationID(), session.getSessionQualifier() };
+			for (String key : keys) {
+				spill.write('\t');
+				spill.write(escape(key));
+			}
+			spill.write('\t');
+			spill.write(escape(entry.text));
+			spill.write('\n');
+			spilled = true;
+		} catch (IOException e) {
+			AsyncLog.error("Could not spill a log entry to " + spillFile, e);
+		}
+	}
+
+	private void flushSpill() {
+		if (spill == null)
+			return;
+		try {
+			spill.flush();
+		} catch (IOException e) {
+			AsyncLog.error("Could not flush " + spillFile, e);
+		}
+	}
+
+	private void closeSpill() {
+		if (spill == null)
+			return;
+		try {
+			spill.close();
+		} catch (IOException e) {
+			AsyncLog.error("Could not close " + spillFile, e);
+		}
+		spill = null;
+	}
+
+	private File replayFile() {
+		return new File(spillFile.getPath() + ".replay");
+	}
+
+	/*
+	 * Moves the spill file aside and writes it to the database in batches.
+	 * If the database fails part way through, the rest of the file is
+	 * spilled again, so no entry is written twice.
+	 */
+	private void loadSpill() {
+		if (System.currentTimeMillis() < retryAt)
+			return;
+		File replay = replayFile();
+		synchronized (spillLock) {
+			closeSpill();
+			spilled = false;
+			// a replay file left by an earlier run goes first
+			if (!replay.exists() && spillFile.exists() && !spillFile.renameTo(replay)) {
+				AsyncLog.error("Could not move " + spillFile + " to " + replay);
+				return;
+			}
+		}
+		if (!replay.exists())
+			return;
+
+		long loaded = 0;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(replay), StandardCharsets.UTF_8));
+			List<Entry> batch = new ArrayList<Entry>(batchSize);
+			boolean failed = false;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Entry entry = parse(line);
+				if (entry == null)
+					continue;
+				batch.add(entry);
+				if (batch.size() == batchSize || !running) {
+					failed = flushLoaded(batch, failed);
+					if (!failed)
+						loaded += batch.size();
+					batch.clear();
+				}
+			}
+			failed = flushLoaded(batch, failed);
+			if (!failed)
+				loaded += batch.size();
+		} catch (IOException e) {
+			AsyncLog.error("Could not read " + replay, e);
+			return;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		if (!replay.delete())
+			AsyncLog.warn("Could not delete " + replay);
+		if (loaded > 0)
+			AsyncLog.info("Loaded " + loaded + " spilled log entries into the database");
+	}
+
+	/**
+	 * Writes a batch read back from the spill file, or spills it again once a
+	 * write has failed or the writer is stopping.
+	 *
+	 * @return true if this or an earlier batch has failed.
+	 */
+	private boolean flushLoaded(List<Entry> batch, boolean failed) {
+		if (batch.isEmpty())
+			return failed;
+		if (!failed && running && insert(batch))
+			return false;
+		synchronized (spillLock) {
+			for (Entry entry : batch)
+				spill(entry);
+			flushSpill();
+		}
+		return true;
+	}
+
+	private static Entry parse(String line) {
+		String[] fields = line.split("\t", -1);
+		if (fields.length != 11) {
+			AsyncLog.warn("Skipping a malformed line in the log spill file");
+			return null;
+		}
+		SessionID sessionID = new SessionID(unescape(fields[2]), unescape(fields[3]), unescape(fields[4]),
+				unescape(fields[5]), unescape(fields[6]), unescape(fields[7]), unescape(fields[8]),
+				unescape(fields[9]));
+		return new Entry(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), sessionID, unescape(fields[10]));
+	}
+
+	private static String escape(String text) {
+		if (text == null)
+			return "";
+		if (text.indexOf('\\') < 0 && text.indexOf('\t') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0)
+			return text;
+		StringBuilder escaped = new StringBuilder(text.length() + 16);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '\\':
+				escaped.append("\\\\");
+				break;
+			case '\t':
+				escaped.append("\\t");
+				break;
+			case '\n':
+				escaped.append("\\n");
+				break;
+			case '\r':
+				escaped.append("\\r");
+				break;
+			default:
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	private static String unescape(String text) {
+		if (text.indexOf('\\') < 0)
+			return text;
+		StringBuilder unescaped = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length()) {
+				char next = text.charAt(++i);
+				unescaped.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			} else {
+				unescaped.append(c);
+			}
+		}
+		return unescaped.toString();
+	}
+
+	private static String getString(SessionSettings settings, String key, String defaultValue)
+			throws ConfigError, FieldConvertError {
+		return settings.isSetting(key) ? settings.getString(key) : defaultValue;
+	}
+
+	private static long getLong(SessionSettings settings, String key, long defaultValue)
+			throws ConfigError, FieldConvertError {
+		return settings.isSetting(key) ? settings.getLong(key) : defaultValue;
+	}
+
+	private static boolean isHeartbeat(String message) {
+		return message.contains("\00135=0\001");
+	}
+
+	private class BatchedJdbcLog implements Log {
+		private final SessionID sessionID;
+
+		BatchedJdbcLog(SessionID sessionID) {
+			this.sessionID = sessionID;
+		}
+
+		/*
+		 * The message history is kept for the reports, a session reset does
+		 * not delete it.
+		 */
+		public void clear() {
+		}
+
+		public void onIncoming(String message) {
+			if (logHeartbeats || !isHeartbeat(message))
+				enqueue(new Entry(Entry.INCOMING, System.currentTimeMillis(), sessionID, message));
+		}
+
+		public void onOutgoing(String message) {
+			if (logHeartbeats || !isHeartbeat(message))
+				enqueue(new Entry(Entry.OUTGOING, System.currentTimeMillis(), sessionID, message));
+		}
+
+		public void onEvent(String text) {
+			enqueue(new Entry(Entry.EVENT, System.currentTimeMillis(), sessionID, text));
+		}
+
+		public void onErrorEvent(String text) {
+			enqueue(new Entry(Entry.EVENT, System.currentTimeMillis(), sessionID, text));
+		}
+	}
+
+	private static class Entry {
+		static final int INCOMING = 0;
+		static final int OUTGOING = 1;
+		static final int EVENT = 2;
+
+		final int type;
+		final long time;
+		final SessionID sessionID;
+		final String text;
+		long logID = 0; // the messages_log row, set by the writer
+
+		Entry(int type, long time, SessionID sessionID, String text) {
+			this.type = type;
+			this.time = time;
+			this.sessionID = sessionID;
+			this.text = text;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * File : CounterpartySession.java
+ *
+ * Contents : This class holds what FIXimulator keeps for one FIX session: the
+ * orders, executions and IOIs exchanged with that counterparty and the
+ * executor thread that fills its orders. ClOrdIDs and ExecIDs are only looked
+ * up within their own session, so counterparties that reuse each other's IDs
+ * never collide. The session's sets are views over the application's, so
+ * every session shares the one cache and its limit. The session's stage
+ * latencies are kept here too, by message type, as is the encoder its
+ * execution reports are written with.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import quickfix.SessionID;
+
+public class CounterpartySession {
+	private final SessionID sessionID;
+	private final OrderSet orders;
+	private final ExecutionSet executions;
+	private final IOIset iois;
+	private volatile boolean loggedOn = false;
+	private FIXimulatorApplication.Executor executor = null;
+	private Thread executorThread = null;
+	private final ConcurrentHashMap<String, StageLatency> latencies = new ConcurrentHashMap<String, StageLatency>();
+	private final ExecutionReportEncoder reportEncoder = new ExecutionReportEncoder();
+	// when the message being handled arrived, only used on the session thread
+	private long receivedAt = 0;
+
+	/**
+	 * The session's orders, executions and IOIs are held by the given sets.
+	 */
+	public CounterpartySession(SessionID sessionID, OrderSet orders, ExecutionSet executions, IOIset iois) {
+		this.sessionID = sessionID;
+		this.orders = new OrderSet(orders);
+		this.executions = new ExecutionSet(executions);
+		this.iois = new IOIset(iois);
+	}
+
+	public SessionID getSessionID() {
+		return sessionID;
+	}
+
+	public OrderSet getOrders() {
+		return orders;
+	}
+
+	public ExecutionSet getExecutions() {
+		return executions;
+	}
+
+	public IOIset getIOIs() {
+		return iois;
+	}
+
+	public boolean isLoggedOn() {
+		return loggedOn;
+	}
+
+	void setLoggedOn(boolean loggedOn) {
+		this.loggedOn = loggedOn;
+	}
+
+	/**
+	 * @return the stage latencies of the message type, published over JMX the
+	 *         first time the type is seen.
+	 */
+	public StageLatency getLatency(String messageType) {
+		StageLatency latency = latencies.get(messageType);
+		if (latency == null) {
+			latency = new StageLatency(sessionID, messageType);
+			StageLatency existing = latencies.putIfAbsent(messageType, latency);
+			if (existing != null)
+				return existing;
+			latency.register();
+		}
+		return latency;
+	}
+
+	public ExecutionReportEncoder getReportEncoder() {
+		return reportEncoder;
+	}
+
+	long getReceivedAt() {
+		return receivedAt;
+	}
+
+	void setReceivedAt(long receivedAt) {
+		this.receivedAt = receivedAt;
+	}
+
+	/**
+	 * Starts filling the session's orders on a thread of its own, unless an
+	 * executor is already running for it.
+	 */
+	synchronized void startExecutor(FIXimulatorApplication.Executor executor) {
+		if (executorThread != null && executorThread.isAlive())
+			return;
+		this.executor = executor;
+		executorThread = new Thread(executor, "FIXimulator-Executor-" + sessionID);
+		executorThread.start();
+	}
+
+	synchronized void stopExecutor() {
+		if (executor == null)
+			return;
+		executor.stopExecutor();
+		executorThread.interrupt();
+		try {
+			executorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+		executorThread = null;
+	}
+}
@@ -24,7 +24,8 @@ public class CustomExecutionReport extends ExecutionReport {
 		setField(leavesQty);
 		setField(cumQty);
 		setField(avgPx);
-		setField(custField);
+		if (custField != null)
+			setField(custField);
 	}
 
 }
@@ -23,7 +23,6 @@ import quickfix.field.Symbol;
 import quickfix.field.TimeInForce;
 
 public class CustomOrder  extends Order implements Cloneable{
-	private static int nextID = 1;
 	private boolean receivedOrder = false;
 	private boolean receivedCancel = false;
 	private boolean receivedReplace = false;
@@ -306,10 +305,6 @@ public class CustomOrder  extends Order implements Cloneable{
 		
 	}
 
-	public String generateID() {
-		return "O" + Long.valueOf(System.currentTimeMillis() + (nextID++)).toString();
-	}
-
 	public String getID() {
 		return ID;
 	}
@@ -358,14 +353,6 @@ public class CustomOrder  extends Order implements Cloneable{
 		this.executed = executed;
 	}
 
-	public static int getNextID() {
-		return nextID;
-	}
-
-	public static void setNextID(int nextID) {
-		CustomOrder.nextID = nextID;
-	}
-
 	public double getOpen() {
 		return open;
 	}
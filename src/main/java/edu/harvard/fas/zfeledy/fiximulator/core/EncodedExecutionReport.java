@@ -0,0 +1,109 @@
+/*
+ * File : EncodedExecutionReport.java
+ *
+ * Contents : An execution report that QuickFIX/J sends like any other
+ * message, numbering, storing and logging it, but that is serialized by
+ * the session's ExecutionReportEncoder instead of field by field. It holds
+ * the values of the report rather than body fields; only the header is
+ * filled in, by QuickFIX/J as the report goes out.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import quickfix.FieldNotFound;
+import quickfix.Message;
+import quickfix.field.MsgSeqNum;
+import quickfix.field.MsgType;
+
+public class EncodedExecutionReport extends Message {
+	private static final long serialVersionUID = 1L;
+
+	private final transient ExecutionReportEncoder encoder;
+	private final Order order;
+	private final String execID;
+	private final String refID;
+	private final char execType;
+	private final char ordStatus;
+	private final long leavesQty;
+	private final long cumQty;
+	private final long avgPx;
+	private final long lastPx;
+	// the last encoding and the MsgSeqNum it was made with
+	private String encoded = null;
+	private String encodedSeqNum = null;
+
+	/**
+	 * Takes the values of the execution and the status of its order as they
+	 * are now.
+	 */
+	public EncodedExecutionReport(Execution execution, ExecutionReportEncoder encoder) {
+		this.encoder = encoder;
+		this.order = execution.getOrder();
+		this.execID = execution.getID();
+		this.refID = execution.getRefID();
+		this.execType = execution.getFIXExecType();
+		this.ordStatus = order.getFIXStatus();
+		this.leavesQty = execution.getLeavesQtyUnits();
+		this.cumQty = execution.getCumQtyUnits();
+		this.avgPx = execution.getAvgPxUnits();
+		this.lastPx = execution.getLastPxUnits();
+		getHeader().setString(MsgType.FIELD, MsgType.EXECUTION_REPORT);
+	}
+
+	/*
+	 * The application logs the report in toApp and QuickFIX/J then sends it,
+	 * both after the header is set, so it is only encoded again if the
+	 * header has been given a new MsgSeqNum since.
+	 */
+	@Override
+	public String toString() {
+		String seqNum = null;
+		try {
+			if (getHeader().isSetField(MsgSeqNum.FIELD))
+				seqNum = getHeader().getString(MsgSeqNum.FIELD);
+		} catch (FieldNotFound e) {
+		}
+		if (encoded == null || !(seqNum == null ? encodedSeqNum == null : seqNum.equals(encodedSeqNum))) {
+			encoded = encoder.encode(this);
+			encodedSeqNum = seqNum;
+		}
+		return encoded;
+	}
+
+	public Order getOrder() {
+		return order;
+	}
+
+	public String getExecID() {
+		return execID;
+	}
+
+	public String getRefID() {
+		return refID;
+	}
+
+	public char getExecType() {
+		return execType;
+	}
+
+	public char getOrdStatus() {
+		return ordStatus;
+	}
+
+	public long getLeavesQty() {
+		return leavesQty;
+	}
+
+	public long getCumQty() {
+		return cumQty;
+	}
+
+	public long getAvgPx() {
+		return avgPx;
+	}
+
+	public long getLastPx() {
+		return lastPx;
+	}
+}
@@ -10,21 +10,27 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.core;
 
+import edu.harvard.fas.zfeledy.fiximulator.util.FixedPoint;
+import edu.harvard.fas.zfeledy.fiximulator.util.IdGenerator;
+
 public class Execution implements Cloneable {
-	private static int nextID = 1;
+	private static final IdGenerator ids = new IdGenerator('E');
 	private Order order;
 	private boolean DKd = false;
 	private String ID = null;
 	private String refID = null;
 	private char execType;
 	private char execTranType;
-	private double lastShares = 0.0;
-	private double lastPx = 0.0;
-	private double leavesQty = 0.0;
-	private double cumQty = 0.0;
-	private double avgPx = 0.0;
+	// quantities are scaled by FixedPoint.QTY_SCALE, prices by PRICE_SCALE
+	private long lastShares = 0;
+	private long lastPx = 0;
+	private long leavesQty = 0;
+	private long cumQty = 0;
+	private long avgPx = 0;
 	private String symbol =null;
 	private String custField = null;
+	private volatile long journalKey = 0; // identifies the execution in the OrderJournal
+	private volatile long sequence = -1; // its sequence number in the ExecutionSet's buffer
 
 	public String getCustField() {
 		return custField;
@@ -41,6 +47,8 @@ public class Execution implements Cloneable {
 			execution.setRefID(getID());
 			execution.setID(generateID());
 			execution.setDKd(false);
+			execution.journalKey = 0;
+			execution.sequence = -1;
 			return execution;
 		} catch (CloneNotSupportedException e) {
 		}
@@ -53,7 +61,14 @@ public class Execution implements Cloneable {
 	}
 
 	public String generateID() {
-		return "E" + Long.valueOf(System.currentTimeMillis() + (nextID++)).toString();
+		return ids.next();
+	}
+
+	/**
+	 * Keeps new ExecIDs above one restored from the journal.
+	 */
+	static void observeID(String id) {
+		ids.observe(id);
 	}
 
 	public String getID() {
@@ -73,18 +88,34 @@ public class Execution implements Cloneable {
 	}
 
 	public double getAvgPx() {
+		return FixedPoint.priceToDouble(avgPx);
+	}
+
+	public long getAvgPxUnits() {
 		return avgPx;
 	}
 
 	public void setAvgPx(double avgPx) {
+		this.avgPx = FixedPoint.toPrice(avgPx);
+	}
+
+	public void setAvgPxUnits(long avgPx) {
 		this.avgPx = avgPx;
 	}
 
 	public double getCumQty() {
+		return FixedPoint.qtyToDouble(cumQty);
+	}
+
+	public long getCumQtyUnits() {
 		return cumQty;
 	}
 
 	public void setCumQty(double cumQty) {
+		this.cumQty = FixedPoint.toQty(cumQty);
+	}
+
+	public void setCumQtyUnits(long cumQty) {
 		this.cumQty = cumQty;
 	}
 	public String getSymbol() {
@@ -157,29 +188,69 @@ public class Execution implements Cloneable {
 	}
 
 	public double getLastPx() {
+		return FixedPoint.priceToDouble(lastPx);
+	}
+
+	public long getLastPxUnits() {
 		return lastPx;
 	}
 
 	public void setLastPx(double lastPx) {
+		this.lastPx = FixedPoint.toPrice(lastPx);
+	}
+
+	public void setLastPxUnits(long lastPx) {
 		this.lastPx = lastPx;
 	}
 
 	public double getLastShares() {
+		return FixedPoint.qtyToDouble(lastShares);
+	}
+
+	public long getLastSharesUnits() {
 		return lastShares;
 	}
 
 	public void setLastShares(double lastShares) {
+		this.lastShares = FixedPoint.toQty(lastShares);
+	}
+
+	public void setLastSharesUnits(long lastShares) {
 		this.lastShares = lastShares;
 	}
 
 	public double getLeavesQty() {
+		return FixedPoint.qtyToDouble(leavesQty);
+	}
+
+	public long getLeavesQtyUnits() {
 		return leavesQty;
 	}
 
 	public void setLeavesQty(double leavesQty) {
+		this.leavesQty = FixedPoint.toQty(leavesQty);
+	}
+
+	public void setLeavesQtyUnits(long leavesQty) {
 		this.leavesQty = leavesQty;
 	}
 
+	long getJournalKey() {
+		return journalKey;
+	}
+
+	void setJournalKey(long journalKey) {
+		this.journalKey = journalKey;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
 	public Order getOrder() {
 		return order;
 	}
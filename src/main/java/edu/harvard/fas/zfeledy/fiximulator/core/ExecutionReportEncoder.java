@@ -0,0 +1,327 @@
+/*
+ * File : ExecutionReportEncoder.java
+ *
+ * Contents : This class writes execution reports straight into a byte
+ * buffer that is reused for every report of one session. The body of an
+ * order's reports is rendered once into a template, with holes left for
+ * the values that change from one report to the next (ExecID, ExecRefID,
+ * ExecType, OrdStatus, LeavesQty, CumQty, AvgPx and LastPx). Each report
+ * copies the template and fills in the holes, the header comes from the
+ * fields QuickFIX/J has just set (MsgSeqNum, SendingTime and the CompIDs),
+ * and BodyLength and CheckSum are worked out over the finished buffer.
+ *
+ * The output is byte for byte what QuickFIX/J makes of the same report
+ * built as a CustomExecutionReport.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.FixedPoint;
+import quickfix.Field;
+import quickfix.field.AvgPx;
+import quickfix.field.BeginString;
+import quickfix.field.BodyLength;
+import quickfix.field.CheckSum;
+import quickfix.field.ClOrdID;
+import quickfix.field.CumQty;
+import quickfix.field.ExecID;
+import quickfix.field.ExecRefID;
+import quickfix.field.ExecType;
+import quickfix.field.LastPx;
+import quickfix.field.LeavesQty;
+import quickfix.field.MsgType;
+import quickfix.field.OrdStatus;
+import quickfix.field.OrderID;
+import quickfix.field.OrderQty;
+import quickfix.field.SecurityID;
+import quickfix.field.SecurityIDSource;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+
+public class ExecutionReportEncoder {
+	private static final byte SOH = 1;
+	// room in front of the header for BeginString and BodyLength, which are
+	// only written once the length of the rest is known
+	private static final int PREFIX = 64;
+	private static final byte[] MSG_TYPE = (MsgType.FIELD + "=" + MsgType.EXECUTION_REPORT + (char) SOH)
+			.getBytes(StandardCharsets.ISO_8859_1);
+
+	// the values filled into the holes of a template
+	private static final int AVG_PX = 0;
+	private static final int CUM_QTY = 1;
+	private static final int EXEC_ID = 2;
+	private static final int EXEC_REF_ID = 3;
+	private static final int LAST_PX = 4;
+	private static final int ORD_STATUS = 5;
+	private static final int EXEC_TYPE = 6;
+	private static final int LEAVES_QTY = 7;
+
+	private byte[] buffer = new byte[512];
+	private int position;
+
+	/**
+	 * The body of one order's reports with the changing values left out. It
+	 * remembers the order values it was rendered from, so an order that has
+	 * changed since gets a new one.
+	 */
+	static final class Template {
+		private final Order order;
+		private final String orderID;
+		private final String clientID;
+		private final String symbol;
+		private final String securityID;
+		private final String idSource;
+		private final String custField;
+		private final long quantity;
+		private final char side;
+		private final boolean withRefID;
+		// the constant runs back to back, each hole goes in after ends[i]
+		private final byte[] bytes;
+		private final int[] ends;
+		private final int[] holes;
+
+		private Template(Order order, boolean withRefID) {
+			this.order = order;
+			this.orderID = order.getID();
+			this.clientID = order.getClientID();
+			this.symbol = order.getSymbol();
+			this.securityID = order.getSecurityID();
+			this.idSource = order.getIdSource();
+			this.custField = order.getCustomField();
+			this.quantity = order.getQuantityUnits();
+			this.side = order.getFIXSide();
+			this.withRefID = withRefID;
+
+			// in tag order, as QuickFIX/J writes the body
+			StringBuilder text = new StringBuilder(160);
+			int[] ends = new int[8];
+			int[] holes = new int[8];
+			int count = 0;
+			count = hole(text, AvgPx.FIELD, AVG_PX, ends, holes, count);
+			constant(text, ClOrdID.FIELD, clientID);
+			count = hole(text, CumQty.FIELD, CUM_QTY, ends, holes, count);
+			count = hole(text, ExecID.FIELD, EXEC_ID, ends, holes, count);
+			if (withRefID)
+				count = hole(text, ExecRefID.FIELD, EXEC_REF_ID, ends, holes, count);
+			boolean withSecurityID = securityID != null && idSource != null;
+			if (withSecurityID)
+				constant(text, SecurityIDSource.FIELD, idSource);
+			count = hole(text, LastPx.FIELD, LAST_PX, ends, holes, count);
+			constant(text, OrderID.FIELD, orderID);
+			constant(text, OrderQty.FIELD, FixedPoint.format(quantity, FixedPoint.QTY_DECIMALS));
+			count = hole(text, OrdStatus.FIELD, ORD_STATUS, ends, holes, count);
+			if (withSecurityID)
+				constant(text, SecurityID.FIELD, securityID);
+			constant(text, Side.FIELD, String.valueOf(side));
+			constant(text, Symbol.FIELD, symbol);
+			count = hole(text, ExecType.FIELD, EXEC_TYPE, ends, holes, count);
+			count = hole(text, LeavesQty.FIELD, LEAVES_QTY, ends, holes, count);
+			constant(text, CustomField.FIELD, custField);
+			this.bytes = text.toString().getBytes(StandardCharsets.ISO_8859_1);
+			this.ends = Arrays.copyOf(ends, count);
+			this.holes = Arrays.copyOf(holes, count);
+		}
+
+		/*
+		 * Ends the run before the hole with the tag, the SOH after the value
+		 * starts the next run.
+		 */
+		private static int hole(StringBuilder text, int tag, int hole, int[] ends, int[] holes, int count) {
+			if (count > 0)
+				text.append((char) SOH);
+			text.append(tag).append('=');
+			ends[count] = text.length();
+			holes[count] = hole;
+			return count + 1;
+		}
+
+		private static void constant(StringBuilder text, int tag, String value) {
+			if (value == null)
+				return;
+			text.append((char) SOH).append(tag).append('=').append(value);
+		}
+
+		private boolean matches(Order order, boolean withRefID) {
+			return this.order == order && this.withRefID == withRefID && quantity == order.getQuantityUnits()
+					&& side == order.getFIXSide() && same(orderID, order.getID())
+					&& same(clientID, order.getClientID()) && same(symbol, order.getSymbol())
+					&& same(securityID, order.getSecurityID()) && same(idSource, order.getIdSource())
+					&& same(custField, order.getCustomField());
+		}
+
+		private static boolean same(String a, String b) {
+			return a == b || (a != null && a.equals(b));
+		}
+	}
+
+	/**
+	 * @return the report as a FIX string, with the header as QuickFIX/J has
+	 *         initialized it.
+	 */
+	public synchronized String encode(EncodedExecutionReport report) {
+		Order order = report.getOrder();
+		boolean withRefID = report.getRefID() != null;
+		Template template = order.getReportTemplate();
+		if (template == null || !template.matches(order, withRefID)) {
+			template = new Template(order, withRefID);
+			order.setReportTemplate(template);
+		}
+
+		// MsgType leads the header, the other fields follow in tag order
+		position = PREFIX;
+		putBytes(MSG_TYPE, 0, MSG_TYPE.length);
+		String beginString = null;
+		Iterator<Field<?>> fields = report.getHeader().iterator();
+		while (fields.hasNext()) {
+			Field<?> field = fields.next();
+			int tag = field.getTag();
+			if (tag == BeginString.FIELD) {
+				beginString = field.getObject().toString();
+			} else if (tag != BodyLength.FIELD && tag != MsgType.FIELD && tag != CheckSum.FIELD) {
+				putTag(tag);
+				putText(field.getObject().toString());
+				put(SOH);
+			}
+		}
+
+		int run = 0;
+		for (int i = 0; i < template.holes.length; i++) {
+			putBytes(template.bytes, run, template.ends[i]);
+			run = template.ends[i];
+			switch (template.holes[i]) {
+			case AVG_PX:
+				putDecimal(report.getAvgPx(), FixedPoint.PRICE_DECIMALS);
+				break;
+			case CUM_QTY:
+				putDecimal(report.getCumQty(), FixedPoint.QTY_DECIMALS);
+				break;
+			case EXEC_ID:
+				putText(report.getExecID());
+				break;
+			case EXEC_REF_ID:
+				putText(report.getRefID());
+				break;
+			case LAST_PX:
+				putDecimal(report.getLastPx(), FixedPoint.PRICE_DECIMALS);
+				break;
+			case ORD_STATUS:
+				put((byte) report.getOrdStatus());
+				break;
+			case EXEC_TYPE:
+				put((byte) report.getExecType());
+				break;
+			case LEAVES_QTY:
+				putDecimal(report.getLeavesQty(), FixedPoint.QTY_DECIMALS);
+				break;
+			}
+		}
+		putBytes(template.bytes, run, template.bytes.length);
+		put(SOH);
+
+		// BeginString and BodyLength go in right in front of the header,
+		// written from the back
+		int start = PREFIX;
+		buffer[--start] = SOH;
+		int bodyLength = position - PREFIX;
+		do {
+			buffer[--start] = (byte) ('0' + bodyLength % 10);
+			bodyLength /= 10;
+		} while (bodyLength > 0);
+		buffer[--start] = '=';
+		buffer[--start] = '9';
+		buffer[--start] = SOH;
+		for (int i = beginString.length() - 1; i >= 0; i--)
+			buffer[--start] = (byte) beginString.charAt(i);
+		buffer[--start] = '=';
+		buffer[--start] = '8';
+
+		int checksum = 0;
+		for (int i = start; i < position; i++)
+			checksum += buffer[i] & 0xFF;
+		checksum &= 0xFF;
+		putTag(CheckSum.FIELD);
+		put((byte) ('0' + checksum / 100));
+		put((byte) ('0' + checksum / 10 % 10));
+		put((byte) ('0' + checksum % 10));
+		put(SOH);
+		return new String(buffer, start, position - start, StandardCharsets.ISO_8859_1);
+	}
+
+	private void ensure(int length) {
+		if (position + length > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+	}
+
+	private void put(byte value) {
+		ensure(1);
+		buffer[position++] = value;
+	}
+
+	private void putBytes(byte[] bytes, int from, int to) {
+		ensure(to - from);
+		System.arraycopy(bytes, from, buffer, position, to - from);
+		position += to - from;
+	}
+
+	private void putText(String text) {
+		int length = text.length();
+		ensure(length);
+		for (int i = 0; i < length; i++)
+			buffer[position++] = (byte) text.charAt(i);
+	}
+
+	private void putTag(int tag) {
+		putLong(tag);
+		put((byte) '=');
+	}
+
+	private void putLong(long value) {
+		ensure(20);
+		if (value == 0) {
+			buffer[position++] = '0';
+			return;
+		}
+		int end = position + 20;
+		int i = end;
+		while (value > 0) {
+			buffer[--i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		System.arraycopy(buffer, i, buffer, position, end - i);
+		position += end - i;
+	}
+
+	/*
+	 * A scaled value without trailing zeros, as FixedPoint.format writes it.
+	 */
+	private void putDecimal(long value, int decimals) {
+		ensure(decimals + 22);
+		if (value < 0) {
+			put((byte) '-');
+			value = -value;
+		}
+		long scale = 1;
+		for (int i = 0; i < decimals; i++)
+			scale *= 10;
+		putLong(value / scale);
+		long fraction = value % scale;
+		if (fraction == 0)
+			return;
+		int digits = decimals;
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		put((byte) '.');
+		for (int i = digits - 1; i >= 0; i--) {
+			buffer[position + i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		position += digits;
+	}
+}
@@ -5,60 +5,173 @@
  * 
  * Contents : This class is a Set of Execution objects with a utility methods
  * toto access the individual executions.
+ *
+ * A session's ExecutionSet is a view over the application's, holding only
+ * lookups of the executions of its session for as long as the application's
+ * set holds them.
  * 
  */
 
 package edu.harvard.fas.zfeledy.fiximulator.core;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
 
 import edu.harvard.fas.zfeledy.fiximulator.ui.ExecutionTableModel;
+import edu.harvard.fas.zfeledy.fiximulator.util.RingBuffer;
 
 public class ExecutionSet {
-	private ArrayList<Execution> executions = new ArrayList<Execution>();
+	private final RingBuffer<Execution> executions;
+	// the set that holds the executions of this one, itself unless it is a
+	// view
+	private final ExecutionSet cache;
+	private final CopyOnWriteArrayList<ExecutionSet> views = new CopyOnWriteArrayList<ExecutionSet>();
+	// lookup indexes, kept in step with the executions buffer
+	private ConcurrentHashMap<String, Execution> executionsByID = new ConcurrentHashMap<String, Execution>();
+	private ConcurrentHashMap<Order, ConcurrentLinkedQueue<Execution>> executionsByOrder = new ConcurrentHashMap<Order, ConcurrentLinkedQueue<Execution>>();
 	private ExecutionTableModel executionTableModel = null;
+	private OrderJournal journal = null;
 
 	public ExecutionSet() {
+		cache = this;
+		executions = new RingBuffer<Execution>(50, new RingBuffer.EvictionListener<Execution>() {
+			public void evicted(Execution execution) {
+				unindex(execution);
+				for (ExecutionSet view : views)
+					view.unindex(execution);
+			}
+		});
+	}
+
+	/**
+	 * A view over the given set. Executions added to the view are added to
+	 * that set, and are only looked up in the view for as long as that set
+	 * holds them. Counts, positions and limits are those of the whole set.
+	 */
+	public ExecutionSet(ExecutionSet cache) {
+		this.cache = cache.cache;
+		executions = this.cache.executions;
+		this.cache.views.add(this);
 	}
 
 	public void add(Execution execution) {
-		executions.add(execution);
-		int limit = 50;
-		try {
-			limit = (int) FIXimulator.getApplication().getSettings().getLong("FIXimulatorCachedObjects");
-		} catch (Exception e) {
+		// adding to a full buffer evicts, and unindexes, the oldest execution
+		synchronized (executions) {
+			execution.setSequence(executions.add(execution));
+			cache.index(execution);
+			if (cache != this)
+				index(execution);
 		}
-		while (executions.size() > limit) {
-			executions.remove(0);
+		if (cache.journal != null)
+			cache.journal.write(execution);
+		// the table picks the new row up on its next refresh
+		if (cache.executionTableModel != null)
+			cache.executionTableModel.update();
+	}
+
+	/*
+	 * Adds an execution the cache already holds to the view's lookups, as
+	 * executions replayed from the journal are before any others are added.
+	 */
+	void addCached(Execution execution) {
+		synchronized (executions) {
+			index(execution);
 		}
-	    if(FIXimulator.isUiEnabled())
-		executionTableModel.update();  //TODO non ui
 	}
 
-	public void update() {
-		executionTableModel.update();
+	/**
+	 * Marks the execution's row for a repaint. Never blocks the caller.
+	 */
+	public void update(Execution execution) {
+		if (cache.journal != null)
+			cache.journal.write(execution);
+		if (cache.executionTableModel != null)
+			cache.executionTableModel.update(execution.getSequence());
+	}
+
+	/**
+	 * Records every execution added or updated from now on in the journal.
+	 */
+	public void setJournal(OrderJournal journal) {
+		this.journal = journal;
 	}
 
 	public void addCallback(ExecutionTableModel executionTableModel) {
 		this.executionTableModel = executionTableModel;
 	}
 
+	public void setLimit(int limit) {
+		executions.setCapacity(limit);
+	}
+
 	public int getCount() {
 		return executions.size();
 	}
 
+	public RingBuffer<Execution> getBuffer() {
+		return executions;
+	}
+
 	public Execution getExecution(int i) {
 		return executions.get(i);
 	}
 
 	public Execution getExecution(String id) {
-		Iterator<Execution> iterator = executions.iterator();
-		while (iterator.hasNext()) {
-			Execution execution = iterator.next();
-			if (execution.getID().equals(id))
-				return execution;
-		}
-		return null;
+		if (id == null)
+			return null;
+		return executionsByID.get(id);
+	}
+
+	/**
+	 * The cached executions of an order, oldest first.
+	 */
+	public List<Execution> getExecutions(Order order) {
+		ConcurrentLinkedQueue<Execution> orderExecutions = executionsByOrder.get(order);
+		if (orderExecutions == null)
+			return new ArrayList<Execution>();
+		return new ArrayList<Execution>(orderExecutions);
+	}
+
+	/*
+	 * The queue of an order is added to and emptied under the map's lock for
+	 * that order, so an execution is never added to a queue that is being
+	 * dropped.
+	 */
+	private void index(final Execution execution) {
+		executionsByID.put(execution.getID(), execution);
+		Order order = execution.getOrder();
+		if (order == null)
+			return;
+		executionsByOrder.compute(order,
+				new BiFunction<Order, ConcurrentLinkedQueue<Execution>, ConcurrentLinkedQueue<Execution>>() {
+					public ConcurrentLinkedQueue<Execution> apply(Order order,
+							ConcurrentLinkedQueue<Execution> orderExecutions) {
+						if (orderExecutions == null)
+							orderExecutions = new ConcurrentLinkedQueue<Execution>();
+						orderExecutions.add(execution);
+						return orderExecutions;
+					}
+				});
+	}
+
+	private void unindex(final Execution execution) {
+		executionsByID.remove(execution.getID(), execution);
+		Order order = execution.getOrder();
+		if (order == null)
+			return;
+		executionsByOrder.computeIfPresent(order,
+				new BiFunction<Order, ConcurrentLinkedQueue<Execution>, ConcurrentLinkedQueue<Execution>>() {
+					public ConcurrentLinkedQueue<Execution> apply(Order order,
+							ConcurrentLinkedQueue<Execution> orderExecutions) {
+						// executions are evicted oldest first, so this is the
+						// head
+						orderExecutions.remove(execution);
+						return orderExecutions.isEmpty() ? null : orderExecutions;
+					}
+				});
 	}
 }
@@ -14,8 +14,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import edu.harvard.fas.zfeledy.fiximulator.ui.FIXimulatorFrame;
+import edu.harvard.fas.zfeledy.fiximulator.util.AsyncLog;
 import quickfix.Acceptor;
 import quickfix.CompositeLogFactory;
 import quickfix.ConfigError;
@@ -23,13 +26,12 @@ import quickfix.DefaultMessageFactory;
 import quickfix.FieldConvertError;
 import quickfix.FileLogFactory;
 import quickfix.FileStoreFactory;
-import quickfix.JdbcLogFactory;
 import quickfix.LogFactory;
 import quickfix.MessageFactory;
 import quickfix.MessageStoreFactory;
 import quickfix.ScreenLogFactory;
 import quickfix.SessionSettings;
-import quickfix.SocketAcceptor;
+import quickfix.ThreadedSocketAcceptor;
 
 public class FIXimulator {
 	private static final long serialVersionUID = 1L;
@@ -63,27 +65,36 @@ public class FIXimulator {
 			MessageStoreFactory messageStoreFactory = new FileStoreFactory(settings);
 			boolean logToFile = false;
 			boolean logToDB = false;
-			LogFactory logFactory;
+			boolean logToScreen = true;
 			try {
 				logToFile = settings.getBool("FIXimulatorLogToFile");
 				logToDB = settings.getBool("FIXimulatorLogToDB");
 				uiEnabled = settings.getBool("UIEnabled");
 			} catch (FieldConvertError ex) {
 			}
-			if (logToFile && logToDB) {
-				logFactory = new CompositeLogFactory(new LogFactory[] { new ScreenLogFactory(settings),
-						new FileLogFactory(settings), new JdbcLogFactory(settings) });
-			} else if (logToFile) {
-				logFactory = new CompositeLogFactory(
-						new LogFactory[] { new ScreenLogFactory(settings), new FileLogFactory(settings) });
-			} else if (logToDB) {
-				logFactory = new CompositeLogFactory(
-						new LogFactory[] { new ScreenLogFactory(settings), new JdbcLogFactory(settings) });
-			} else {
-				logFactory = new ScreenLogFactory(settings);
+			try {
+				// screen logging writes every message to stdout on the
+				// session thread, so it can be switched off under load
+				if (settings.isSetting("FIXimulatorLogToScreen"))
+					logToScreen = settings.getBool("FIXimulatorLogToScreen");
+				if (settings.isSetting("FIXimulatorLogLevel"))
+					AsyncLog.setLevel(settings.getString("FIXimulatorLogLevel"));
+			} catch (FieldConvertError ex) {
 			}
+			List<LogFactory> logFactories = new ArrayList<LogFactory>();
+			if (logToScreen)
+				logFactories.add(new ScreenLogFactory(settings));
+			if (logToFile)
+				logFactories.add(new FileLogFactory(settings));
+			// batched on a background thread, the session threads never wait
+			// for the database
+			if (logToDB)
+				logFactories.add(new BatchedJdbcLogFactory(settings));
+			LogFactory logFactory = new CompositeLogFactory(logFactories.toArray(new LogFactory[0]));
 			MessageFactory messageFactory = new DefaultMessageFactory();
-			acceptor = new SocketAcceptor(application, messageStoreFactory, settings, logFactory, messageFactory);
+			// a thread per session, so counterparties are served in parallel
+			acceptor = new ThreadedSocketAcceptor(application, messageStoreFactory, settings, logFactory,
+					messageFactory);
 			
 		} catch (ConfigError e) {
 			e.printStackTrace();
@@ -94,6 +105,14 @@ public class FIXimulator {
 		return instruments;
 	}
 
+	/**
+	 * For running the application classes without the acceptor, as the
+	 * benchmarks do.
+	 */
+	public static void setInstruments(InstrumentSet instruments) {
+		FIXimulator.instruments = instruments;
+	}
+
 	public static FIXimulatorApplication getApplication() {
 		return application;
 	}
@@ -4,7 +4,9 @@
  * Author : Zoltan Feledy
  * 
  * Contents : This is the application class that contains all the logic for
- * message handling.
+ * message handling. Any number of sessions can be logged on at once; each
+ * has a CounterpartySession of its own, and replies go back to the session
+ * an order came in on.
  * 
  */
 
@@ -16,34 +18,65 @@ import quickfix.fix42.Message.Header;
 import quickfix.fix44.IndicationOfInterest;
 import quickfix.fix44.NewOrderSingle;
 
+import edu.harvard.fas.zfeledy.fiximulator.util.AsyncLog;
+import edu.harvard.fas.zfeledy.fiximulator.util.FixedPoint;
+
 import javax.swing.*;
 import java.io.*;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class FIXimulatorApplication extends CustomMessageCracker implements Application {
-	private boolean connected;
+public class FIXimulatorApplication implements Application {
 	private JLabel connectedStatus;
 	private JLabel ioiSenderStatus;
 	private JLabel executorStatus;
 	private boolean ioiSenderStarted;
-	private boolean executorStarted;
+	private volatile boolean executorStarted;
+	private volatile Integer executorDelay;
+	private volatile Integer executorPartials;
+	// executors still running, the status shows red once none are
+	private final AtomicInteger runningExecutors = new AtomicInteger();
 	private IOIsender ioiSender;
 	private Thread ioiSenderThread;
-	private Executor executor;
-	private Thread executorThread;
 	private LogMessageSet messages;
 	private SessionSettings settings;
-	private SessionID currentSession;
-	private DataDictionary dictionary;
+	private final ConcurrentHashMap<SessionID, CounterpartySession> sessions = new ConcurrentHashMap<SessionID, CounterpartySession>();
+	// the most recent logon, used for orders that did not come from a session
+	private volatile SessionID defaultSession;
+	private int cachedObjects = 50;
 	private Random random = new Random();
+	// every session's orders, executions and IOIs, shown in the tables
 	private IOIset iois = null;
 	private OrderSet orders = null;
 	private ExecutionSet executions = null;
+	private ResponseScheduler responseScheduler = null;
+	private MatchingEngine matchingEngine = null;
+	private boolean useMatchingEngine = false;
+	private OrderJournal journal = null;
+	private long priceTick = FixedPoint.tickForPrecision(4);
+	// per-stage latencies, published over JMX
+	private boolean latencyMonitor = true;
+	// execution reports written from per-order templates
+	private boolean executionTemplates = true;
+	// moving prices for fills and IOIs, null when prices are static
+	private MarketSimulator market = null;
+	// UiEnabled leaves the responses to new orders to the user, otherwise
+	// they go out DelayInSeconds after the order; read once, not per order
+	private boolean uiResponses = false;
+	private int responseDelay = 0;
+	private final MessageDispatcher dispatcher = createDispatcher();
 	private Order currentOrder;
 
 	public Order getCurrentOrder() {
@@ -56,211 +89,421 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		iois = new IOIset();
 		orders = new OrderSet();
 		executions = new ExecutionSet();
-		
+		responseScheduler = new ResponseScheduler();
+		matchingEngine = new MatchingEngine(new MatchingEngine.FillListener() {
+			public void onFill(Order order, long quantity, long price) {
+				Execution fill = new Execution(order);
+				fill.setLastSharesUnits(quantity);
+				fill.setLastPxUnits(price);
+				// one order that cannot be filled does not fail the message
+				// or the other matches
+				try {
+					execute(fill);
+				} catch (RuntimeException e) {
+					AsyncLog.error("Could not fill order " + order.getID(), e);
+				}
+			}
+		});
+		try {
+			useMatchingEngine = settings.getBool("FIXimulatorMatchingEngine");
+		} catch (Exception e) {
+		}
+		try {
+			cachedObjects = (int) settings.getLong("FIXimulatorCachedObjects");
+		} catch (Exception e) {
+		}
+		applyCachedObjects(cachedObjects);
+		try {
+			if (settings.isSetting("FIXimulatorJournal") && settings.getBool("FIXimulatorJournal"))
+				openJournal();
+		} catch (Exception e) {
+			AsyncLog.error("Could not read the journal settings", e);
+		}
+		try {
+			priceTick = FixedPoint.tickForPrecision((int) settings.getLong("FIXimulatorPricePrecision"));
+		} catch (Exception e) {
+		}
+		try {
+			if (settings.isSetting("UiEnabled"))
+				uiResponses = settings.getBool("UiEnabled");
+			if (settings.isSetting("DelayInSeconds"))
+				responseDelay = (int) settings.getLong("DelayInSeconds");
+		} catch (Exception e) {
+			AsyncLog.error("Could not read the delayed response settings", e);
+		}
+		try {
+			if (settings.isSetting("FIXimulatorLatencyMonitor"))
+				latencyMonitor = settings.getBool("FIXimulatorLatencyMonitor");
+		} catch (Exception e) {
+		}
+		try {
+			if (settings.isSetting("FIXimulatorExecutionTemplates"))
+				executionTemplates = settings.getBool("FIXimulatorExecutionTemplates");
+		} catch (Exception e) {
+		}
+		try {
+			long tick = 1000;
+			double volatility = 0.3;
+			double drift = 0;
+			double spread = 0.0005;
+			if (settings.isSetting("FIXimulatorMarketTick"))
+				tick = settings.getLong("FIXimulatorMarketTick");
+			if (settings.isSetting("FIXimulatorMarketVolatility"))
+				volatility = settings.getDouble("FIXimulatorMarketVolatility");
+			if (settings.isSetting("FIXimulatorMarketDrift"))
+				drift = settings.getDouble("FIXimulatorMarketDrift");
+			if (settings.isSetting("FIXimulatorMarketSpread"))
+				spread = settings.getDouble("FIXimulatorMarketSpread");
+			if (tick > 0) {
+				market = new MarketSimulator(tick, volatility, drift, spread);
+				market.start();
+			}
+		} catch (Exception e) {
+			AsyncLog.error("Could not read the market simulator settings", e);
+		}
 	}
 
 	public void onCreate(SessionID sessionID) {
-		
+		getSession(sessionID);
 	}
 
 	public void onLogon(SessionID sessionID) {
-		System.out.println("Connected with target.... ");
-		connected = true;
-		currentSession = sessionID;
-		dictionary = Session.lookupSession(currentSession).getDataDictionary();
-		dictionary.setCheckUserDefinedFields(true);
+		AsyncLog.info("Connected with target " + sessionID);
+		CounterpartySession session = getSession(sessionID);
+		session.setLoggedOn(true);
+		defaultSession = sessionID;
+		DataDictionary dictionary = Session.lookupSession(sessionID).getDataDictionary();
+		if (dictionary != null)
+			dictionary.setCheckUserDefinedFields(true);
+		if (executorStarted)
+			startExecutor(session);
 		if (connectedStatus != null)
 			connectedStatus.setIcon(new javax.swing.ImageIcon(
 					"config/green.gif"));
 	}
 
 	public void onLogout(SessionID sessionID) {
-		connected = false;
-		currentSession = null;
-		if(FIXimulator.isUiEnabled())
-		connectedStatus.setIcon(
-				new javax.swing.ImageIcon("config/red.gif"));
+		AsyncLog.info("Disconnected from target " + sessionID);
+		getSession(sessionID).setLoggedOn(false);
+		if (sessionID.equals(defaultSession))
+			defaultSession = findLoggedOnSession();
+		if (FIXimulator.isUiEnabled() && connectedStatus != null && !getConnectionStatus())
+			connectedStatus.setIcon(
+					new javax.swing.ImageIcon("config/red.gif"));
+	}
+
+	/**
+	 * @return the state of the given session, created the first time the
+	 *         session is seen.
+	 */
+	public CounterpartySession getSession(SessionID sessionID) {
+		CounterpartySession session = sessions.get(sessionID);
+		if (session == null) {
+			session = new CounterpartySession(sessionID, orders, executions, iois);
+			CounterpartySession existing = sessions.putIfAbsent(sessionID, session);
+			if (existing != null)
+				session = existing;
+		}
+		return session;
+	}
+
+	public Collection<CounterpartySession> getSessions() {
+		return sessions.values();
+	}
+
+	private SessionID findLoggedOnSession() {
+		for (CounterpartySession session : sessions.values()) {
+			if (session.isLoggedOn())
+				return session.getSessionID();
+		}
+		return null;
+	}
+
+	/*
+	 * Replies go to the session the order came in on; orders that did not
+	 * come from a session go to the most recent logon.
+	 */
+	private SessionID sessionFor(Order order) {
+		if (order != null && order.getSessionID() != null)
+			return order.getSessionID();
+		return defaultSession;
+	}
+
+	private CounterpartySession counterpartyFor(Order order) {
+		SessionID sessionID = sessionFor(order);
+		return sessionID == null ? null : getSession(sessionID);
+	}
+
+	/**
+	 * @return the stage latencies of the message type on the session, or
+	 *         StageLatency.DISABLED when they are not being recorded.
+	 */
+	public StageLatency latencyFor(SessionID sessionID, String messageType) {
+		if (!latencyMonitor || sessionID == null)
+			return StageLatency.DISABLED;
+		return getSession(sessionID).getLatency(messageType);
+	}
+
+	/*
+	 * Records the DECODE stage of the message fromApp is handling.
+	 */
+	private long decoded(StageLatency latency, SessionID sessionID) {
+		if (latency == StageLatency.DISABLED)
+			return 0;
+		return latency.recordSince(StageLatency.Stage.DECODE, getSession(sessionID).getReceivedAt());
+	}
+
+	/**
+	 * Adds the order to the tables through its session, which resolves its
+	 * ClOrdID for later cancels and replaces.
+	 */
+	private void addOrder(Order order, boolean toFill) {
+		CounterpartySession session = counterpartyFor(order);
+		if (session != null)
+			session.getOrders().add(order, toFill);
+		else
+			orders.add(order, false);
+	}
+
+	private void addExecution(Execution execution) {
+		cachedExecutions(execution.getOrder()).add(execution);
+	}
+
+	/*
+	 * The inbound FIX 4.4 messages and their handlers. Execution reports,
+	 * IOIs and cancel rejects from the counterparty are accepted and ignored.
+	 */
+	private MessageDispatcher createDispatcher() {
+		MessageDispatcher dispatcher = new MessageDispatcher();
+		String fix44 = FixVersions.BEGINSTRING_FIX44;
+		dispatcher.register(fix44, MsgType.ORDER_SINGLE, new MessageDispatcher.Handler() {
+			public void handle(Message message, SessionID sessionID)
+					throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
+				onMessage((NewOrderSingle) message, sessionID);
+			}
+		});
+		dispatcher.register(fix44, MsgType.ORDER_CANCEL_REQUEST, new MessageDispatcher.Handler() {
+			public void handle(Message message, SessionID sessionID)
+					throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
+				onMessage((quickfix.fix44.OrderCancelRequest) message, sessionID);
+			}
+		});
+		dispatcher.register(fix44, MsgType.ORDER_CANCEL_REPLACE_REQUEST, new MessageDispatcher.Handler() {
+			public void handle(Message message, SessionID sessionID)
+					throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
+				onMessage((quickfix.fix44.OrderCancelReplaceRequest) message, sessionID);
+			}
+		});
+		dispatcher.register(fix44, MsgType.DONT_KNOW_TRADE, new MessageDispatcher.Handler() {
+			public void handle(Message message, SessionID sessionID)
+					throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
+				onMessage((quickfix.fix44.DontKnowTrade) message, sessionID);
+			}
+		});
+		MessageDispatcher.Handler ignore = new MessageDispatcher.Handler() {
+			public void handle(Message message, SessionID sessionID) {
+			}
+		};
+		dispatcher.register(fix44, MsgType.EXECUTION_REPORT, ignore);
+		dispatcher.register(fix44, MsgType.INDICATION_OF_INTEREST, ignore);
+		dispatcher.register(fix44, MsgType.ORDER_CANCEL_REJECT, ignore);
+		return dispatcher;
 	}
 
 	// IndicationofInterest handling
-	@Override
 	public void onMessage(IndicationOfInterest message, SessionID sessionID)
 			throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
 		
 	}
 
 	// NewOrderSingle handling
-	@Override
 	public void onMessage(NewOrderSingle message, SessionID sessionID)
 			throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
-		System.out.println("Received Custom New order");
+		StageLatency latency = latencyFor(sessionID, MsgType.ORDER_SINGLE);
+		long time = decoded(latency, sessionID);
+		if (AsyncLog.isDebugEnabled())
+			AsyncLog.debug("Received NewOrderSingle from " + sessionID);
 		Order order = new Order(message);
+		order.setSessionID(sessionID);
+		time = latency.recordSince(StageLatency.Stage.ORDER, time);
 
-		int secondstoDelay=0;
 		order.setReceivedOrder(true);
 		if (executorStarted) {
-			orders.add(order, true);
-			executorThread.interrupt();
+			// adding the order wakes the session's executor up
+			addOrder(order, true);
+			latency.recordSince(StageLatency.Stage.STORE, time);
 		} else {
-			orders.add(order, false);
+			addOrder(order, false);
+			latency.recordSince(StageLatency.Stage.STORE, time);
+			// the user can switch acknowledgements on and off at any time
 			boolean autoAck = false;
-			boolean uiEnabled = false;
 			try {
-				autoAck = settings.getBool("FIXimulatorAutoAcknowledge");
-				uiEnabled = settings.getBool("UiEnabled");
-				secondstoDelay=settings.getInt("DelayInSeconds");
+				autoAck = settings.isSetting("FIXimulatorAutoAcknowledge")
+						&& settings.getBool("FIXimulatorAutoAcknowledge");
 			} catch (Exception e) {
-				e.printStackTrace();
+				AsyncLog.warn("Could not read FIXimulatorAutoAcknowledge: " + e.getMessage());
 			}
 			if (autoAck) {
 				acknowledge(order);
 
 			}
-			if(!uiEnabled)
-			{
-				delay(secondstoDelay);
-				autoPendingNew(order);
-				delay(secondstoDelay);
-				autoExecute(order);
-				delay(secondstoDelay);
-				dfd(order);
-
+			if (!uiResponses) {
+				// hand the delayed responses off so the session thread
+				// can go on processing the next message right away
+				final Order delayedOrder = order;
+				responseScheduler.schedule(responseDelay, TimeUnit.SECONDS,
+						new Runnable() {
+							public void run() {
+								autoPendingNew(delayedOrder);
+							}
+						}, new Runnable() {
+							public void run() {
+								autoExecute(delayedOrder);
+							}
+						}, new Runnable() {
+							public void run() {
+								dfd(delayedOrder);
+							}
+						});
 			}
 
 		}
 	}
-	private void delay(int i) {
-		try {
-			TimeUnit.SECONDS.sleep(i);
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
-		}
 
+	public ResponseScheduler getResponseScheduler() {
+		return responseScheduler;
+	}
+
+	/**
+	 * @return the simulated market, or null when FIXimulatorMarketTick is 0
+	 *         and instruments keep their file prices.
+	 */
+	public MarketSimulator getMarket() {
+		return market;
+	}
+
+	/*
+	 * The market price for the side, 0 when the instrument has none.
+	 */
+	private long marketPrice(Instrument instrument, boolean buy) {
+		return market == null ? 0 : market.getPrice(instrument, buy);
+	}
+
+	public MatchingEngine getMatchingEngine() {
+		return matchingEngine;
+	}
+
+	/**
+	 * Crosses the order in its symbol's book when the matching engine is
+	 * enabled; fills come back through execute().
+	 *
+	 * @return true if the order was handed to the matching engine.
+	 */
+	private boolean submitToBook(Order order) {
+		if (!useMatchingEngine || order.getSymbol() == null)
+			return false;
+		matchingEngine.submit(order);
+		return true;
+	}
+
+	private void removeFromBook(Order order) {
+		if (!useMatchingEngine)
+			return;
+		if (!matchingEngine.cancel(order) && order.getOrigClientID() != null) {
+			// the order in the book is the live end of the request's chain
+			Order original = Order.findLiveOrder(order.getSessionID(), order.getOrigClientID());
+			if (original != null && original != order)
+				matchingEngine.cancel(original);
+		}
 	}
 	
 	private void autoExecute(Order order) {
-		//Execute auto
-		int partials = 1;
-		double fillQty = Math.floor(order.getQuantity() / partials);
-		double fillPrice = 0.0;
+		if (submitToBook(order))
+			return;
+		fillInPartials(order, 1, 0);
+	}
+
+	/*
+	 * Fills the order in the given number of equal partials at the market's
+	 * ask for buys and bid for sells, as it is at the time of each fill.
+	 * Without a market price the fills walk one tick up or down from the file
+	 * price, or from a random one. The last fill takes whatever is left open.
+	 * All quantities and prices are FixedPoint units.
+	 */
+	private void fillInPartials(Order order, int partials, long delay) {
+		long fillQty = order.getQuantityUnits() / partials / FixedPoint.QTY_SCALE * FixedPoint.QTY_SCALE;
+		if (fillQty == 0)
+			fillQty = FixedPoint.QTY_SCALE;
+		long tick = FixedPoint.DEFAULT_TICK;
+		long fillPrice;
 		// try to look the price up from the instruments
 		Instrument instrument = FIXimulator.getInstruments().getInstrument(order.getSymbol());
-		if (instrument != null) {
-			fillPrice = Double.valueOf(instrument.getPrice());
+		if (instrument != null && instrument.getPriceUnits() > 0) {
+			fillPrice = instrument.getPriceUnits();
+			tick = instrument.getTickSize();
 			// use a random price
 		} else {
-			int pricePrecision = 4;
-			try {
-				pricePrecision = (int) settings.getLong("FIXimulatorPricePrecision");
-			} catch (Exception e) {
-			}
-			double factor = Math.pow(10, pricePrecision);
-			fillPrice = Math.round(random.nextDouble() * 100 * factor) / factor;
+			fillPrice = FixedPoint.roundToTick(FixedPoint.toPrice(ThreadLocalRandom.current().nextDouble() * 100),
+					priceTick);
 		}
 
-		if (fillQty == 0)
-			fillQty = 1;
-		
-		
-		//Send FULL
-		
-		
+		boolean buy = order.getFIXSide() == Side.BUY || order.getFIXSide() == Side.BUY_MINUS;
+
 		for (int i = 0; i < partials; i++) {
-			double open = order.getOpen();
-			if (open > 0) {
-				if (fillQty < open && i != partials - 1) {
-					// send partial
-					// calculate fields
-					double priorQty = order.getExecuted();
-					double priorAvg = order.getAvgPx();
-					if (random.nextBoolean())
-						fillPrice += 0.01;
-					else
-						fillPrice -= 0.01;
-					double thisAvg = ((fillQty * fillPrice) + (priorQty * priorAvg)) / (priorQty + fillQty);
-					int pricePrecision = 4;
-					try {
-						pricePrecision = (int) settings.getLong("FIXimulatorPricePrecision");
-					} catch (Exception e) {
-						System.out.println("Error in setting price precision");
-						e.printStackTrace();
-					}
-					double factor = Math.pow(10, pricePrecision);
-					fillPrice = Math.round(fillPrice * factor) / factor;
-					thisAvg = Math.round(thisAvg * factor) / factor;
-					// update order
-					order.setOpen(open - fillQty);
-					order.setStatus(OrdStatus.PARTIALLY_FILLED);
-					order.setExecuted(order.getExecuted() + fillQty);
-					order.setAvgPx(thisAvg);
-					orders.update();
-					// create execution
-					Execution partial = new Execution(order);
-					partial.setExecType(ExecType.PARTIAL_FILL);
-					partial.setExecTranType(ExecTransType.NEW);
-					partial.setLeavesQty(order.getOpen());
-					partial.setCumQty(order.getQuantity() - order.getOpen());
-					partial.setAvgPx(thisAvg);
-					partial.setLastShares(fillQty);
-					partial.setLastPx(fillPrice);
-					sendExecution(partial);
-				} else {
-					// send full
-					fillQty = open;
-					// calculate fields
-					double priorQty = order.getExecuted();
-					double priorAvg = order.getAvgPx();
-					if (random.nextBoolean())
-						fillPrice += 0.01;
-					else
-						fillPrice -= 0.01;
-					double thisAvg = ((fillQty * fillPrice) + (priorQty * priorAvg)) / (priorQty + fillQty);
-					int pricePrecision = 4;
-					try {
-						pricePrecision = (int) settings.getLong("FIXimulatorPricePrecision");
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-					double factor = Math.pow(10, pricePrecision);
-					fillPrice = Math.round(fillPrice * factor) / factor;
-					thisAvg = Math.round(thisAvg * factor) / factor;
-					// update order
-					order.setOpen(open - fillQty);
-					order.setStatus(OrdStatus.FILLED);
-					order.setExecuted(order.getExecuted() + fillQty);
-					order.setAvgPx(thisAvg);
-					if(FIXimulator.isUiEnabled())
-					orders.update();
-					// create execution
-					Execution partial = new Execution(order);
-					partial.setExecType(ExecType.FILL);
-					partial.setExecTranType(ExecTransType.NEW);
-					partial.setLeavesQty(order.getOpen());
-					partial.setCumQty(order.getQuantity() - order.getOpen());
-					partial.setAvgPx(thisAvg);
-					partial.setLastShares(fillQty);
-					partial.setLastPx(fillPrice);
-					sendExecution(partial);
-					break;
+			long open = order.getOpenUnits();
+			if (open <= 0)
+				break;
+			boolean last = fillQty >= open || i == partials - 1;
+			long marketPrice = marketPrice(instrument, buy);
+			if (marketPrice > 0)
+				fillPrice = marketPrice;
+			else if (ThreadLocalRandom.current().nextBoolean())
+				fillPrice += tick;
+			else
+				fillPrice -= tick;
+			sendFill(order, last ? open : fillQty, fillPrice);
+			if (last)
+				break;
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
 				}
 			}
 		}
-		
-		
-		
-		
-		//Execute auto
+	}
+
+	private void sendFill(Order order, long fillQty, long fillPrice) {
+		StageLatency latency = latencyFor(sessionFor(order), MsgType.EXECUTION_REPORT);
+		long time = latency.start();
+		synchronized (order) {
+			// update order
+			order.fill(fillQty, fillPrice);
+			boolean filled = order.getOpenUnits() == 0;
+			order.setStatus(filled ? OrdStatus.FILLED : OrdStatus.PARTIALLY_FILLED);
+			orders.update(order);
+			// create execution
+			Execution fill = new Execution(order);
+			fill.setExecType(filled ? ExecType.FILL : ExecType.PARTIAL_FILL);
+			fill.setExecTranType(ExecTransType.NEW);
+			fill.setLeavesQtyUnits(order.getOpenUnits());
+			fill.setCumQtyUnits(order.getExecutedUnits());
+			fill.setAvgPxUnits(order.getAvgPxUnits());
+			fill.setLastSharesUnits(fillQty);
+			fill.setLastPxUnits(fillPrice);
+			latency.recordSince(StageLatency.Stage.FILL, time);
+			sendExecution(fill);
+		}
 	}
 	private void autoPendingNew(Order order) {
 		Execution pendingNew = new Execution(order);
 		order.setStatus(OrdStatus.PENDING_NEW);
 		pendingNew.setExecType(ExecType.PENDING_NEW);
 		pendingNew.setExecTranType(ExecTransType.NEW);
-		pendingNew.setLeavesQty(order.getOpen());
+		pendingNew.setLeavesQtyUnits(order.getOpenUnits());
 		sendExecution(pendingNew);
 		order.setReceivedOrder(true);
-		if(FIXimulator.isUiEnabled())
-		orders.update(); //TODO
+		orders.update(order);
 		}
 		
 		
@@ -272,9 +515,13 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 	
 	public void onMessage(quickfix.fix44.OrderCancelRequest message, SessionID sessionID)
 			throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
-		Order order = new Order(message);
+		StageLatency latency = latencyFor(sessionID, MsgType.ORDER_CANCEL_REQUEST);
+		long time = decoded(latency, sessionID);
+		Order order = new Order(message, sessionID);
 		order.setReceivedCancel(true);
-		orders.add(order, false);
+		time = latency.recordSince(StageLatency.Stage.ORDER, time);
+		addOrder(order, false);
+		latency.recordSince(StageLatency.Stage.STORE, time);
 		boolean autoPending = false;
 		boolean autoCancel = false;
 		try {
@@ -291,12 +538,15 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 	}
 
 	// OrderReplaceRequest handling
-	@Override
 	public void onMessage(quickfix.fix44.OrderCancelReplaceRequest message, SessionID sessionID)
 			throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
-		Order order = new Order(message);
+		StageLatency latency = latencyFor(sessionID, MsgType.ORDER_CANCEL_REPLACE_REQUEST);
+		long time = decoded(latency, sessionID);
+		Order order = new Order(message, sessionID);
 		order.setReceivedReplace(true);
-		orders.add(order, false);
+		time = latency.recordSince(StageLatency.Stage.ORDER, time);
+		addOrder(order, false);
+		latency.recordSince(StageLatency.Stage.STORE, time);
 		boolean autoPending = false;
 		boolean autoCancel = false;
 		try {
@@ -313,53 +563,54 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 	}
 
 	// OrderCancelReject handling
-	@Override
 	public void onMessage(quickfix.fix44.OrderCancelReject message, SessionID sessionID)
 			throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
 		
 	}
 
 	// ExecutionReport handling
-	@Override
 	public void onMessage(quickfix.fix44.ExecutionReport message, SessionID sessionID)
 			throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
 		
 	}
 
-	@Override
 	public void onMessage(quickfix.fix44.DontKnowTrade message, SessionID sessionID)
 			throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
 
 		try {
 			ExecID execID = new ExecID();
 			message.get(execID);
-			Execution execution = executions.getExecution(execID.getValue().toString());
-			execution.setDKd(true);
-			executions.update();
+			Execution execution = getSession(sessionID).getExecutions().getExecution(execID.getValue().toString());
+			if (execution != null) {
+				execution.setDKd(true);
+				executions.update(execution);
+			}
 		} catch (FieldNotFound ex) {
 		}
 	}
    
 	public void fromApp(Message message, SessionID sessionID)
 			throws FieldNotFound, IncorrectDataFormat, IncorrectTagValue, UnsupportedMessageType {
-		System.out.println("Recd message");
-		
-		
-		messages.add(message, true, dictionary, sessionID);
-		crack(message, sessionID);
+		String messageType = message.getHeader().getString(MsgType.FIELD);
+		if (!latencyMonitor) {
+			messages.add(message, true, sessionID);
+			dispatcher.dispatch(message, messageType, sessionID);
+			return;
+		}
+		long received = System.nanoTime();
+		CounterpartySession session = getSession(sessionID);
+		session.setReceivedAt(received);
+		try {
+			messages.add(message, true, sessionID);
+			dispatcher.dispatch(message, messageType, sessionID);
+		} finally {
+			session.getLatency(messageType).recordSince(StageLatency.Stage.TOTAL, received);
+		}
 	}
 
+	// outgoing messages are only logged, there is nothing to handle
 	public void toApp(Message message, SessionID sessionID) throws DoNotSend {
-		
-			messages.add(message, false, dictionary, sessionID);
-			
-			try {
-				crack(message, sessionID);
-			} catch (UnsupportedMessageType | FieldNotFound | IncorrectTagValue e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		
+		messages.add(message, false, sessionID);
 	}
     
 	public void fromAdmin(Message message, SessionID sessionID)
@@ -379,8 +630,11 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		
 	}
 
+	/**
+	 * @return true while at least one session is logged on.
+	 */
 	public boolean getConnectionStatus() {
-		return connected;
+		return findLoggedOnSession() != null;
 	}
 
 	public IOIset getIOIs() {
@@ -391,6 +645,16 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		return orders;
 	}
 
+	/**
+	 * @return the orders of the given session, or of every session if it is
+	 *         null.
+	 */
+	public OrderSet getOrders(SessionID sessionID) {
+		if (sessionID == null)
+			return orders;
+		return getSession(sessionID).getOrders();
+	}
+
 	public ExecutionSet getExecutions() {
 		return executions;
 	}
@@ -399,13 +663,90 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		return settings;
 	}
 
+	/**
+	 * Sets how many orders, executions, IOIs and messages are kept in memory.
+	 */
+	public void setCachedObjects(int limit) {
+		settings.setLong("FIXimulatorCachedObjects", limit);
+		applyCachedObjects(limit);
+	}
+
+	/*
+	 * Rebuilds the cached orders, executions and IOIs from the journal and
+	 * then journals every change made to them.
+	 */
+	private void openJournal() {
+		String path = "journal/FIXimulator.journal";
+		long syncInterval = 10;
+		try {
+			if (settings.isSetting("FIXimulatorJournalFile"))
+				path = settings.getString("FIXimulatorJournalFile");
+			if (settings.isSetting("FIXimulatorJournalSyncInterval"))
+				syncInterval = settings.getLong("FIXimulatorJournalSyncInterval");
+		} catch (Exception e) {
+		}
+		try {
+			long started = System.currentTimeMillis();
+			journal = new OrderJournal(new File(path), syncInterval);
+			long records = journal.replay(orders, executions, iois);
+			AsyncLog.info("Replayed " + records + " journal records from " + path + " in "
+					+ (System.currentTimeMillis() - started) + " ms");
+		} catch (IOException e) {
+			AsyncLog.error("Could not open the order journal " + path, e);
+			journal = null;
+			return;
+		}
+		// hand the replayed orders and executions back to their sessions
+		for (int i = 0; i < orders.getCount(); i++) {
+			Order order = orders.getOrder(i);
+			if (order != null && order.getSessionID() != null)
+				getSession(order.getSessionID()).getOrders().addCached(order);
+		}
+		for (int i = 0; i < executions.getCount(); i++) {
+			Execution execution = executions.getExecution(i);
+			if (execution != null && execution.getOrder() != null && execution.getOrder().getSessionID() != null)
+				getSession(execution.getOrder().getSessionID()).getExecutions().addCached(execution);
+		}
+		orders.setJournal(journal);
+		executions.setJournal(journal);
+		iois.setJournal(journal);
+		final OrderJournal openJournal = journal;
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				openJournal.close();
+			}
+		}, "FIXimulator-Journal-Close"));
+	}
+
+	public OrderJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Sets the number of decimals that generated prices are rounded to.
+	 */
+	public void setPricePrecision(int precision) {
+		settings.setLong("FIXimulatorPricePrecision", precision);
+		priceTick = FixedPoint.tickForPrecision(precision);
+	}
+
+	private void applyCachedObjects(int limit) {
+		if (limit < 1)
+			limit = 50;
+		cachedObjects = limit;
+		iois.setLimit(limit);
+		orders.setLimit(limit);
+		executions.setLimit(limit);
+		messages.setLimit(limit);
+	}
+
 	public void saveSettings() {
 		try {
 			OutputStream outputStream = new BufferedOutputStream(
 					new FileOutputStream(new File("config/FIXimulator.cfg")));
 			settings.toStream(outputStream);
 		} catch (FileNotFoundException ex) {
-			ex.printStackTrace();
+			AsyncLog.error("Could not save the settings to config/FIXimulator.cfg", ex);
 		}
 	}
 
@@ -415,11 +756,10 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		order.setStatus(OrdStatus.NEW);
 		acknowledgement.setExecType(ExecType.NEW);
 		acknowledgement.setExecTranType(ExecTransType.NEW);
-		acknowledgement.setLeavesQty(order.getOpen());
+		acknowledgement.setLeavesQtyUnits(order.getOpenUnits());
 		sendExecution(acknowledgement);
 		order.setReceivedOrder(false);
-		if(FIXimulator.isUiEnabled())
-		orders.update(); //TODO
+		orders.update(order);
 	}
 
 	public void reject(Order order) {
@@ -427,10 +767,10 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		order.setStatus(OrdStatus.REJECTED);
 		reject.setExecType(ExecType.REJECTED);
 		reject.setExecTranType(ExecTransType.NEW);
-		reject.setLeavesQty(order.getOpen());
+		reject.setLeavesQtyUnits(order.getOpenUnits());
 		sendExecution(reject);
 		order.setReceivedOrder(false);
-		orders.update();
+		orders.update(order);
 	}
 
 	public void dfd(Order order) {
@@ -438,12 +778,12 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		order.setStatus(OrdStatus.DONE_FOR_DAY);
 		dfd.setExecType(ExecType.DONE_FOR_DAY);
 		dfd.setExecTranType(ExecTransType.NEW);
-		dfd.setLeavesQty(order.getOpen());
-		dfd.setCumQty(order.getExecuted());
-		dfd.setAvgPx(order.getAvgPx());
+		dfd.setLeavesQtyUnits(order.getOpenUnits());
+		dfd.setCumQtyUnits(order.getExecutedUnits());
+		dfd.setAvgPxUnits(order.getAvgPxUnits());
+		removeFromBook(order);
 		sendExecution(dfd);
-		if(FIXimulator.isUiEnabled())
-		orders.update();
+		orders.update(order);
 	}
 
 	public void pendingCancel(Order order) {
@@ -451,12 +791,12 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		order.setStatus(OrdStatus.PENDING_CANCEL);
 		pending.setExecType(ExecType.PENDING_CANCEL);
 		pending.setExecTranType(ExecTransType.NEW);
-		pending.setLeavesQty(order.getOpen());
-		pending.setCumQty(order.getExecuted());
-		pending.setAvgPx(order.getAvgPx());
+		pending.setLeavesQtyUnits(order.getOpenUnits());
+		pending.setCumQtyUnits(order.getExecutedUnits());
+		pending.setAvgPxUnits(order.getAvgPxUnits());
 		sendExecution(pending);
 		order.setReceivedCancel(false);
-		orders.update();
+		orders.update(order);
 	}
 
 	public void cancel(Order order) {
@@ -464,12 +804,13 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		order.setStatus(OrdStatus.CANCELED);
 		cancel.setExecType(ExecType.CANCELED);
 		cancel.setExecTranType(ExecTransType.NEW);
-		cancel.setLeavesQty(order.getOpen());
-		cancel.setCumQty(order.getExecuted());
-		cancel.setAvgPx(order.getAvgPx());
+		cancel.setLeavesQtyUnits(order.getOpenUnits());
+		cancel.setCumQtyUnits(order.getExecutedUnits());
+		cancel.setAvgPxUnits(order.getAvgPxUnits());
+		removeFromBook(order);
 		sendExecution(cancel);
 		order.setReceivedCancel(false);
-		orders.update();
+		orders.update(order);
 	}
 
 	public void rejectCancelReplace(Order order, boolean cancel) {
@@ -500,8 +841,8 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 				origClientID, ordStatus, responseTo);
 
 		// *** Send message ***
-		sendMessage(rejectMessage);
-		orders.update();
+		sendMessage(rejectMessage, sessionFor(order));
+		orders.update(order);
 	}
 
 	public void pendingReplace(Order order) {
@@ -509,12 +850,12 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		order.setStatus(OrdStatus.PENDING_REPLACE);
 		pending.setExecType(ExecType.PENDING_REPLACE);
 		pending.setExecTranType(ExecTransType.NEW);
-		pending.setLeavesQty(order.getOpen());
-		pending.setCumQty(order.getExecuted());
-		pending.setAvgPx(order.getAvgPx());
+		pending.setLeavesQtyUnits(order.getOpenUnits());
+		pending.setCumQtyUnits(order.getExecutedUnits());
+		pending.setAvgPxUnits(order.getAvgPxUnits());
 		order.setReceivedReplace(false);
 		sendExecution(pending);
-		orders.update();
+		orders.update(order);
 	}
 
 	public void replace(Order order) {
@@ -522,121 +863,174 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		order.setStatus(OrdStatus.REPLACED);
 		replace.setExecType(ExecType.REPLACED);
 		replace.setExecTranType(ExecTransType.NEW);
-		replace.setLeavesQty(order.getOpen());
-		replace.setCumQty(order.getExecuted());
-		replace.setAvgPx(order.getAvgPx());
+		replace.setLeavesQtyUnits(order.getOpenUnits());
+		replace.setCumQtyUnits(order.getExecutedUnits());
+		replace.setAvgPxUnits(order.getAvgPxUnits());
 		order.setReceivedReplace(false);
+		removeFromBook(order);
 		sendExecution(replace);
-		orders.update();
+		orders.update(order);
+		getOrders(order.getSessionID()).addReplacement(order);
+		// the replacement takes the original's place in the book
+		submitToBook(order);
 	}
 
+	/**
+	 * Applies the fill to its order and sends the report. Fills, busts and
+	 * corrections of one order run under the order's lock, so two sessions
+	 * filling the same resting order apply and report their fills in turn.
+	 */
 	public void execute(Execution execution) {
 		Order order = execution.getOrder();
-		double fillQty = execution.getLastShares();
-		double fillPrice = execution.getLastPx();
-		double open = order.getOpen();
-		// partial fill
-		if (fillQty < open) {
-			order.setOpen(open - fillQty);
-			order.setStatus(OrdStatus.PARTIALLY_FILLED);
-			execution.setExecType(ExecType.PARTIAL_FILL);
-			// full or over execution
-		} else {
-			order.setOpen(0);
-			order.setStatus(OrdStatus.FILLED);
-			execution.setExecType(ExecType.FILL);
+		long fillQty = execution.getLastSharesUnits();
+		long fillPrice = execution.getLastPxUnits();
+		synchronized (order) {
+			// partial fill
+			if (fillQty < order.getOpenUnits()) {
+				order.setStatus(OrdStatus.PARTIALLY_FILLED);
+				execution.setExecType(ExecType.PARTIAL_FILL);
+				// full or over execution
+			} else {
+				order.setStatus(OrdStatus.FILLED);
+				execution.setExecType(ExecType.FILL);
+			}
+			order.fill(fillQty, fillPrice);
+			orders.update(order);
+			// update execution
+			execution.setExecTranType(ExecTransType.NEW);
+			execution.setLeavesQtyUnits(order.getOpenUnits());
+			execution.setCumQtyUnits(order.getExecutedUnits());
+			execution.setSymbol(order.getSymbol());
+			execution.setAvgPxUnits(order.getAvgPxUnits());
+			sendExecution(execution);
 		}
-		double avgPx = (order.getAvgPx() * order.getExecuted() + fillPrice * fillQty) / (order.getExecuted() + fillQty);
-		order.setAvgPx(avgPx);
-		order.setExecuted(order.getExecuted() + fillQty);
-		if(FIXimulator.isUiEnabled())
-		orders.update();
-		// update execution
-		execution.setExecTranType(ExecTransType.NEW);
-		execution.setLeavesQty(order.getOpen());
-		execution.setCumQty(order.getExecuted());
-		execution.setSymbol(order.getSymbol());
-		execution.setAvgPx(avgPx);
-		sendExecution(execution);
 	}
 
 	public void bust(Execution execution) {
-		Execution bust = execution.clone();
 		Order order = execution.getOrder();
-		double fillQty = execution.getLastShares();
-		double fillPrice = execution.getLastPx();
-		double executed = order.getExecuted();
-		// partial fill
-		if (fillQty < executed) {
-			order.setOpen(executed - fillQty);
-			order.setStatus(OrdStatus.PARTIALLY_FILLED);
-			double avgPx = (order.getAvgPx() * executed - fillPrice * fillQty) / (order.getExecuted() - fillQty);
-			order.setAvgPx(avgPx);
-			order.setExecuted(order.getExecuted() - fillQty);
-			// full or over execution
-		} else {
-			order.setOpen(order.getQuantity());
-			order.setStatus(OrdStatus.NEW);
-			order.setAvgPx(0);
-			order.setExecuted(0);
+		synchronized (order) {
+			Execution current = currentFill(execution);
+			if (current == null) {
+				AsyncLog.warn("Execution " + execution.getID() + " has already been busted...");
+				return;
+			}
+			// a corrected fill is busted as it stands now
+			Execution bust = current.clone();
+			order.unfill(current.getLastSharesUnits(), current.getLastPxUnits());
+			// partial fill
+			if (order.getExecutedUnits() > 0) {
+				order.setStatus(OrdStatus.PARTIALLY_FILLED);
+				// full or over execution
+			} else {
+				order.setStatus(OrdStatus.NEW);
+			}
+			orders.update(order);
+			// update execution
+			bust.setExecTranType(ExecTransType.CANCEL);
+			bust.setLeavesQtyUnits(order.getOpenUnits());
+			bust.setCumQtyUnits(order.getExecutedUnits());
+			bust.setAvgPxUnits(order.getAvgPxUnits());
+			sendExecution(bust);
 		}
-		orders.update();
-		// update execution
-		bust.setExecTranType(ExecTransType.CANCEL);
-		bust.setLeavesQty(order.getOpen());
-		bust.setCumQty(order.getExecuted());
-		bust.setAvgPx(order.getAvgPx());
-		sendExecution(bust);
 	}
 
 	public void correct(Execution correction) {
 		Order order = correction.getOrder();
-		Execution original = executions.getExecution(correction.getRefID());
-
-		double fillQty = correction.getLastShares();
-		double oldQty = original.getLastShares();
-
-		double fillPrice = correction.getLastPx();
-		double oldPrice = original.getLastPx();
-
-		double executed = order.getExecuted();
-		double ordered = order.getQuantity();
-
-		double newCumQty = executed - oldQty + fillQty;
-		double avgPx = (order.getAvgPx() * executed - oldPrice * oldQty + fillPrice * fillQty) / newCumQty;
+		Execution original = cachedExecutions(order).getExecution(correction.getRefID());
+		if (original == null) {
+			AsyncLog.warn("Execution " + correction.getRefID() + " is no longer cached and cannot be corrected...");
+			return;
+		}
 
-		// partial fill
-		if (newCumQty < ordered) {
-			order.setOpen(ordered - newCumQty);
-			order.setStatus(OrdStatus.PARTIALLY_FILLED);
-			// full or over execution
-		} else {
-			order.setOpen(0);
-			order.setStatus(OrdStatus.FILLED);
+		synchronized (order) {
+			Execution current = currentFill(original);
+			if (current == null) {
+				AsyncLog.warn("Execution " + original.getID() + " has been busted and cannot be corrected...");
+				return;
+			}
+			// swap the fill the order holds for the corrected one
+			order.unfill(current.getLastSharesUnits(), current.getLastPxUnits());
+			order.fill(correction.getLastSharesUnits(), correction.getLastPxUnits());
+
+			// partial fill
+			if (order.getExecutedUnits() < order.getQuantityUnits()) {
+				order.setStatus(OrdStatus.PARTIALLY_FILLED);
+				// full or over execution
+			} else {
+				order.setStatus(OrdStatus.FILLED);
+			}
+			orders.update(order);
+
+			// update execution
+			correction.setExecTranType(ExecTransType.CORRECT);
+			correction.setLeavesQtyUnits(order.getOpenUnits());
+			correction.setCumQtyUnits(order.getExecutedUnits());
+			correction.setAvgPxUnits(order.getAvgPxUnits());
+			sendExecution(correction);
 		}
+	}
 
-		order.setAvgPx(avgPx);
-		order.setExecuted(newCumQty);
-		orders.update();
+	private ExecutionSet cachedExecutions(Order order) {
+		CounterpartySession session = counterpartyFor(order);
+		return session != null ? session.getExecutions() : executions;
+	}
 
-		// update execution
-		correction.setExecTranType(ExecTransType.CORRECT);
-		correction.setLeavesQty(order.getOpen());
-		correction.setCumQty(order.getExecuted());
-		correction.setAvgPx(order.getAvgPx());
-		sendExecution(correction);
+	/*
+	 * Follows the cached corrections and busts of a fill to the execution
+	 * whose fill its order holds now. Each refers by ExecRefID to the
+	 * original fill or to an earlier correction of it, so the chain is
+	 * followed from the original even when a correction is given. Called
+	 * under the order's lock.
+	 *
+	 * @return that execution, or null if the fill has been busted.
+	 */
+	private Execution currentFill(Execution execution) {
+		ExecutionSet cached = cachedExecutions(execution.getOrder());
+		List<Execution> orderExecutions = cached.getExecutions(execution.getOrder());
+		Execution current = execution;
+		for (int hops = orderExecutions.size(); hops > 0 && current.getRefID() != null
+				&& current.getFIXExecTranType() == ExecTransType.CORRECT; hops--) {
+			Execution corrected = cached.getExecution(current.getRefID());
+			if (corrected == null)
+				break;
+			current = corrected;
+		}
+		Set<String> chain = new HashSet<String>();
+		chain.add(current.getID());
+		for (Execution later : orderExecutions) {
+			if (later.getRefID() == null || !chain.contains(later.getRefID()))
+				continue;
+			if (later.getFIXExecTranType() == ExecTransType.CANCEL)
+				return null;
+			if (later.getFIXExecTranType() == ExecTransType.CORRECT) {
+				current = later;
+				chain.add(later.getID());
+			}
+		}
+		return current;
 	}
 
 	// Message sending methods
+	/**
+	 * Sends the message to the most recently logged on session.
+	 */
 	public void sendMessage(Message message) {
+		sendMessage(message, defaultSession);
+	}
+
+	public void sendMessage(Message message, SessionID sessionID) {
+		if (sessionID == null) {
+			AsyncLog.warn("No session is logged on, message not sent");
+			return;
+		}
 		String oboCompID = "<UNKNOWN>";
 		String oboSubID = "<UNKNOWN>";
 		boolean sendoboCompID = false;
 		boolean sendoboSubID = false;
 
 		try {
-			oboCompID = settings.getString(currentSession, "OnBehalfOfCompID");
-			oboSubID = settings.getString(currentSession, "OnBehalfOfSubID");
+			oboCompID = settings.getString(sessionID, "OnBehalfOfCompID");
+			oboSubID = settings.getString(sessionID, "OnBehalfOfSubID");
 			sendoboCompID = settings.getBool("FIXimulatorSendOnBehalfOfCompID");
 			sendoboSubID = settings.getBool("FIXimulatorSendOnBehalfOfSubID");
 		} catch (Exception e) {
@@ -658,10 +1052,9 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 
 		// Send actual message
 		try {
-			System.out.println("Sending the output Message "+message.toString());
-			Session.sendToTarget(message, currentSession);
+			Session.sendToTarget(message, sessionID);
 		} catch (SessionNotFound e) {
-			e.printStackTrace();
+			AsyncLog.error("Could not send message, session not found: " + sessionID, e);
 		}
 	}
 
@@ -762,12 +1155,44 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		fixIOI.set(currency);
 
 		// *** Send message ***
-		sendMessage(fixIOI);
-		iois.add(ioi);
+		// IOIs are advertised to every counterparty that is logged on
+		List<IOIset> recipients = new ArrayList<IOIset>();
+		for (CounterpartySession session : sessions.values()) {
+			if (session.isLoggedOn()) {
+				sendMessage(fixIOI, session.getSessionID());
+				recipients.add(session.getIOIs());
+			}
+		}
+		iois.add(ioi, recipients);
 	}
 
 	public void sendExecution(Execution execution) {
 		Order order = execution.getOrder();
+		SessionID sessionID = sessionFor(order);
+		StageLatency latency = latencyFor(sessionID, MsgType.EXECUTION_REPORT);
+		long time = latency.start();
+
+		// the encoding itself happens as the session sends the report
+		Message executionReport;
+		if (executionTemplates && sessionID != null)
+			executionReport = new EncodedExecutionReport(execution, getSession(sessionID).getReportEncoder());
+		else
+			executionReport = buildExecutionReport(execution);
+
+		// *** Send message ***
+		time = latency.recordSince(StageLatency.Stage.ENCODE, time);
+		sendMessage(executionReport, sessionID);
+		latency.recordSince(StageLatency.Stage.SEND, time);
+		addExecution(execution);
+	}
+
+	/**
+	 * The report field by field, for QuickFIX/J to serialize, as it is sent
+	 * when execution templates are off. The templates must encode to the
+	 * same bytes.
+	 */
+	public Message buildExecutionReport(Execution execution) {
+		Order order = execution.getOrder();
 
 		// *** Required fields ***
 		// OrderID (37)
@@ -800,7 +1225,10 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		// AvgPx ()
 		AvgPx avgPx = new AvgPx(execution.getAvgPx());
 		
-		CustomField custField = new CustomField(execution.getOrder().getCustomField());
+		// not known for a cancel or replace of an order no longer in memory
+		CustomField custField = null;
+		if (execution.getOrder().getCustomField() != null)
+			custField = new CustomField(execution.getOrder().getCustomField());
 
 		// Construct Execution Report from required fields
 		CustomExecutionReport executionReport = new CustomExecutionReport(orderID, execID,
@@ -820,12 +1248,9 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		
 		if (order.getSecurityID() != null && order.getIdSource() != null) {
 			executionReport.set(new SecurityID(order.getSecurityID()));
-			executionReport.set(new OrderID(order.getIdSource()));
+			executionReport.set(new SecurityIDSource(order.getIdSource()));
 		}
-
-		// *** Send message ***
-		sendMessage(executionReport);
-		executions.add(execution);
+		return executionReport;
 	}
 
 	// IOI Sender methods
@@ -835,9 +1260,9 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 			ioiSenderThread = new Thread(ioiSender);
 			ioiSenderThread.start();
 		} catch (Exception e) {
-			e.printStackTrace();
+			AsyncLog.error("Could not start the IOI sender", e);
 		}
-		if (connected && ioiSenderStarted)
+		if (getConnectionStatus() && ioiSenderStarted)
 			ioiSenderStatus.setIcon(new javax.swing.ImageIcon(
 					"config/green.gif"));
 	}
@@ -848,7 +1273,7 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		try {
 			ioiSenderThread.join();
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			Thread.currentThread().interrupt();
 		}
 		ioiSenderStatus.setIcon(
 				new javax.swing.ImageIcon("config/red.gif"));
@@ -900,7 +1325,7 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 		}
 
 		public void run() {
-			while (connected && ioiSenderStarted) {
+			while (getConnectionStatus() && ioiSenderStarted) {
 				sendRandomIOI();
 				try {
 					Thread.sleep(delay.longValue());
@@ -967,15 +1392,11 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 			if (ioi.getSecurityID().equals("<MISSING>"))
 				ioi.setIDSource("UNKNOWN");
 
-			// Price
-			int pricePrecision = 4;
-			try {
-				pricePrecision = (int) settings.getLong("FIXimulatorPricePrecision");
-			} catch (Exception e) {
-			}
-			double factor = Math.pow(10, pricePrecision);
-			double price = Math.round(random.nextDouble() * 100 * factor) / factor;
-			ioi.setPrice(price);
+			// Price, the bid when buying and the ask when selling
+			long price = marketPrice(instrument, ioi.getSide().equals("SELL"));
+			if (price == 0)
+				price = FixedPoint.roundToTick(FixedPoint.toPrice(random.nextDouble() * 100), priceTick);
+			ioi.setPrice(FixedPoint.priceToDouble(price));
 
 			// IOINaturalFlag
 			ioi.setNatural("No");
@@ -987,183 +1408,95 @@ public class FIXimulatorApplication extends CustomMessageCracker implements Appl
 	}
 
 	// Executor methods
+	/**
+	 * Starts an executor for every session that is logged on, and for every
+	 * session that logs on until the executors are stopped.
+	 */
 	public void startExecutor(Integer delay, Integer partials) {
-		try {
-			executor = new Executor(delay, partials);
-			executorThread = new Thread(executor);
-			executorThread.start();
-		} catch (Exception e) {
-			e.printStackTrace();
+		executorDelay = delay;
+		executorPartials = partials;
+		executorStarted = true;
+		for (CounterpartySession session : sessions.values()) {
+			if (session.isLoggedOn())
+				startExecutor(session);
 		}
-		if (connected && executorStarted)
+		if (getConnectionStatus() && executorStarted && executorStatus != null)
 			executorStatus.setIcon(new javax.swing.ImageIcon(
 					"config/green.gif"));
 	}
 
+	private void startExecutor(CounterpartySession session) {
+		session.startExecutor(new Executor(session));
+	}
+
 	public void stopExecutor() {
-		executor.stopExecutor();
-		executorThread.interrupt();
-		try {
-			executorThread.join();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		executorStatus.setIcon(
-				new javax.swing.ImageIcon("config/red.gif"));
+		executorStarted = false;
+		for (CounterpartySession session : sessions.values())
+			session.stopExecutor();
+		if (executorStatus != null)
+			executorStatus.setIcon(
+					new javax.swing.ImageIcon("config/red.gif"));
 	}
 
 	public void setNewExecutorDelay(Integer delay) {
 		if (executorStarted)
-			executor.setDelay(delay);
+			executorDelay = delay;
 	}
 
 	public void setNewExecutorPartials(Integer partials) {
 		if (executorStarted)
-			executor.setPartials(partials);
+			executorPartials = partials;
 	}
 
+	/**
+	 * Fills the orders of one session on that session's own thread.
+	 */
 	public class Executor implements Runnable {
-		InstrumentSet instruments;
-		private Integer delay;
-		private Integer partials;
+		private final CounterpartySession session;
+		private volatile boolean running = true;
 
-		public Executor(Integer delay, Integer partials) {
-			instruments = FIXimulator.getInstruments();
-			executorStarted = true;
-			this.partials = partials;
-			this.delay = delay;
+		public Executor(CounterpartySession session) {
+			this.session = session;
 		}
 
 		public void run() {
-			while (connected && executorStarted) {
-				while (orders.haveOrdersToFill()) {
-					Order order = orders.getOrderToFill();
-					acknowledge(order);
-					fill(order);
-				}
-				// No orders to fill, check again in 5 seconds
-				try {
-					Thread.sleep(5000);
-				} catch (InterruptedException e) {
+			runningExecutors.incrementAndGet();
+			try {
+				List<Order> batch = new ArrayList<Order>();
+				OrderSet sessionOrders = session.getOrders();
+				while (running && executorStarted && session.isLoggedOn()) {
+					while (sessionOrders.drainOrdersToFill(batch, 256) > 0) {
+						for (Order order : batch) {
+							// a failed order is logged and the rest are
+							// still filled
+							try {
+								acknowledge(order);
+								fill(order);
+							} catch (RuntimeException e) {
+								AsyncLog.error("Could not fill order " + order.getID(), e);
+							}
+						}
+						batch.clear();
+					}
+					// No orders to fill, wait until one arrives; the timeout
+					// only bounds how long a disconnect goes unnoticed
+					sessionOrders.awaitOrdersToFill(1, TimeUnit.SECONDS);
 				}
+			} finally {
+				if (runningExecutors.decrementAndGet() == 0 && executorStatus != null)
+					executorStatus.setIcon(new javax.swing.ImageIcon(
+							"config/red.gif"));
 			}
-			executorStatus.setIcon(new javax.swing.ImageIcon(
-					"config/red.gif"));
 		}
 
 		public void stopExecutor() {
-			executorStarted = false;
-		}
-
-		public void setDelay(Integer delay) {
-			this.delay = delay;
-		}
-
-		public void setPartials(Integer partials) {
-			this.partials = partials;
+			running = false;
 		}
 
 		public void fill(Order order) {
-			
-			double fillQty = Math.floor(order.getQuantity() / partials);
-			double fillPrice = 0.0;
-			// try to look the price up from the instruments
-			Instrument instrument = instruments.getInstrument(order.getSymbol());
-			if (instrument != null) {
-				fillPrice = Double.valueOf(instrument.getPrice());
-				// use a random price
-			} else {
-				int pricePrecision = 4;
-				try {
-					pricePrecision = (int) settings.getLong("FIXimulatorPricePrecision");
-				} catch (Exception e) {
-				}
-				double factor = Math.pow(10, pricePrecision);
-				fillPrice = Math.round(random.nextDouble() * 100 * factor) / factor;
-			}
-
-			if (fillQty == 0)
-				fillQty = 1;
-			for (int i = 0; i < partials; i++) {
-				double open = order.getOpen();
-				if (open > 0) {
-					if (fillQty < open && i != partials - 1) {
-						// send partial
-						// calculate fields
-						double priorQty = order.getExecuted();
-						double priorAvg = order.getAvgPx();
-						if (random.nextBoolean())
-							fillPrice += 0.01;
-						else
-							fillPrice -= 0.01;
-						double thisAvg = ((fillQty * fillPrice) + (priorQty * priorAvg)) / (priorQty + fillQty);
-						int pricePrecision = 4;
-						try {
-							pricePrecision = (int) settings.getLong("FIXimulatorPricePrecision");
-						} catch (Exception e) {
-						}
-						double factor = Math.pow(10, pricePrecision);
-						fillPrice = Math.round(fillPrice * factor) / factor;
-						thisAvg = Math.round(thisAvg * factor) / factor;
-						// update order
-						order.setOpen(open - fillQty);
-						order.setStatus(OrdStatus.PARTIALLY_FILLED);
-						order.setExecuted(order.getExecuted() + fillQty);
-						order.setAvgPx(thisAvg);
-						orders.update();
-						// create execution
-						Execution partial = new Execution(order);
-						partial.setExecType(ExecType.PARTIAL_FILL);
-						partial.setExecTranType(ExecTransType.NEW);
-						partial.setLeavesQty(order.getOpen());
-						partial.setCumQty(order.getQuantity() - order.getOpen());
-						partial.setAvgPx(thisAvg);
-						partial.setLastShares(fillQty);
-						partial.setLastPx(fillPrice);
-						sendExecution(partial);
-					} else {
-						// send full
-						fillQty = open;
-						// calculate fields
-						double priorQty = order.getExecuted();
-						double priorAvg = order.getAvgPx();
-						if (random.nextBoolean())
-							fillPrice += 0.01;
-						else
-							fillPrice -= 0.01;
-						double thisAvg = ((fillQty * fillPrice) + (priorQty * priorAvg)) / (priorQty + fillQty);
-						int pricePrecision = 4;
-						try {
-							pricePrecision = (int) settings.getLong("FIXimulatorPricePrecision");
-						} catch (Exception e) {
-						}
-						double factor = Math.pow(10, pricePrecision);
-						fillPrice = Math.round(fillPrice * factor) / factor;
-						thisAvg = Math.round(thisAvg * factor) / factor;
-						// update order
-						order.setOpen(open - fillQty);
-						order.setStatus(OrdStatus.FILLED);
-						order.setExecuted(order.getExecuted() + fillQty);
-						order.setAvgPx(thisAvg);
-						orders.update();
-						// create execution
-						Execution partial = new Execution(order);
-						partial.setExecType(ExecType.FILL);
-						partial.setExecTranType(ExecTransType.NEW);
-						partial.setLeavesQty(order.getOpen());
-						partial.setCumQty(order.getQuantity() - order.getOpen());
-						partial.setAvgPx(thisAvg);
-						partial.setLastShares(fillQty);
-						partial.setLastPx(fillPrice);
-						sendExecution(partial);
-						break;
-					}
-				}
-				try {
-					Thread.sleep(delay.longValue());
-				} catch (InterruptedException e) {
-				}
-			}
+			if (submitToBook(order))
+				return;
+			fillInPartials(order, executorPartials, executorDelay.longValue());
 		}
 	}
 }
@@ -10,8 +10,10 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.core;
 
+import edu.harvard.fas.zfeledy.fiximulator.util.IdGenerator;
+
 public class IOI implements Cloneable {
-	private static int nextID = 1;
+	private static final IdGenerator ids = new IdGenerator('I');
 	private String ID = null;
 	private String refID = null;
 	private String type = null; // NEW, CANCEL, REPLACE
@@ -40,7 +42,14 @@ public class IOI implements Cloneable {
 	}
 
 	public String generateID() {
-		return "I" + Long.valueOf(System.currentTimeMillis() + (nextID++)).toString();
+		return ids.next();
+	}
+
+	/**
+	 * Keeps new IOIids above one restored from the journal.
+	 */
+	static void observeID(String id) {
+		ids.observe(id);
 	}
 
 	public String getID() {
@@ -5,55 +5,108 @@
  * 
  * Contents : This class is a Set of IOI objects with a utility methods to
  * access the individual iois.
+ *
+ * A session's IOIset is a view over the application's, holding only lookups
+ * of the IOIs sent to its session for as long as the application's set
+ * holds them.
  * 
  */
 
 package edu.harvard.fas.zfeledy.fiximulator.core;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import edu.harvard.fas.zfeledy.fiximulator.ui.IOITableModel;
+import edu.harvard.fas.zfeledy.fiximulator.util.RingBuffer;
 
 public class IOIset {
-	private ArrayList<IOI> iois = new ArrayList<IOI>();
+	private final RingBuffer<IOI> iois;
+	// the set that holds the IOIs of this one, itself unless it is a view
+	private final IOIset cache;
+	private final CopyOnWriteArrayList<IOIset> views = new CopyOnWriteArrayList<IOIset>();
+	private ConcurrentHashMap<String, IOI> ioisByID = new ConcurrentHashMap<String, IOI>();
 	private IOITableModel ioiTableModel = null;
+	private OrderJournal journal = null;
 
 	public IOIset() {
+		cache = this;
+		iois = new RingBuffer<IOI>(50, new RingBuffer.EvictionListener<IOI>() {
+			public void evicted(IOI ioi) {
+				ioisByID.remove(ioi.getID(), ioi);
+				for (IOIset view : views)
+					view.ioisByID.remove(ioi.getID(), ioi);
+			}
+		});
+	}
+
+	/**
+	 * A view over the given set. IOIs added to the view are added to that
+	 * set, and are only looked up in the view for as long as that set holds
+	 * them. Counts, positions and limits are those of the whole set.
+	 */
+	public IOIset(IOIset cache) {
+		this.cache = cache.cache;
+		iois = this.cache.iois;
+		this.cache.views.add(this);
 	}
 
 	public void add(IOI ioi) {
-		iois.add(ioi);
-		int limit = 50;
-		try {
-			limit = (int) FIXimulator.getApplication().getSettings().getLong("FIXimulatorCachedObjects");
-		} catch (Exception e) {
-		}
-		while (iois.size() > limit) {
-			iois.remove(0);
+		add(ioi, Collections.<IOIset> emptyList());
+	}
+
+	/**
+	 * Adds the IOI once and makes it known to each of the given views as well,
+	 * as for an IOI sent to several sessions.
+	 */
+	public void add(IOI ioi, Collection<IOIset> sessions) {
+		synchronized (iois) {
+			iois.add(ioi);
+			cache.ioisByID.put(ioi.getID(), ioi);
+			if (cache != this)
+				ioisByID.put(ioi.getID(), ioi);
+			for (IOIset view : sessions)
+				view.ioisByID.put(ioi.getID(), ioi);
 		}
-		ioiTableModel.update();
+		if (cache.journal != null)
+			cache.journal.write(ioi);
+		// the table picks the new row up on its next refresh
+		if (cache.ioiTableModel != null)
+			cache.ioiTableModel.update();
+	}
+
+	/**
+	 * Records every IOI added from now on in the journal.
+	 */
+	public void setJournal(OrderJournal journal) {
+		this.journal = journal;
 	}
 
 	public void addCallback(IOITableModel ioiTableModel) {
 		this.ioiTableModel = ioiTableModel;
 	}
 
+	public void setLimit(int limit) {
+		iois.setCapacity(limit);
+	}
+
 	public int getCount() {
 		return iois.size();
 	}
 
+	public RingBuffer<IOI> getBuffer() {
+		return iois;
+	}
+
 	public IOI getIOI(int i) {
 		return iois.get(i);
 	}
 
 	public IOI getIOI(String id) {
-		Iterator<IOI> iterator = iois.iterator();
-		while (iterator.hasNext()) {
-			IOI ioi = iterator.next();
-			if (ioi.getID().equals(id))
-				return ioi;
-		}
-		return null;
+		if (id == null)
+			return null;
+		return ioisByID.get(id);
 	}
 }
@@ -10,6 +10,8 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.core;
 
+import edu.harvard.fas.zfeledy.fiximulator.util.FixedPoint;
+
 public class Instrument {
 
 	private String ticker;
@@ -17,7 +19,13 @@ public class Instrument {
 	private String sedol;
 	private String name;
 	private String ric;
-	private String price;
+	private long price; // scaled by FixedPoint.PRICE_SCALE, 0 if unknown
+	private long tickSize = FixedPoint.DEFAULT_TICK;
+	// annual volatility and spread as a fraction of the price for the
+	// MarketSimulator, 0 where the simulator's defaults apply
+	private double volatility = 0;
+	private double spread = 0;
+	private int position = -1; // in the InstrumentSet it was loaded into
 
 	public Instrument(String ticker, String sedol, String name, String ric, String cusip, String price) {
 		this.ticker = ticker;
@@ -25,7 +33,42 @@ public class Instrument {
 		this.sedol = sedol;
 		this.name = name;
 		this.ric = ric;
-		this.price = price;
+		try {
+			this.price = FixedPoint.parsePrice(price);
+		} catch (NumberFormatException e) {
+			this.price = 0;
+		}
+	}
+
+	public Instrument(String ticker, String sedol, String name, String ric, String cusip, String price,
+			String tickSize) {
+		this(ticker, sedol, name, ric, cusip, price);
+		if (tickSize != null) {
+			try {
+				long tick = FixedPoint.parsePrice(tickSize);
+				if (tick > 0)
+					this.tickSize = tick;
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+	public Instrument(String ticker, String sedol, String name, String ric, String cusip, String price,
+			String tickSize, String volatility, String spread) {
+		this(ticker, sedol, name, ric, cusip, price, tickSize);
+		this.volatility = parseFraction(volatility);
+		this.spread = parseFraction(spread);
+	}
+
+	private static double parseFraction(String value) {
+		if (value == null)
+			return 0;
+		try {
+			double fraction = Double.parseDouble(value);
+			return fraction > 0 && fraction < Double.POSITIVE_INFINITY ? fraction : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
 	}
 
 	public String getTicker() {
@@ -48,7 +91,31 @@ public class Instrument {
 		return ric;
 	}
 
-	public String getPrice() {
+	public double getPrice() {
+		return FixedPoint.priceToDouble(price);
+	}
+
+	public long getPriceUnits() {
 		return price;
 	}
+
+	public long getTickSize() {
+		return tickSize;
+	}
+
+	public double getVolatility() {
+		return volatility;
+	}
+
+	public double getSpread() {
+		return spread;
+	}
+
+	int getPosition() {
+		return position;
+	}
+
+	void setPosition(int position) {
+		this.position = position;
+	}
 }
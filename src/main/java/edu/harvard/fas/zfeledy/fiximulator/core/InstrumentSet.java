@@ -18,7 +18,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 
 import javax.xml.parsers.SAXParser;
@@ -28,18 +30,17 @@ import org.xml.sax.Attributes;
 import org.xml.sax.helpers.DefaultHandler;
 
 import edu.harvard.fas.zfeledy.fiximulator.ui.InstrumentTableModel;
+import edu.harvard.fas.zfeledy.fiximulator.util.FixedPoint;
 
 public class InstrumentSet extends DefaultHandler {
-	private ArrayList<Instrument> instruments = new ArrayList<Instrument>();
-	private ArrayList<Instrument> oldInstruments = new ArrayList<Instrument>();
+	// the instruments and their indexes are swapped in as one snapshot
+	private volatile InstrumentIndex index = new InstrumentIndex(new ArrayList<Instrument>());
+	private ArrayList<Instrument> loading = null;
 	private InstrumentTableModel instrumentModel = null;
 
 	public InstrumentSet(File file) {
 		try {
-			InputStream input = new BufferedInputStream(new FileInputStream(file));
-			SAXParserFactory factory = SAXParserFactory.newInstance();
-			SAXParser saxParser = factory.newSAXParser();
-			saxParser.parse(input, this);
+			load(file);
 		} catch (Exception e) {
 			System.out.println("Error reading/parsing instrument file.");
 			e.printStackTrace();
@@ -48,19 +49,26 @@ public class InstrumentSet extends DefaultHandler {
 
 	public void reloadInstrumentSet(File file) {
 		try {
-			oldInstruments.clear();
-			oldInstruments.addAll(instruments);
-			instruments.clear();
-			InputStream input = new BufferedInputStream(new FileInputStream(file));
-			SAXParserFactory factory = SAXParserFactory.newInstance();
-			SAXParser saxParser = factory.newSAXParser();
-			saxParser.parse(input, this);
+			load(file);
 			instrumentModel.update();
 		} catch (Exception e) {
+			// the previous instruments stay in place
 			System.out.println("Error reading/parsing instrument file.");
 			e.printStackTrace();
-			instruments.clear();
-			instruments.addAll(oldInstruments);
+		}
+	}
+
+	private synchronized void load(File file) throws Exception {
+		loading = new ArrayList<Instrument>();
+		InputStream input = new BufferedInputStream(new FileInputStream(file));
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			SAXParser saxParser = factory.newSAXParser();
+			saxParser.parse(input, this);
+			index = new InstrumentIndex(loading);
+		} finally {
+			loading = null;
+			input.close();
 		}
 	}
 
@@ -73,33 +81,70 @@ public class InstrumentSet extends DefaultHandler {
 			String name = attributes.getValue("name");
 			String ric = attributes.getValue("ric");
 			String price = attributes.getValue("price");
-			Instrument instrument = new Instrument(ticker, sedol, name, ric, cusip, price);
-			instruments.add(instrument);
+			String tick = attributes.getValue("tick");
+			String volatility = attributes.getValue("volatility");
+			String spread = attributes.getValue("spread");
+			Instrument instrument = new Instrument(ticker, sedol, name, ric, cusip, price, tick, volatility, spread);
+			loading.add(instrument);
 		}
 	}
 
 	public int getCount() {
-		return instruments.size();
+		return index.instruments.size();
 	}
 
 	public Instrument getInstrument(int i) {
-		return instruments.get(i);
+		return index.instruments.get(i);
 	}
 
+	/**
+	 * Looks an instrument up by ticker, SEDOL, CUSIP, name or RIC, in that
+	 * order of preference.
+	 */
 	public Instrument getInstrument(String identifier) {
-		Iterator<Instrument> iterator = instruments.iterator();
-		while (iterator.hasNext()) {
-			Instrument instrument = iterator.next();
-			if (instrument.getTicker().equals(identifier) || instrument.getSedol().equals(identifier)
-					|| instrument.getCusip().equals(identifier) || instrument.getName().equals(identifier))
-				return instrument;
-		}
-		return null;
+		if (identifier == null)
+			return null;
+		InstrumentIndex current = index;
+		Instrument instrument = current.byTicker.get(identifier);
+		if (instrument == null)
+			instrument = current.bySedol.get(identifier);
+		if (instrument == null)
+			instrument = current.byCusip.get(identifier);
+		if (instrument == null)
+			instrument = current.byName.get(identifier);
+		if (instrument == null)
+			instrument = current.byRIC.get(identifier);
+		return instrument;
+	}
+
+	public Instrument getInstrumentByTicker(String ticker) {
+		return index.byTicker.get(ticker);
+	}
+
+	public Instrument getInstrumentBySedol(String sedol) {
+		return index.bySedol.get(sedol);
+	}
+
+	public Instrument getInstrumentByCusip(String cusip) {
+		return index.byCusip.get(cusip);
+	}
+
+	public Instrument getInstrumentByRIC(String ric) {
+		return index.byRIC.get(ric);
+	}
+
+	/**
+	 * @return the instruments as loaded, in file order. The list is replaced,
+	 *         never changed, when the file is reloaded.
+	 */
+	List<Instrument> getSnapshot() {
+		return index.instruments;
 	}
 
 	public Instrument randomInstrument() {
 		Instrument instrument = null;
 		Random generator = new Random();
+		ArrayList<Instrument> instruments = index.instruments;
 		int size = instruments.size();
 		int index = generator.nextInt(size);
 		instrument = instruments.get(index);
@@ -111,7 +156,7 @@ public class InstrumentSet extends DefaultHandler {
 			BufferedWriter writer = new BufferedWriter(new FileWriter("config/instruments.xml"));
 			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
 			writer.write("<instruments>\n");
-			Iterator<Instrument> iterator = instruments.iterator();
+			Iterator<Instrument> iterator = index.instruments.iterator();
 			while (iterator.hasNext()) {
 				Instrument instrument = (Instrument) iterator.next();
 				String output = "   <instrument";
@@ -120,7 +165,13 @@ public class InstrumentSet extends DefaultHandler {
 				output += " cusip=\"" + instrument.getCusip() + "\"";
 				output += " sedol=\"" + instrument.getSedol() + "\"";
 				output += " ric=\"" + instrument.getRIC() + "\"";
-				output += " price=\"" + instrument.getPrice() + "\"";
+				output += " price=\"" + FixedPoint.formatPrice(instrument.getPriceUnits()) + "\"";
+				if (instrument.getTickSize() != FixedPoint.DEFAULT_TICK)
+					output += " tick=\"" + FixedPoint.formatPrice(instrument.getTickSize()) + "\"";
+				if (instrument.getVolatility() > 0)
+					output += " volatility=\"" + instrument.getVolatility() + "\"";
+				if (instrument.getSpread() > 0)
+					output += " spread=\"" + instrument.getSpread() + "\"";
 				output += "/>\n";
 				writer.write(output);
 			}
@@ -134,4 +185,41 @@ public class InstrumentSet extends DefaultHandler {
 	public void addCallback(InstrumentTableModel instrumentModel) {
 		this.instrumentModel = instrumentModel;
 	}
+
+	/*
+	 * An immutable set of instruments with a hash index per identifier type.
+	 * When identifiers repeat, the first instrument in the file wins.
+	 */
+	private static class InstrumentIndex {
+		private final ArrayList<Instrument> instruments;
+		private final HashMap<String, Instrument> byTicker;
+		private final HashMap<String, Instrument> bySedol;
+		private final HashMap<String, Instrument> byCusip;
+		private final HashMap<String, Instrument> byName;
+		private final HashMap<String, Instrument> byRIC;
+
+		InstrumentIndex(ArrayList<Instrument> instruments) {
+			this.instruments = instruments;
+			int capacity = instruments.size() * 4 / 3 + 1;
+			byTicker = new HashMap<String, Instrument>(capacity);
+			bySedol = new HashMap<String, Instrument>(capacity);
+			byCusip = new HashMap<String, Instrument>(capacity);
+			byName = new HashMap<String, Instrument>(capacity);
+			byRIC = new HashMap<String, Instrument>(capacity);
+			for (int i = 0; i < instruments.size(); i++) {
+				Instrument instrument = instruments.get(i);
+				instrument.setPosition(i);
+				put(byTicker, instrument.getTicker(), instrument);
+				put(bySedol, instrument.getSedol(), instrument);
+				put(byCusip, instrument.getCusip(), instrument);
+				put(byName, instrument.getName(), instrument);
+				put(byRIC, instrument.getRIC(), instrument);
+			}
+		}
+
+		private static void put(HashMap<String, Instrument> map, String key, Instrument instrument) {
+			if (key != null && !map.containsKey(key))
+				map.put(key, instrument);
+		}
+	}
 }
@@ -0,0 +1,395 @@
+/*
+ * File : LoadGenerator.java
+ *
+ * Contents : This is a FIX initiator that drives a running FIXimulator with
+ * NewOrderSingle, OrderCancelRequest and OrderCancelReplaceRequest traffic
+ * at a fixed rate and measures how long the first ExecutionReport (or
+ * OrderCancelReject) takes to come back for each request.
+ *
+ * The load is open loop: requests go out on a fixed schedule whether or not
+ * earlier ones have been answered. Every latency is recorded twice, from the
+ * moment the request was actually sent (service time) and from the moment
+ * the schedule said it should have been sent (response time). The second
+ * one includes any time the generator spent held up behind a stall, so it
+ * is not skewed by coordinated omission. Requests that are never answered,
+ * within five seconds of the end of the run or before their slot among the
+ * requests in flight is needed again, are recorded as of the moment they
+ * are given up on, so the percentiles are a lower bound when there are any.
+ *
+ * Usage: loadgen.sh, with FIXimulator running and the session in
+ * config/LoadGenerator.cfg matching one of its sessions.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.LatencyHistogram;
+import quickfix.Application;
+import quickfix.ConfigError;
+import quickfix.DefaultMessageFactory;
+import quickfix.FieldConvertError;
+import quickfix.FieldNotFound;
+import quickfix.Initiator;
+import quickfix.MemoryStoreFactory;
+import quickfix.Message;
+import quickfix.Session;
+import quickfix.SessionID;
+import quickfix.SessionSettings;
+import quickfix.SocketInitiator;
+import quickfix.field.ClOrdID;
+import quickfix.field.HandlInst;
+import quickfix.field.MsgType;
+import quickfix.field.OrdType;
+import quickfix.field.OrderQty;
+import quickfix.field.OrigClOrdID;
+import quickfix.field.Price;
+import quickfix.field.Side;
+import quickfix.field.Symbol;
+import quickfix.field.TransactTime;
+import quickfix.fix44.NewOrderSingle;
+import quickfix.fix44.OrderCancelReplaceRequest;
+import quickfix.fix44.OrderCancelRequest;
+
+public class LoadGenerator implements Application {
+	private static final int NEW = 0;
+	private static final int CANCEL = 1;
+	private static final int REPLACE = 2;
+	private static final String[] NAMES = { "NewOrderSingle", "OrderCancelRequest", "OrderCancelReplaceRequest" };
+
+	private final SessionSettings settings;
+	private final int rate;
+	private final long warmup;
+	private final long duration;
+	private final int cancelPercent;
+	private final int replacePercent;
+	private final int liveOrders;
+	private final String[] symbols;
+	private final String prefix;
+
+	// requests waiting for their first report, by sequence number
+	private final int mask;
+	private final AtomicLongArray pendingSequence;
+	private final long[] pendingKind;
+	private final long[] intendedTimes;
+	private final long[] sentTimes;
+	private volatile long measureFrom = Long.MAX_VALUE;
+
+	private final LatencyHistogram[] serviceTimes = new LatencyHistogram[NAMES.length];
+	private final LatencyHistogram[] responseTimes = new LatencyHistogram[NAMES.length];
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong answered = new AtomicLong();
+	// requests of the measured window answered, and when the last one was
+	private final AtomicLong measuredAnswered = new AtomicLong();
+	private volatile long lastAnsweredAt = 0;
+	private final long[] givenUp = new long[NAMES.length];
+	private long overwritten = 0;
+	private final AtomicLong rejected = new AtomicLong();
+	private final CountDownLatch logon = new CountDownLatch(1);
+	private volatile SessionID sessionID;
+
+	public LoadGenerator(SessionSettings settings) throws ConfigError, FieldConvertError {
+		this.settings = settings;
+		rate = (int) getLong("LoadGeneratorRate", 1000);
+		warmup = TimeUnit.SECONDS.toNanos(getLong("LoadGeneratorWarmup", 5));
+		duration = TimeUnit.SECONDS.toNanos(getLong("LoadGeneratorDuration", 30));
+		cancelPercent = (int) getLong("LoadGeneratorCancelPercent", 10);
+		replacePercent = (int) getLong("LoadGeneratorReplacePercent", 10);
+		// cancels and replaces only refer to the last this many orders, which
+		// have to still be among FIXimulator's cached orders
+		liveOrders = (int) getLong("LoadGeneratorLiveOrders", 20);
+		String symbolList = settings.isSetting("LoadGeneratorSymbols") ? settings.getString("LoadGeneratorSymbols")
+				: "IBM,MSFT,ORCL,CSCO,INTC";
+		symbols = symbolList.split("\\s*,\\s*");
+		// ClOrdIDs must not repeat those of an earlier run
+		prefix = "LG" + Long.toString(System.currentTimeMillis(), 36) + "-";
+
+		// room for ten seconds of requests in flight
+		int capacity = Integer.highestOneBit(Math.max(1024, rate * 10) - 1) << 1;
+		mask = capacity - 1;
+		pendingSequence = new AtomicLongArray(capacity);
+		pendingKind = new long[capacity];
+		intendedTimes = new long[capacity];
+		sentTimes = new long[capacity];
+		for (int i = 0; i < NAMES.length; i++) {
+			serviceTimes[i] = new LatencyHistogram();
+			responseTimes[i] = new LatencyHistogram();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String path = args.length > 0 ? args[0] : "config/LoadGenerator.cfg";
+		SessionSettings settings;
+		InputStream in = new FileInputStream(path);
+		try {
+			settings = new SessionSettings(in);
+		} finally {
+			in.close();
+		}
+		LoadGenerator generator = new LoadGenerator(settings);
+		Initiator initiator = new SocketInitiator(generator, new MemoryStoreFactory(), settings,
+				new DefaultMessageFactory());
+		initiator.start();
+		try {
+			generator.run(System.out);
+		} finally {
+			initiator.stop();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Waits for the logon, sends the configured load and prints the report.
+	 */
+	public void run(PrintStream out) throws InterruptedException, IOException {
+		if (!logon.await(60, TimeUnit.SECONDS))
+			throw new IOException("Could not log on to FIXimulator");
+		out.println("Logged on as " + sessionID + ", sending " + rate + " requests/s for "
+				+ TimeUnit.NANOSECONDS.toSeconds(duration) + " s after a " + TimeUnit.NANOSECONDS.toSeconds(warmup)
+				+ " s warmup");
+
+		Random random = new Random();
+		String[] liveClientIDs = new String[liveOrders];
+		String[] liveSymbols = new String[liveOrders];
+		long[] liveQuantities = new long[liveOrders];
+		long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		long start = System.nanoTime();
+		measureFrom = start + warmup;
+		long end = measureFrom + duration;
+		long nextProgress = start + TimeUnit.SECONDS.toNanos(1);
+		long measuredSent = 0;
+
+		for (long sequence = 0;; sequence++) {
+			long intended = start + sequence * interval;
+			if (intended >= end)
+				break;
+			waitUntil(intended);
+
+			String clientID = prefix + sequence;
+			int slot = (int) (sequence % liveOrders);
+			int choice = random.nextInt(100);
+			Message request;
+			int kind;
+			if (liveClientIDs[slot] != null && choice < cancelPercent) {
+				kind = CANCEL;
+				request = cancel(clientID, liveClientIDs[slot], liveSymbols[slot], liveQuantities[slot]);
+				liveClientIDs[slot] = null;
+			} else if (liveClientIDs[slot] != null && choice < cancelPercent + replacePercent) {
+				kind = REPLACE;
+				liveQuantities[slot] += 100;
+				request = replace(clientID, liveClientIDs[slot], liveSymbols[slot], liveQuantities[slot]);
+				liveClientIDs[slot] = clientID;
+			} else {
+				kind = NEW;
+				liveQuantities[slot] = 100 * (1 + random.nextInt(10));
+				liveSymbols[slot] = symbols[random.nextInt(symbols.length)];
+				request = newOrder(clientID, liveSymbols[slot], liveQuantities[slot]);
+				liveClientIDs[slot] = clientID;
+			}
+
+			int pending = (int) (sequence & mask);
+			// the request sent a whole buffer ago is still unanswered
+			long previous = pendingSequence.get(pending);
+			if (previous != 0 && giveUp(pending, previous, System.nanoTime()))
+				overwritten++;
+			pendingKind[pending] = kind;
+			intendedTimes[pending] = intended;
+			sentTimes[pending] = System.nanoTime();
+			// publishes the times above to the session thread
+			pendingSequence.set(pending, sequence + 1);
+			Session.lookupSession(sessionID).send(request);
+			sent.incrementAndGet();
+			if (intended >= measureFrom)
+				measuredSent++;
+
+			long now = System.nanoTime();
+			if (now >= nextProgress) {
+				out.println("sent " + sent.get() + ", answered " + answered.get() + ", in flight "
+						+ (sent.get() - answered.get()));
+				nextProgress += TimeUnit.SECONDS.toNanos(1);
+			}
+		}
+		long sendingTime = System.nanoTime() - measureFrom;
+
+		// give the last requests a few seconds to be answered
+		long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (answered.get() < sent.get() && System.nanoTime() < drainUntil)
+			Thread.sleep(10);
+		long drained = System.nanoTime();
+		for (int pending = 0; pending <= mask; pending++) {
+			long sequence = pendingSequence.get(pending);
+			if (sequence != 0)
+				giveUp(pending, sequence, drained);
+		}
+
+		report(out, measuredSent, sendingTime);
+	}
+
+	/*
+	 * Records a request that will not be waited for any longer as answered
+	 * now, unless its report has just come in after all.
+	 */
+	private boolean giveUp(int pending, long sequence, long now) {
+		if (!pendingSequence.compareAndSet(pending, sequence, 0))
+			return false;
+		long intended = intendedTimes[pending];
+		if (intended >= measureFrom) {
+			int kind = (int) pendingKind[pending];
+			givenUp[kind]++;
+			serviceTimes[kind].record(now - sentTimes[pending]);
+			responseTimes[kind].record(now - intended);
+		}
+		return true;
+	}
+
+	private void report(PrintStream out, long measuredSent, long sendingTime) {
+		double seconds = sendingTime / 1e9;
+		long answeredInWindow = measuredAnswered.get();
+		// from the start of the measured window to its last answer
+		double answeredSeconds = Math.max(lastAnsweredAt - measureFrom, sendingTime) / 1e9;
+		out.println();
+		out.printf("Sent %d requests in %.1f s (%.0f/s), %d reports received, %d requests unanswered, "
+				+ "%d session level rejects%n", measuredSent, seconds, measuredSent / seconds, received.get(),
+				sent.get() - answered.get(), rejected.get());
+		out.printf("Answered %d of the measured requests in %.1f s, %.0f/s%n", answeredInWindow, answeredSeconds,
+				answeredInWindow / answeredSeconds);
+		if (overwritten > 0)
+			out.printf("%d requests were still in flight after %d more had been sent and were given up on%n",
+					overwritten, mask + 1);
+		for (int kind = 0; kind < NAMES.length; kind++) {
+			if (serviceTimes[kind].getTotalCount() == 0)
+				continue;
+			out.println();
+			if (givenUp[kind] > 0)
+				out.printf("%d unanswered %s requests are recorded as of when they were given up on%n", givenUp[kind],
+						NAMES[kind]);
+			serviceTimes[kind].print(out, NAMES[kind] + " service time", 1000, "us");
+			responseTimes[kind].print(out, NAMES[kind] + " response time, corrected for coordinated omission",
+					1000, "us");
+		}
+	}
+
+	private static void waitUntil(long time) {
+		long remaining;
+		while ((remaining = time - System.nanoTime()) > 0) {
+			// parking is only accurate to about 50 us, spin the rest
+			if (remaining > 100000)
+				LockSupport.parkNanos(remaining - 50000);
+		}
+	}
+
+	private NewOrderSingle newOrder(String clientID, String symbol, long quantity) {
+		NewOrderSingle order = new NewOrderSingle(new ClOrdID(clientID), new Side(Side.BUY), new TransactTime(),
+				new OrdType(OrdType.LIMIT));
+		order.set(new HandlInst(HandlInst.AUTOMATED_EXECUTION_ORDER_PRIVATE_NO_BROKER_INTERVENTION));
+		order.set(new Symbol(symbol));
+		order.set(new OrderQty(quantity));
+		order.set(new Price(100));
+		// BAADER.FIX44.xml makes the custom field required
+		order.setString(CustomField.FIELD, "LoadGenerator");
+		return order;
+	}
+
+	private OrderCancelRequest cancel(String clientID, String origClientID, String symbol, long quantity) {
+		OrderCancelRequest cancel = new OrderCancelRequest(new OrigClOrdID(origClientID), new ClOrdID(clientID),
+				new Side(Side.BUY), new TransactTime());
+		cancel.set(new Symbol(symbol));
+		cancel.set(new OrderQty(quantity));
+		cancel.setString(CustomField.FIELD, "LoadGenerator");
+		return cancel;
+	}
+
+	private OrderCancelReplaceRequest replace(String clientID, String origClientID, String symbol, long quantity) {
+		OrderCancelReplaceRequest replace = new OrderCancelReplaceRequest(new OrigClOrdID(origClientID),
+				new ClOrdID(clientID), new Side(Side.BUY), new TransactTime(), new OrdType(OrdType.LIMIT));
+		replace.set(new HandlInst(HandlInst.AUTOMATED_EXECUTION_ORDER_PRIVATE_NO_BROKER_INTERVENTION));
+		replace.set(new Symbol(symbol));
+		replace.set(new OrderQty(quantity));
+		replace.set(new Price(100));
+		replace.setString(CustomField.FIELD, "LoadGenerator");
+		return replace;
+	}
+
+	/*
+	 * Only the first report for each request is timed.
+	 */
+	private void onReport(Message message, long receivedAt) {
+		received.incrementAndGet();
+		String clientID;
+		try {
+			clientID = message.getString(ClOrdID.FIELD);
+		} catch (FieldNotFound e) {
+			return;
+		}
+		if (!clientID.startsWith(prefix))
+			return;
+		long sequence;
+		try {
+			sequence = Long.parseLong(clientID.substring(prefix.length()));
+		} catch (NumberFormatException e) {
+			return;
+		}
+		int pending = (int) (sequence & mask);
+		if (!pendingSequence.compareAndSet(pending, sequence + 1, 0))
+			return;
+		answered.incrementAndGet();
+		long intended = intendedTimes[pending];
+		if (intended < measureFrom)
+			return;
+		measuredAnswered.incrementAndGet();
+		lastAnsweredAt = receivedAt;
+		int kind = (int) pendingKind[pending];
+		serviceTimes[kind].record(receivedAt - sentTimes[pending]);
+		responseTimes[kind].record(receivedAt - intended);
+	}
+
+	private long getLong(String key, long defaultValue) throws ConfigError, FieldConvertError {
+		return settings.isSetting(key) ? settings.getLong(key) : defaultValue;
+	}
+
+	public void onCreate(SessionID sessionID) {
+	}
+
+	public void onLogon(SessionID sessionID) {
+		this.sessionID = sessionID;
+		logon.countDown();
+	}
+
+	public void onLogout(SessionID sessionID) {
+	}
+
+	public void toAdmin(Message message, SessionID sessionID) {
+	}
+
+	public void fromAdmin(Message message, SessionID sessionID) {
+		try {
+			if (message.getHeader().getString(MsgType.FIELD).equals(MsgType.REJECT))
+				rejected.incrementAndGet();
+		} catch (FieldNotFound e) {
+		}
+	}
+
+	public void toApp(Message message, SessionID sessionID) {
+	}
+
+	public void fromApp(Message message, SessionID sessionID) {
+		long receivedAt = System.nanoTime();
+		try {
+			String type = message.getHeader().getString(MsgType.FIELD);
+			if (type.equals(MsgType.EXECUTION_REPORT) || type.equals(MsgType.ORDER_CANCEL_REJECT))
+				onReport(message, receivedAt);
+		} catch (FieldNotFound e) {
+		}
+	}
+}
@@ -40,6 +40,7 @@ package edu.harvard.fas.zfeledy.fiximulator.core;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
@@ -48,6 +49,7 @@ import java.util.List;
 import java.util.Map;
 
 import edu.harvard.fas.zfeledy.fiximulator.util.FIXMessageHelper;
+import edu.harvard.fas.zfeledy.fiximulator.util.FIXTagScanner;
 import edu.harvard.fas.zfeledy.fiximulator.util.LogField;
 import edu.harvard.fas.zfeledy.fiximulator.util.LogGroup;
 import quickfix.DataDictionary;
@@ -57,9 +59,11 @@ import quickfix.FieldNotFound;
 import quickfix.Group;
 import quickfix.InvalidMessage;
 import quickfix.Message;
+import quickfix.Session;
 import quickfix.SessionID;
 import quickfix.field.MsgType;
 import quickfix.field.SendingTime;
+import quickfix.field.converter.UtcTimestampConverter;
 
 /**
  * @author Brian M. Coyner
@@ -76,37 +80,46 @@ public class LogMessage implements Comparable<Object> {
 
 	private SessionID sessionId;
 	private boolean incoming;
-	private String rawMessage;
+	// the message as it went over the wire, SOH delimited ASCII
+	private byte[] rawMessage;
+	// value offsets of MsgType (35) and SendingTime (52), -1 when missing
+	private int messageTypeStart = -1;
+	private int messageTypeEnd = -1;
+	private int sendingTimeStart = -1;
+	private int sendingTimeEnd = -1;
+	// looked up on first access
 	private String messageTypeName;
 	private Date sendingTime;
-	private DataDictionary dictionary;
-	// private List<ValidationError> validationErrors;
-	private boolean isValid;
 	private int messageIndex;
 
-	public LogMessage(int messageIndex, boolean incoming, SessionID sessionId, String rawMessage,
-			DataDictionary dictionary) {
+	public LogMessage(int messageIndex, boolean incoming, SessionID sessionId, String rawMessage) {
 		this.messageIndex = messageIndex;
-
-		isValid = true;
-		this.dictionary = dictionary;
-		this.rawMessage = rawMessage.replace(SOH_DELIMETER, DEFAULT_DELIMETER);
+		this.rawMessage = rawMessage.getBytes(StandardCharsets.US_ASCII);
 		this.sessionId = sessionId;
 		this.incoming = incoming;
-
-		sendingTime = lookupSendingTime();
-		messageTypeName = lookupMessageTypeName();
+		findHeaderFields();
 	}
 
 	public SessionID getSessionId() {
 		return sessionId;
 	}
 
+	/**
+	 * @return the message with its fields delimited by
+	 *         <code>DEFAULT_DELIMETER</code>.
+	 */
 	public String getRawMessage() {
-		return rawMessage;
+		byte[] display = rawMessage.clone();
+		for (int i = 0; i < display.length; i++) {
+			if (display[i] == SOH_DELIMETER)
+				display[i] = DEFAULT_DELIMETER;
+		}
+		return new String(display, StandardCharsets.US_ASCII);
 	}
 
 	public String getMessageTypeName() {
+		if (messageTypeName == null && messageTypeStart >= 0)
+			messageTypeName = lookupMessageTypeName();
 		return messageTypeName;
 	}
 
@@ -124,7 +137,7 @@ public class LogMessage implements Comparable<Object> {
 	 * @return true if the message is valid.
 	 */
 	public boolean isValid() {
-		return isValid;
+		return messageTypeStart >= 0;
 	}
 
 	public boolean isIncoming() {
@@ -141,6 +154,8 @@ public class LogMessage implements Comparable<Object> {
 	 *         missing the sending time.
 	 */
 	public Date getSendingTime() {
+		if (sendingTime == null && sendingTimeStart >= 0)
+			sendingTime = lookupSendingTime();
 		return sendingTime;
 	}
 
@@ -166,21 +181,23 @@ public class LogMessage implements Comparable<Object> {
 	 */
 	public List<LogField> getLogFields() {
 
-		Message message = createMessage();
-
 		List<LogField> logFields = new ArrayList<LogField>();
+		DataDictionary dictionary = getDataDictionary();
+		if (dictionary == null)
+			return logFields;
+		Message message = createMessage(dictionary);
+		if (message == null)
+			return logFields;
 
 		Map<Integer, Field> allFields = getAllFields(message);
 
-		String[] fields = rawMessage.split("\\|");
-
-		for (String fieldString : fields) {
-			int indexOfEqual = fieldString.indexOf('=');
-			int tag = Integer.parseInt(fieldString.substring(0, indexOfEqual));
-
-			Field field = allFields.remove(tag);
+		// walk the tags in wire order
+		FIXTagScanner scanner = FIXMessageHelper.getScanner();
+		scanner.scan(rawMessage, SOH_DELIMETER);
+		for (int i = 0; i < scanner.getFieldCount(); i++) {
+			Field field = allFields.remove(scanner.getTag(i));
 			if (field != null) {
-				logFields.add(createLogField(message, field));
+				logFields.add(createLogField(message, field, dictionary));
 			}
 		}
 
@@ -199,7 +216,7 @@ public class LogMessage implements Comparable<Object> {
 	}
 
 	@SuppressWarnings("unchecked")
-	private LogField createLogField(Message message, Field field) {
+	private LogField createLogField(Message message, Field field, DataDictionary dictionary) {
 
 		MsgType messageType = getMessageType(message);
 		String messageTypeValue = messageType.getValue();
@@ -235,8 +252,8 @@ public class LogMessage implements Comparable<Object> {
 		return logField;
 	}
 
-	private Message createMessage() {
-		String sohMessage = rawMessage.replace(DEFAULT_DELIMETER, SOH_DELIMETER);
+	private Message createMessage(DataDictionary dictionary) {
+		String sohMessage = new String(rawMessage, StandardCharsets.US_ASCII);
 		try {
 			return new Message(sohMessage, dictionary, true);
 		} catch (InvalidMessage invalidMessage) {
@@ -276,22 +293,46 @@ public class LogMessage implements Comparable<Object> {
 		return allFields;
 	}
 
-	private String lookupMessageTypeName() {
-		String messageTypeValue = FIXMessageHelper.getMessageType(rawMessage, DEFAULT_DELIMETER);
-		if (messageTypeValue == null) {
-			isValid = false;
-			return null;
+	private void findHeaderFields() {
+		FIXTagScanner scanner = FIXMessageHelper.getScanner();
+		scanner.scan(rawMessage, SOH_DELIMETER);
+		int i = scanner.indexOf(MsgType.FIELD);
+		if (i >= 0) {
+			messageTypeStart = scanner.getValueStart(i);
+			messageTypeEnd = scanner.getValueEnd(i);
 		}
-		return dictionary.getValueName(MsgType.FIELD, messageTypeValue);
+		i = scanner.indexOf(SendingTime.FIELD);
+		if (i >= 0) {
+			sendingTimeStart = scanner.getValueStart(i);
+			sendingTimeEnd = scanner.getValueEnd(i);
+		}
+	}
+
+	private String value(int start, int end) {
+		return new String(rawMessage, start, end - start, StandardCharsets.US_ASCII);
+	}
+
+	/*
+	 * The dictionary is shared by the session rather than held by every
+	 * message.
+	 */
+	private DataDictionary getDataDictionary() {
+		Session session = Session.lookupSession(sessionId);
+		return session == null ? null : session.getDataDictionary();
+	}
+
+	private String lookupMessageTypeName() {
+		String messageTypeValue = value(messageTypeStart, messageTypeEnd);
+		DataDictionary dictionary = getDataDictionary();
+		if (dictionary == null)
+			return messageTypeValue;
+		String name = dictionary.getValueName(MsgType.FIELD, messageTypeValue);
+		return name == null ? messageTypeValue : name;
 	}
 
 	private Date lookupSendingTime() {
 		try {
-			Date date = FIXMessageHelper.getSendingTime(rawMessage, DEFAULT_DELIMETER);
-			if (date == null) {
-				return date;
-			}
-			return date;
+			return UtcTimestampConverter.convert(value(sendingTimeStart, sendingTimeEnd));
 		} catch (FieldConvertError fieldConvertError) {
 			return null;
 		}
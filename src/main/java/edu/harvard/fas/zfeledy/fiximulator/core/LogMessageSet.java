@@ -9,38 +9,34 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.core;
 
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.harvard.fas.zfeledy.fiximulator.ui.MessageTableModel;
-import quickfix.DataDictionary;
+import edu.harvard.fas.zfeledy.fiximulator.util.RingBuffer;
 import quickfix.Message;
 import quickfix.SessionID;
 
 public class LogMessageSet {
 	private static final long serialVersionUID = 1L;
-	private ArrayList<LogMessage> messages = null;
+	private RingBuffer<LogMessage> messages = null;
 	private MessageTableModel model;
-	private int messageIndex = 0;
+	private AtomicInteger messageIndex = new AtomicInteger();
 
 	public LogMessageSet() {
-		messages = new ArrayList<LogMessage>();
+		messages = new RingBuffer<LogMessage>(50);
 	}
 
-	public void add(Message message, boolean incoming, DataDictionary dictionary, SessionID sessionID) {
-		messageIndex++;
-		LogMessage msg = new LogMessage(messageIndex, incoming, sessionID, message.toString(), dictionary);
+	public void add(Message message, boolean incoming, SessionID sessionID) {
+		// received messages keep the string they were parsed from, only
+		// messages built here need to be serialized
+		String rawMessage = message.toRawString();
+		if (rawMessage == null)
+			rawMessage = message.toString();
+		LogMessage msg = new LogMessage(messageIndex.incrementAndGet(), incoming, sessionID, rawMessage);
 		messages.add(msg);
-		int limit = 50;
-		try {
-			limit = (int) FIXimulator.getApplication().getSettings().getLong("FIXimulatorCachedObjects");
-		} catch (Exception e) {
-		}
-		while (messages.size() > limit) {
-			messages.remove(0);
-		}
-		// call back to the model to update
-		if(FIXimulator.isUiEnabled())
-		model.update(); //TODO NON-UI
+		// the table picks the new row up on its next refresh
+		if (model != null)
+			model.update();
 	}
 
 	public LogMessage getMessage(int i) {
@@ -51,6 +47,14 @@ public class LogMessageSet {
 		return messages.size();
 	}
 
+	public void setLimit(int limit) {
+		messages.setCapacity(limit);
+	}
+
+	public RingBuffer<LogMessage> getBuffer() {
+		return messages;
+	}
+
 	public void addCallback(MessageTableModel model) {
 		this.model = model;
 	}
@@ -0,0 +1,255 @@
+/*
+ * File : MarketSimulator.java
+ *
+ * Contents : This class moves a market for every instrument on a fixed tick.
+ * The mid price follows geometric Brownian motion with the instrument's own
+ * volatility, starting from its price in instruments.xml, and the spread
+ * around it widens and narrows at random about the instrument's typical
+ * spread. Fills, IOIs and anything else that quotes an instrument all read
+ * the same bid and ask.
+ *
+ * The state is kept in primitive arrays indexed by the instrument's
+ * position in the InstrumentSet, so a tick over 100,000 instruments is one
+ * pass over a few arrays. Quotes are written into whichever of two buffers
+ * is not being read and then published, readers validate their read
+ * against the buffer's StampedLock and never wait for a tick.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.AsyncLog;
+import edu.harvard.fas.zfeledy.fiximulator.util.FixedPoint;
+
+public class MarketSimulator {
+	// 252 days of 6.5 trading hours, the time volatilities are quoted over
+	private static final double TRADING_YEAR_MILLIS = 252 * 6.5 * 60 * 60 * 1000;
+	private static final int BID = 0;
+	private static final int ASK = 1;
+	private static final int MID = 2;
+
+	private final long tickMillis;
+	private final double volatility;
+	private final double drift;
+	private final double spread;
+	private ScheduledThreadPoolExecutor scheduler = null;
+	private volatile Quotes current = null;
+
+	// the rest is only touched by the thread that ticks
+	private Quotes back = null;
+	private List<Instrument> instruments = null;
+	private double[] price; // the mid, unrounded
+	private double[] driftStep; // (drift - volatility^2 / 2) * dt
+	private double[] diffusionStep; // volatility * sqrt(dt)
+	private double[] spreadFraction;
+	private long[] tickSize;
+	private long seed = System.nanoTime() | 1;
+
+	/*
+	 * The published prices of one set of instruments, in FixedPoint units.
+	 * Writes happen under the write lock, reads are optimistic.
+	 */
+	private static final class Quotes {
+		private final StampedLock lock = new StampedLock();
+		private final List<Instrument> instruments;
+		private final long[] bid;
+		private final long[] ask;
+
+		Quotes(List<Instrument> instruments) {
+			this.instruments = instruments;
+			bid = new long[instruments.size()];
+			ask = new long[instruments.size()];
+		}
+	}
+
+	/**
+	 * @param tickMillis
+	 *            how often prices move.
+	 * @param volatility
+	 *            the annual volatility of instruments that do not have one.
+	 * @param drift
+	 *            the annual drift of every instrument.
+	 * @param spread
+	 *            the typical spread, as a fraction of the price, of
+	 *            instruments that do not have one.
+	 */
+	public MarketSimulator(long tickMillis, double volatility, double drift, double spread) {
+		if (tickMillis <= 0)
+			throw new IllegalArgumentException("tickMillis must be positive");
+		this.tickMillis = tickMillis;
+		this.volatility = volatility;
+		this.drift = drift;
+		this.spread = spread;
+	}
+
+	public synchronized void start() {
+		if (scheduler != null)
+			return;
+		scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "FIXimulator-MarketSimulator");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					tick();
+				} catch (RuntimeException e) {
+					AsyncLog.error("Market simulator tick failed", e);
+				}
+			}
+		}, 0, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if (scheduler != null)
+			scheduler.shutdownNow();
+		scheduler = null;
+	}
+
+	/**
+	 * @return the bid in FixedPoint units, or 0 if the instrument has no
+	 *         market.
+	 */
+	public long getBid(Instrument instrument) {
+		return quote(instrument, BID);
+	}
+
+	/**
+	 * @return the ask in FixedPoint units, or 0 if the instrument has no
+	 *         market.
+	 */
+	public long getAsk(Instrument instrument) {
+		return quote(instrument, ASK);
+	}
+
+	/**
+	 * @return the mid between bid and ask in FixedPoint units, or 0 if the
+	 *         instrument has no market.
+	 */
+	public long getMid(Instrument instrument) {
+		return quote(instrument, MID);
+	}
+
+	/**
+	 * @return the price a buyer pays, the ask, or a seller gets, the bid.
+	 */
+	public long getPrice(Instrument instrument, boolean buy) {
+		return quote(instrument, buy ? ASK : BID);
+	}
+
+	private long quote(Instrument instrument, int side) {
+		if (instrument == null)
+			return 0;
+		int i = instrument.getPosition();
+		while (true) {
+			Quotes quotes = current;
+			// an instrument from before a reload has no market
+			if (quotes == null || i < 0 || i >= quotes.bid.length || quotes.instruments.get(i) != instrument)
+				return 0;
+			long stamp = quotes.lock.tryOptimisticRead();
+			long bid = quotes.bid[i];
+			long ask = quotes.ask[i];
+			// fails only if the reader was held up for two whole ticks
+			if (quotes.lock.validate(stamp)) {
+				if (side == BID)
+					return bid;
+				if (side == ASK)
+					return ask;
+				return (bid + ask) / 2;
+			}
+		}
+	}
+
+	/**
+	 * Moves every price one step, and starts over from the file prices when
+	 * the instruments have been reloaded. Called on the simulator's own
+	 * thread once started, or directly when it is not, as the benchmarks do.
+	 */
+	public void tick() {
+		InstrumentSet set = FIXimulator.getInstruments();
+		if (set == null)
+			return;
+		List<Instrument> snapshot = set.getSnapshot();
+		boolean reset = snapshot != instruments;
+		if (reset)
+			reset(snapshot);
+		Quotes quotes = back;
+		long stamp = quotes.lock.writeLock();
+		try {
+			int count = price.length;
+			for (int i = 0; i < count; i++) {
+				// two independent normals, Marsaglia's polar method
+				double u, v, s;
+				do {
+					u = 2 * nextDouble() - 1;
+					v = 2 * nextDouble() - 1;
+					s = u * u + v * v;
+				} while (s >= 1 || s == 0);
+				double scale = Math.sqrt(-2 * Math.log(s) / s);
+				if (!reset)
+					price[i] *= Math.exp(driftStep[i] + diffusionStep[i] * u * scale);
+				publish(quotes, i, Math.abs(v * scale));
+			}
+		} finally {
+			quotes.lock.unlockWrite(stamp);
+		}
+		Quotes previous = current;
+		current = quotes;
+		back = previous == null || previous.instruments != snapshot ? new Quotes(snapshot) : previous;
+	}
+
+	/*
+	 * Rounds the mid and spread to the tick, a spread of at least one tick.
+	 */
+	private void publish(Quotes quotes, int i, double noise) {
+		if (price[i] <= 0) {
+			quotes.bid[i] = 0;
+			quotes.ask[i] = 0;
+			return;
+		}
+		long tick = tickSize[i];
+		long mid = FixedPoint.toPrice(price[i]);
+		long width = Math.max(1, Math.round(mid * spreadFraction[i] * (1 + noise / 4) / tick));
+		long bid = Math.max(tick, (mid - width * tick / 2) / tick * tick);
+		quotes.bid[i] = bid;
+		quotes.ask[i] = bid + width * tick;
+	}
+
+	private void reset(List<Instrument> snapshot) {
+		int count = snapshot.size();
+		double dt = tickMillis / TRADING_YEAR_MILLIS;
+		price = new double[count];
+		driftStep = new double[count];
+		diffusionStep = new double[count];
+		spreadFraction = new double[count];
+		tickSize = new long[count];
+		for (int i = 0; i < count; i++) {
+			Instrument instrument = snapshot.get(i);
+			double sigma = instrument.getVolatility() > 0 ? instrument.getVolatility() : volatility;
+			price[i] = instrument.getPrice();
+			driftStep[i] = (drift - sigma * sigma / 2) * dt;
+			diffusionStep[i] = sigma * Math.sqrt(dt);
+			spreadFraction[i] = instrument.getSpread() > 0 ? instrument.getSpread() : spread;
+			tickSize[i] = instrument.getTickSize();
+		}
+		instruments = snapshot;
+		back = new Quotes(snapshot);
+	}
+
+	// xorshift64*, one generator for the one thread that ticks
+	private double nextDouble() {
+		seed ^= seed >>> 12;
+		seed ^= seed << 25;
+		seed ^= seed >>> 27;
+		return ((seed * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * File : MatchingEngine.java
+ *
+ * Contents : This class keeps one OrderBook per symbol and routes orders to
+ * them. Matches are reported back through a FillListener.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MatchingEngine {
+	private final ConcurrentHashMap<String, OrderBook> books = new ConcurrentHashMap<String, OrderBook>();
+	private final FillListener listener;
+
+	public interface FillListener {
+		/**
+		 * @param quantity
+		 *            the fill quantity in FixedPoint quantity units.
+		 * @param price
+		 *            the fill price in FixedPoint price units.
+		 */
+		void onFill(Order order, long quantity, long price);
+	}
+
+	public MatchingEngine(FillListener listener) {
+		this.listener = listener;
+	}
+
+	public void submit(Order order) {
+		getBook(order.getSymbol()).submit(order, listener);
+	}
+
+	public boolean cancel(Order order) {
+		if (order.getSymbol() == null)
+			return false;
+		OrderBook book = books.get(order.getSymbol());
+		if (book == null)
+			return false;
+		return book.cancel(order);
+	}
+
+	public OrderBook getBook(String symbol) {
+		OrderBook book = books.get(symbol);
+		if (book == null) {
+			OrderBook newBook = new OrderBook(symbol);
+			book = books.putIfAbsent(symbol, newBook);
+			if (book == null)
+				book = newBook;
+		}
+		return book;
+	}
+
+	public int getBookCount() {
+		return books.size();
+	}
+}
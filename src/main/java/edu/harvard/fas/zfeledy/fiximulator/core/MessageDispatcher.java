@@ -0,0 +1,54 @@
+/*
+ * File : MessageDispatcher.java
+ *
+ * Contents : This class hands application messages to their handlers with
+ * one hash lookup on the BeginString and one on the MsgType, where
+ * QuickFIX/J's MessageCracker compares the MsgType against every message
+ * type of the version in turn. The handlers are registered once, before
+ * the first message arrives; a type with no handler is turned away as
+ * unsupported after a single failed lookup.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.util.HashMap;
+
+import quickfix.FieldNotFound;
+import quickfix.IncorrectTagValue;
+import quickfix.Message;
+import quickfix.SessionID;
+import quickfix.UnsupportedMessageType;
+
+public class MessageDispatcher {
+	public interface Handler {
+		void handle(Message message, SessionID sessionID)
+				throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue;
+	}
+
+	// BeginString to MsgType to handler, only read once messages flow
+	private final HashMap<String, HashMap<String, Handler>> handlers = new HashMap<String, HashMap<String, Handler>>();
+
+	public void register(String beginString, String messageType, Handler handler) {
+		HashMap<String, Handler> version = handlers.get(beginString);
+		if (version == null) {
+			version = new HashMap<String, Handler>();
+			handlers.put(beginString, version);
+		}
+		version.put(messageType, handler);
+	}
+
+	/**
+	 * @throws UnsupportedMessageType
+	 *             if nothing handles the type, which QuickFIX/J answers with a
+	 *             BusinessMessageReject.
+	 */
+	public void dispatch(Message message, String messageType, SessionID sessionID)
+			throws FieldNotFound, UnsupportedMessageType, IncorrectTagValue {
+		HashMap<String, Handler> version = handlers.get(sessionID.getBeginString());
+		Handler handler = version == null ? null : version.get(messageType);
+		if (handler == null)
+			throw new UnsupportedMessageType();
+		handler.handle(message, sessionID);
+	}
+}
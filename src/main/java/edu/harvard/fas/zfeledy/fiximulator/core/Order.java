@@ -10,7 +10,14 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.core;
 
+import java.util.Iterator;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.AsyncLog;
+import edu.harvard.fas.zfeledy.fiximulator.util.FixedPoint;
+import edu.harvard.fas.zfeledy.fiximulator.util.IdGenerator;
+import quickfix.Field;
 import quickfix.FieldNotFound;
+import quickfix.SessionID;
 import quickfix.field.ClOrdID;
 import quickfix.field.IDSource;
 import quickfix.field.OrdType;
@@ -25,7 +32,10 @@ import quickfix.field.TimeInForce;
 import quickfix.fix44.NewOrderSingle;
 
 public class Order implements Cloneable {
-	private static int nextID = 1;
+	private static final IdGenerator ids = new IdGenerator('O');
+	// the tags read from a NewOrderSingle, by the bit that marks them found
+	private static final int[] DECODED_TAGS = { ClOrdID.FIELD, Side.FIELD, Symbol.FIELD, OrdType.FIELD,
+			OrderQty.FIELD, TimeInForce.FIELD, Price.FIELD, SecurityID.FIELD, CustomField.FIELD };
 	private boolean receivedOrder = false;
 	private boolean receivedCancel = false;
 	private boolean receivedReplace = false;
@@ -40,12 +50,20 @@ public class Order implements Cloneable {
 	private String symbol = null;
 	private String securityID = null;
 	private String idSource = null;
-	private double quantity = 0.0;
-	private double open = 0.0;
-	private double executed = 0.0;
-	private double limit = 0.0;
-	private double avgPx = 0.0;
+	// quantities are scaled by FixedPoint.QTY_SCALE, prices by PRICE_SCALE
+	private long quantity = 0;
+	private long open = 0;
+	private long executed = 0;
+	// notional of all fills, for the AvgPx, scaled by PRICE_SCALE alone
+	private long executedValue = 0;
+	private long limit = 0;
+	private long avgPx = 0;
 	private String custField=null;
+	private volatile long journalKey = 0; // identifies the order in the OrderJournal
+	private volatile long sequence = -1; // its sequence number in the OrderSet's buffer
+	private SessionID sessionID = null; // the session the order came in on
+	// the body of its execution reports, rendered by the session's encoder
+	private ExecutionReportEncoder.Template reportTemplate = null;
 
 	@Override
 	public Order clone() {
@@ -53,6 +71,8 @@ public class Order implements Cloneable {
 			Order order = (Order) super.clone();
 			order.setOrigClientID(getID());
 			order.setID(generateID());
+			order.journalKey = 0;
+			order.sequence = -1;
 			return order;
 		} catch (CloneNotSupportedException e) {
 		}
@@ -66,87 +86,113 @@ public class Order implements Cloneable {
 	public Order(NewOrderSingle message) {
 		ID = generateID();
 
-		// ClOrdID
-		try {
-			ClOrdID clOrdID = new ClOrdID();
-			message.get(clOrdID);
-			this.setClientID(clOrdID.getValue().toString());
-		} catch (FieldNotFound ex) {
-		}
-
-		// Side
-		try {
-			Side msgSide = new Side();
-			message.get(msgSide);
-			setSide(msgSide.getValue());
-		} catch (FieldNotFound ex) {
-		}
-
-		// Symbol
-		try {
-			Symbol msgSymbol = new Symbol();
-			message.get(msgSymbol);
-			setSymbol(msgSymbol.getValue());
-		} catch (FieldNotFound ex) {
+		// one pass over the body, picking out the fields an order is made
+		// of; those that are missing keep their defaults
+		int decoded = 0;
+		Iterator<Field<?>> fields = message.iterator();
+		while (fields.hasNext()) {
+			Field<?> field = fields.next();
+			int bit;
+			switch (field.getTag()) {
+			case ClOrdID.FIELD:
+				clientID = text(field);
+				bit = 0;
+				break;
+			case Side.FIELD:
+				side = character(field);
+				bit = 1;
+				break;
+			case Symbol.FIELD:
+				symbol = text(field);
+				bit = 2;
+				break;
+			case OrdType.FIELD:
+				type = character(field);
+				bit = 3;
+				break;
+			case OrderQty.FIELD:
+				quantity = quantity(field);
+				open = quantity;
+				bit = 4;
+				break;
+			case TimeInForce.FIELD:
+				tif = character(field);
+				bit = 5;
+				break;
+			case Price.FIELD:
+				limit = price(field);
+				bit = 6;
+				break;
+			case SecurityID.FIELD:
+				securityID = text(field);
+				bit = 7;
+				break;
+			case CustomField.FIELD:
+				custField = text(field);
+				bit = 8;
+				break;
+			default:
+				continue;
+			}
+			decoded |= 1 << bit;
 		}
 
-		// Type
-		try {
-			OrdType msgType = new OrdType();
-			message.get(msgType);
-			setType(msgType.getValue());
-		} catch (FieldNotFound ex) {
-		}
+		if (decoded != (1 << DECODED_TAGS.length) - 1 && AsyncLog.isDebugEnabled())
+			AsyncLog.debug("NewOrderSingle " + clientID + " came without tags " + missingTags(decoded));
+		if (AsyncLog.isDebugEnabled())
+			AsyncLog.debug("SecurityID: " + this.getSecurityID() + " IDSource: " + this.getIdSource());
+	}
 
-		// OrderQty
-		try {
-			OrderQty msgQty = new OrderQty();
-			message.get(msgQty);
-			setQuantity(msgQty.getValue());
-			setOpen(msgQty.getValue());
-		} catch (FieldNotFound ex) {
-		}
+	// the value as it came off the wire, or as it was set on a message built
+	// in process
+	private static String text(Field<?> field) {
+		Object value = field.getObject();
+		return value instanceof String ? (String) value : String.valueOf(value);
+	}
 
-		// TimeInForce
-		try {
-			TimeInForce msgTIF = new TimeInForce();
-			message.get(msgTIF);
-			this.setTif(msgTIF.getValue());
-		} catch (FieldNotFound ex) {
-		}
+	// a Double set in process would print as 1.0E7, which is not a decimal
+	// string, so numbers are scaled directly
+	private static long quantity(Field<?> field) {
+		Object value = field.getObject();
+		if (value instanceof Number)
+			return FixedPoint.toQty(((Number) value).doubleValue());
+		return FixedPoint.parse(text(field), FixedPoint.QTY_DECIMALS);
+	}
 
-		// Price
-		try {
-			Price price = new Price();
-			message.get(price);
-			this.setLimit(price.getValue());
-		} catch (FieldNotFound ex) {
-		}
+	private static long price(Field<?> field) {
+		Object value = field.getObject();
+		if (value instanceof Number)
+			return FixedPoint.toPrice(((Number) value).doubleValue());
+		return FixedPoint.parsePrice(text(field));
+	}
 
-		// SecurityID
-		try {
-			SecurityID secID = new SecurityID();
-			message.get(secID);
-			this.setSecurityID(secID.getValue());
-		} catch (FieldNotFound ex) {
-		}
+	private static char character(Field<?> field) {
+		Object value = field.getObject();
+		return value instanceof Character ? (Character) value : text(field).charAt(0);
+	}
 
-		try {
-			
-			this.setCustomField(message.getString(CustomField.FIELD).toString());
-		} catch (FieldNotFound ex) {
-			ex.printStackTrace();
+	private static String missingTags(int decoded) {
+		StringBuilder missing = new StringBuilder();
+		for (int bit = 0; bit < DECODED_TAGS.length; bit++) {
+			if ((decoded & 1 << bit) == 0) {
+				if (missing.length() > 0)
+					missing.append(',');
+				missing.append(DECODED_TAGS[bit]);
+			}
 		}
-
-		System.out.println("SecurityID: " + this.getSecurityID());
-		System.out.println("IDSource: " + this.getIdSource());
-	}
-	private void setCustomField(String value) {
-		// TODO Auto-generated method stub
-		this.custField =value;
+		return missing.toString();
 	}
+
 	public Order(quickfix.fix44.OrderCancelRequest message) {
+		this(message, null);
+	}
+
+	/**
+	 * The original order is looked up among the orders of the given session.
+	 */
+	public Order(quickfix.fix44.OrderCancelRequest message, SessionID sessionID) {
 		// ID = generateID();
+		this.sessionID = sessionID;
 
 		try {
 			OrderID orderID = new OrderID();
@@ -171,13 +217,18 @@ public class Order implements Cloneable {
 		} catch (FieldNotFound ex) {
 		}
 
-		Order oldOrder = FIXimulator.getApplication().getOrders().getOrder(origClientID);
+		Order oldOrder = findLiveOrder(sessionID, origClientID);
 		if (oldOrder != null) {
-			open = oldOrder.getOpen();
-			executed = oldOrder.getExecuted();
-			limit = oldOrder.getLimit();
-			avgPx = oldOrder.getAvgPx();
+			open = oldOrder.open;
+			executed = oldOrder.executed;
+			executedValue = oldOrder.executedValue;
+			limit = oldOrder.limit;
+			avgPx = oldOrder.avgPx;
 			status = oldOrder.getFIXStatus();
+			custField = oldOrder.custField;
+			// the request need not carry the OrderID
+			if (ID == null)
+				ID = oldOrder.ID;
 		}
 
 		// Side
@@ -217,7 +268,15 @@ public class Order implements Cloneable {
 	}
 
 	public Order(quickfix.fix44.OrderCancelReplaceRequest message) {
+		this(message, null);
+	}
+
+	/**
+	 * The original order is looked up among the orders of the given session.
+	 */
+	public Order(quickfix.fix44.OrderCancelReplaceRequest message, SessionID sessionID) {
 		ID = generateID();
+		this.sessionID = sessionID;
 
 		// ClOrdID
 		try {
@@ -235,12 +294,14 @@ public class Order implements Cloneable {
 		} catch (FieldNotFound ex) {
 		}
 
-		Order oldOrder = FIXimulator.getApplication().getOrders().getOrder(origClientID);
+		Order oldOrder = findLiveOrder(sessionID, origClientID);
 		if (oldOrder != null) {
-			open = oldOrder.getOpen();
-			executed = oldOrder.getExecuted();
-			avgPx = oldOrder.getAvgPx();
+			open = oldOrder.open;
+			executed = oldOrder.executed;
+			executedValue = oldOrder.executedValue;
+			avgPx = oldOrder.avgPx;
 			status = oldOrder.getFIXStatus();
+			custField = oldOrder.custField;
 		}
 
 		// Side
@@ -272,7 +333,9 @@ public class Order implements Cloneable {
 			OrderQty msgQty = new OrderQty();
 			message.get(msgQty);
 			setQuantity(msgQty.getValue());
-			setOpen(msgQty.getValue());
+			// the quantity already executed against the original stays
+			// executed, only the rest of the new quantity is open
+			setOpenUnits(Math.max(0, quantity - executed));
 		} catch (FieldNotFound ex) {
 		}
 
@@ -304,7 +367,26 @@ public class Order implements Cloneable {
 	}
 
 	public String generateID() {
-		return "O" + Long.valueOf(System.currentTimeMillis() + (nextID++)).toString();
+		return ids.next();
+	}
+
+	/**
+	 * Keeps new OrderIDs above one restored from the journal.
+	 */
+	static void observeID(String id) {
+		ids.observe(id);
+	}
+
+	/**
+	 * The order a cancel or replace request refers to: the live end of the
+	 * chain its OrigClOrdID belongs to, or else the order with that id.
+	 */
+	static Order findLiveOrder(SessionID sessionID, String origClientID) {
+		if (origClientID == null)
+			return null;
+		OrderSet orders = FIXimulator.getApplication().getOrders(sessionID);
+		Order order = orders.getLatestOrder(origClientID);
+		return order != null ? order : orders.getOrder(origClientID);
 	}
 
 	public String getID() {
@@ -332,53 +414,155 @@ public class Order implements Cloneable {
 	}
 
 	public double getLimit() {
+		return FixedPoint.priceToDouble(limit);
+	}
+
+	public long getLimitUnits() {
 		return limit;
 	}
 
 	public void setLimit(double limit) {
-		this.limit = limit;
+		this.limit = FixedPoint.toPrice(limit);
 	}
 
 	public double getAvgPx() {
+		return FixedPoint.priceToDouble(avgPx);
+	}
+
+	public long getAvgPxUnits() {
 		return avgPx;
 	}
 
 	public void setAvgPx(double avgPx) {
-		this.avgPx = avgPx;
+		this.avgPx = FixedPoint.toPrice(avgPx);
+		executedValue = FixedPoint.notional(executed, this.avgPx);
 	}
 
 	public double getExecuted() {
+		return FixedPoint.qtyToDouble(executed);
+	}
+
+	public long getExecutedUnits() {
 		return executed;
 	}
 
 	public void setExecuted(double executed) {
-		this.executed = executed;
+		this.executed = FixedPoint.toQty(executed);
+		executedValue = FixedPoint.notional(this.executed, avgPx);
+	}
+
+	/**
+	 * Applies a fill to the quantities and the average price. Over-executions
+	 * leave nothing open.
+	 */
+	public void fill(long fillQty, long fillPrice) {
+		// an overflow, past 9 trillion, throws before the order is changed
+		executedValue = Math.addExact(executedValue, FixedPoint.notional(fillQty, fillPrice));
+		executed += fillQty;
+		open = Math.max(0, open - fillQty);
+		avgPx = FixedPoint.averagePrice(executedValue, executed);
+	}
+
+	/**
+	 * Takes a fill back out of the quantities and the average price, making
+	 * its quantity open again.
+	 */
+	public void unfill(long fillQty, long fillPrice) {
+		if (fillQty >= executed) {
+			executed = 0;
+			executedValue = 0;
+		} else {
+			executedValue = Math.subtractExact(executedValue, FixedPoint.notional(fillQty, fillPrice));
+			executed -= fillQty;
+		}
+		open = Math.max(0, quantity - executed);
+		avgPx = FixedPoint.averagePrice(executedValue, executed);
 	}
 
-	public static int getNextID() {
-		return nextID;
+	long getExecutedValue() {
+		return executedValue;
 	}
 
-	public static void setNextID(int nextID) {
-		Order.nextID = nextID;
+	long getJournalKey() {
+		return journalKey;
+	}
+
+	void setJournalKey(long journalKey) {
+		this.journalKey = journalKey;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return the session the order came in on, or null for an order that was
+	 *         not received from a counterparty.
+	 */
+	public SessionID getSessionID() {
+		return sessionID;
+	}
+
+	public void setSessionID(SessionID sessionID) {
+		this.sessionID = sessionID;
+	}
+
+	ExecutionReportEncoder.Template getReportTemplate() {
+		return reportTemplate;
+	}
+
+	void setReportTemplate(ExecutionReportEncoder.Template reportTemplate) {
+		this.reportTemplate = reportTemplate;
+	}
+
+	void restoreCustomField(String custField) {
+		this.custField = custField;
+	}
+
+	/**
+	 * Sets the quantities and prices as they were journaled.
+	 */
+	void restore(long quantity, long open, long executed, long executedValue, long limit, long avgPx) {
+		this.quantity = quantity;
+		this.open = open;
+		this.executed = executed;
+		this.executedValue = executedValue;
+		this.limit = limit;
+		this.avgPx = avgPx;
 	}
 
 	public double getOpen() {
+		return FixedPoint.qtyToDouble(open);
+	}
+
+	public long getOpenUnits() {
 		return open;
 	}
 
 	public void setOpen(double open) {
+		this.open = FixedPoint.toQty(open);
+	}
+
+	public void setOpenUnits(long open) {
 		this.open = open;
 	}
 
 	public double getQuantity() {
+		return FixedPoint.qtyToDouble(quantity);
+	}
+
+	public long getQuantityUnits() {
 		return quantity;
 	}
 	public String getCustomField() {
 		return custField;
 	}
 	public void setQuantity(double quantity) {
-		this.quantity = quantity;
+		this.quantity = FixedPoint.toQty(quantity);
 	}
 
 	public String getSide() {
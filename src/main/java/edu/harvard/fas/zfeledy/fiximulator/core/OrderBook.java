@@ -0,0 +1,263 @@
+/*
+ * File : OrderBook.java
+ *
+ * Contents : This class is a limit order book for a single symbol. Resting
+ * orders are kept in price-time priority and incoming orders are crossed
+ * against the opposite side.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.util.Arrays;
+
+import quickfix.field.OrdType;
+import quickfix.field.Side;
+import quickfix.field.TimeInForce;
+
+public class OrderBook {
+	private final String symbol;
+	private final BookSide bids = new BookSide(true);
+	private final BookSide asks = new BookSide(false);
+
+	public OrderBook(String symbol) {
+		this.symbol = symbol;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * Crosses the order against the opposite side of the book, reporting each
+	 * match for both the resting and the incoming order to the listener. Any
+	 * remaining quantity of a limit order is rested unless the order is IOC or
+	 * FOK. The matches are reported once the book is unlocked, so the
+	 * listener's sends and writes do not hold up other orders in the symbol;
+	 * the listener makes each order's fill and report atomic under the
+	 * order's lock.
+	 */
+	public void submit(Order order, MatchingEngine.FillListener listener) {
+		Matches matches = match(order);
+		if (matches == null)
+			return;
+		for (int i = 0; i < matches.count; i++) {
+			listener.onFill(matches.resting[i], matches.quantities[i], matches.prices[i]);
+			listener.onFill(order, matches.quantities[i], matches.prices[i]);
+		}
+	}
+
+	/*
+	 * Updates the book for the order and returns what it matched, or null if
+	 * it matched nothing.
+	 */
+	private synchronized Matches match(Order order) {
+		boolean buy = isBuy(order);
+		boolean market = order.getFIXType() == OrdType.MARKET;
+		long limit = order.getLimitUnits();
+		long open = order.getOpenUnits();
+		BookSide contra = buy ? asks : bids;
+		Matches matches = null;
+
+		if (order.getFIXTif() == TimeInForce.FILL_OR_KILL && contra.available(market, limit) < open)
+			return null;
+
+		while (open > 0 && contra.crosses(market, limit)) {
+			int slot = contra.top();
+			long price = contra.prices[slot];
+			long quantity = Math.min(open, contra.open[slot]);
+			Order resting = contra.orders[slot];
+			contra.open[slot] -= quantity;
+			if (contra.open[slot] <= 0)
+				contra.pop();
+			open -= quantity;
+			if (matches == null)
+				matches = new Matches();
+			matches.add(resting, quantity, price);
+		}
+
+		char tif = order.getFIXTif();
+		if (open > 0 && !market && tif != TimeInForce.IMMEDIATE_OR_CANCEL && tif != TimeInForce.FILL_OR_KILL)
+			(buy ? bids : asks).insert(order, limit, open);
+		return matches;
+	}
+
+	/**
+	 * Removes a resting order from the book.
+	 *
+	 * @return true if the order was resting in the book.
+	 */
+	public synchronized boolean cancel(Order order) {
+		return bids.remove(order) || asks.remove(order);
+	}
+
+	public synchronized int getBidDepth() {
+		return bids.depth;
+	}
+
+	public synchronized int getAskDepth() {
+		return asks.depth;
+	}
+
+	/**
+	 * @return the best bid price in FixedPoint units, or 0 if there are no
+	 *         bids.
+	 */
+	public synchronized long getBestBid() {
+		return bids.depth == 0 ? 0 : bids.prices[bids.top()];
+	}
+
+	/**
+	 * @return the best offer price in FixedPoint units, or 0 if there are no
+	 *         offers.
+	 */
+	public synchronized long getBestAsk() {
+		return asks.depth == 0 ? 0 : asks.prices[asks.top()];
+	}
+
+	static boolean isBuy(Order order) {
+		char side = order.getFIXSide();
+		return side == Side.BUY || side == Side.BUY_MINUS;
+	}
+
+	/*
+	 * The resting orders one incoming order matched, in the order matched.
+	 */
+	private static class Matches {
+		private Order[] resting = new Order[4];
+		private long[] quantities = new long[4];
+		private long[] prices = new long[4];
+		private int count = 0;
+
+		void add(Order order, long quantity, long price) {
+			if (count == resting.length) {
+				resting = Arrays.copyOf(resting, count * 2);
+				quantities = Arrays.copyOf(quantities, count * 2);
+				prices = Arrays.copyOf(prices, count * 2);
+			}
+			resting[count] = order;
+			quantities[count] = quantity;
+			prices[count] = price;
+			count++;
+		}
+	}
+
+	/*
+	 * One side of the book. Order details live in parallel arrays indexed by
+	 * slot; the queue holds slots sorted from lowest to highest priority so
+	 * that the best order is always at the end and can be removed without
+	 * shifting the rest of the queue.
+	 */
+	private static class BookSide {
+		private final boolean bid;
+		private long[] prices = new long[16];
+		private long[] open = new long[16];
+		private Order[] orders = new Order[16];
+		private int[] freeSlots = new int[16];
+		private int freeCount = 0;
+		private int slotCount = 0;
+		private int[] queue = new int[16];
+		private int depth = 0;
+
+		BookSide(boolean bid) {
+			this.bid = bid;
+		}
+
+		int top() {
+			return queue[depth - 1];
+		}
+
+		boolean crosses(boolean market, long limit) {
+			if (depth == 0)
+				return false;
+			if (market)
+				return true;
+			long best = prices[top()];
+			return bid ? best >= limit : best <= limit;
+		}
+
+		long available(boolean market, long limit) {
+			long total = 0;
+			for (int i = depth - 1; i >= 0; i--) {
+				long price = prices[queue[i]];
+				if (!market && (bid ? price < limit : price > limit))
+					break;
+				total += open[queue[i]];
+			}
+			return total;
+		}
+
+		void insert(Order order, long price, long quantity) {
+			int slot = allocate();
+			prices[slot] = price;
+			open[slot] = quantity;
+			orders[slot] = order;
+
+			// the new order goes ahead of (below) every order at the same
+			// or a better price, which keeps time priority within a level
+			int low = 0;
+			int high = depth;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				long midPrice = prices[queue[mid]];
+				if (bid ? midPrice < price : midPrice > price)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			if (depth == queue.length)
+				queue = grow(queue);
+			System.arraycopy(queue, low, queue, low + 1, depth - low);
+			queue[low] = slot;
+			depth++;
+		}
+
+		void pop() {
+			release(queue[--depth]);
+		}
+
+		boolean remove(Order order) {
+			for (int i = depth - 1; i >= 0; i--) {
+				int slot = queue[i];
+				if (orders[slot] == order) {
+					System.arraycopy(queue, i + 1, queue, i, depth - i - 1);
+					depth--;
+					release(slot);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private int allocate() {
+			if (freeCount > 0)
+				return freeSlots[--freeCount];
+			if (slotCount == prices.length) {
+				int size = prices.length * 2;
+				long[] newPrices = new long[size];
+				long[] newOpen = new long[size];
+				Order[] newOrders = new Order[size];
+				System.arraycopy(prices, 0, newPrices, 0, slotCount);
+				System.arraycopy(open, 0, newOpen, 0, slotCount);
+				System.arraycopy(orders, 0, newOrders, 0, slotCount);
+				prices = newPrices;
+				open = newOpen;
+				orders = newOrders;
+			}
+			return slotCount++;
+		}
+
+		private void release(int slot) {
+			orders[slot] = null;
+			if (freeCount == freeSlots.length)
+				freeSlots = grow(freeSlots);
+			freeSlots[freeCount++] = slot;
+		}
+
+		private static int[] grow(int[] array) {
+			int[] larger = new int[array.length * 2];
+			System.arraycopy(array, 0, larger, 0, array.length);
+			return larger;
+		}
+	}
+}
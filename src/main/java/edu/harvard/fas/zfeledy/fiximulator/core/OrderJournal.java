@@ -0,0 +1,878 @@
+/*
+ * File : OrderJournal.java
+ *
+ * Contents : This class is an append-only journal of order, execution and IOI
+ * events. Records are written through a memory-mapped file so that appending
+ * is a memory copy; a background thread forces the written pages to disk in
+ * batches. At startup the journal is replayed to rebuild the cached sets.
+ *
+ * The records are kept in numbered segment files, name.1, name.2 and so on.
+ * The sync thread maps each next segment ahead of time, so when a segment is
+ * full a writer only moves on to the mapped one. The sync thread then writes
+ * a checkpoint of what the sets hold to name.N.checkpoint, closed by a
+ * CHECKPOINT record, and once that is on disk deletes the segments and
+ * checkpoints before it. Replay reads the newest complete checkpoint and the
+ * segments from its number on, which is one segment unless the journal
+ * stopped before that checkpoint was done.
+ *
+ * Each record is laid out as
+ *
+ *   int length | int crc32 | byte type | payload
+ *
+ * where length counts the type byte and the payload. A length of 0 marks the
+ * end of a segment. Records never span segments.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.AsyncLog;
+import edu.harvard.fas.zfeledy.fiximulator.util.RingBuffer;
+import quickfix.SessionID;
+
+public class OrderJournal {
+	static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final int HEADER_SIZE = 8;
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+	private static final byte ORDER = 1;
+	private static final byte EXECUTION = 2;
+	private static final byte IOI_RECORD = 3;
+	private static final byte CHECKPOINT = 4;
+
+	private final File directory;
+	private final String name;
+	// the segment records are appended to, guarded by this
+	private Segment segment;
+	// the next segment, mapped ahead by the sync thread, guarded by this
+	private Segment prepared;
+	// full segments, closed once a checkpoint covers them, guarded by this
+	private final List<Segment> retired = new ArrayList<Segment>();
+	// the segment a checkpoint is due for, or 0
+	private volatile long checkpointDue = 0;
+	private OrderSet orders;
+	private ExecutionSet executions;
+	private IOIset iois;
+	private final RecordWriter writer = new RecordWriter();
+	private long lastOrderKey = 0;
+	private long lastExecutionKey = 0;
+	// replayed orders of the same session share one SessionID
+	private final Map<String, SessionID> sessionsByName = new HashMap<String, SessionID>();
+
+	// segments written to since the last force, guarded by this
+	private List<MappedByteBuffer> unsynced = new ArrayList<MappedByteBuffer>();
+	private final long syncInterval;
+	private final Thread syncer;
+	private volatile boolean closed = false;
+
+	/**
+	 * Opens the journal, creating it if it does not exist yet. Call replay
+	 * before writing any records.
+	 *
+	 * @param journalFile
+	 *            the name the segment files are numbered after.
+	 * @param syncInterval
+	 *            how often, in milliseconds, written records are forced to
+	 *            disk.
+	 */
+	public OrderJournal(File journalFile, long syncInterval) throws IOException {
+		this.directory = journalFile.getAbsoluteFile().getParentFile();
+		this.name = journalFile.getName();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create the journal directory " + directory);
+		this.syncInterval = syncInterval;
+		syncer = new Thread(new Runnable() {
+			public void run() {
+				syncLoop();
+			}
+		}, "FIXimulator-Journal");
+		syncer.setDaemon(true);
+	}
+
+	/**
+	 * Reads the journal back into the given sets and leaves it positioned for
+	 * appending after the last complete record. Only the objects that the
+	 * sets will still hold at the end are rebuilt: a first pass checks the
+	 * records and finds their keys, and a second pass decodes just those.
+	 * Later checkpoints are taken of the same sets.
+	 *
+	 * @return the number of records in the journal.
+	 */
+	public synchronized long replay(OrderSet orders, ExecutionSet executions, IOIset iois) throws IOException {
+		this.orders = orders;
+		this.executions = executions;
+		this.iois = iois;
+		List<Long> segments = listNumbers(false);
+		List<Long> checkpoints = listNumbers(true);
+		long checkpoint = 0;
+		for (int i = checkpoints.size() - 1; i >= 0 && checkpoint == 0; i--) {
+			if (hasCheckpoint(checkpoints.get(i)))
+				checkpoint = checkpoints.get(i);
+		}
+		// older segments are covered by the checkpoint, and the other
+		// checkpoints are older or were not finished
+		for (Iterator<Long> i = segments.iterator(); i.hasNext();) {
+			long number = i.next();
+			if (number < checkpoint) {
+				delete(segmentFile(number));
+				i.remove();
+			}
+		}
+		for (long number : checkpoints) {
+			if (number != checkpoint)
+				delete(checkpointFile(number));
+		}
+
+		List<ByteBuffer> sources = new ArrayList<ByteBuffer>();
+		if (checkpoint != 0)
+			sources.add(mapReadOnly(checkpointFile(checkpoint)));
+		if (segments.isEmpty())
+			segments.add(Math.max(checkpoint, 1));
+		for (int i = 0; i < segments.size() - 1; i++)
+			sources.add(mapReadOnly(segmentFile(segments.get(i))));
+		segment = openSegment(segments.get(segments.size() - 1));
+		sources.add(segment.buffer);
+
+		int orderCapacity = orders.getBuffer().getCapacity();
+		int executionCapacity = executions.getBuffer().getCapacity();
+		int ioiCapacity = iois.getBuffer().getCapacity();
+		// keys are handed out in order, so the most recent executions are
+		// the ones with the highest keys
+		long[] recentExecutions = new long[executionCapacity];
+		long[] recentExecutionOrders = new long[executionCapacity];
+		long ioiCount = 0;
+		// an IOI in the checkpoint can be in the segment after it as well
+		long checkpointIOIs = 0;
+
+		RecordReader reader = new RecordReader(sources);
+		ByteBuffer record;
+		while ((record = reader.next()) != null) {
+			byte type = record.get();
+			if (type == ORDER) {
+				lastOrderKey = Math.max(lastOrderKey, record.getLong());
+			} else if (type == EXECUTION) {
+				long key = record.getLong();
+				if (key > lastExecutionKey) {
+					lastExecutionKey = key;
+					int slot = (int) (key % executionCapacity);
+					recentExecutions[slot] = key;
+					recentExecutionOrders[slot] = record.getLong();
+				}
+			} else if (type == IOI_RECORD) {
+				ioiCount++;
+				if (checkpoint != 0 && reader.current == 0)
+					checkpointIOIs++;
+			}
+		}
+		long firstOrderKey = lastOrderKey - orderCapacity;
+		long firstExecutionKey = lastExecutionKey - executionCapacity;
+		long firstIOI = ioiCount - ioiCapacity - checkpointIOIs;
+		Set<Long> executedOrders = new HashSet<Long>();
+		for (int i = 0; i < executionCapacity; i++) {
+			if (recentExecutions[i] > firstExecutionKey)
+				executedOrders.add(recentExecutionOrders[i]);
+		}
+
+		Map<Long, Order> ordersByKey = new HashMap<Long, Order>();
+		Map<Long, Execution> executionsByKey = new HashMap<Long, Execution>();
+		RecordReader replayer = new RecordReader(reader);
+		long ioiIndex = 0;
+		Set<String> replayedIOIs = new HashSet<String>();
+		while ((record = replayer.next()) != null) {
+			byte type = record.get();
+			if (type == ORDER) {
+				long key = record.getLong();
+				if (key > firstOrderKey || executedOrders.contains(key))
+					replayOrder(key, record, ordersByKey, orders);
+			} else if (type == EXECUTION) {
+				long key = record.getLong();
+				if (key > firstExecutionKey)
+					replayExecution(key, record, ordersByKey, executionsByKey, executions);
+			} else if (type == IOI_RECORD) {
+				if (ioiIndex++ >= firstIOI)
+					replayIOI(record, iois, replayedIOIs);
+			}
+		}
+
+		// clear anything left behind by a torn record
+		MappedByteBuffer buffer = segment.buffer;
+		buffer.position(reader.end());
+		if (reader.torn) {
+			AsyncLog.warn("Order journal ends in an incomplete record, discarding it");
+			for (int i = buffer.position(); i < buffer.limit(); i++)
+				buffer.put(i, (byte) 0);
+		}
+		// the next replay should not have to read the same segments again
+		if (segments.size() > 1)
+			checkpointDue = segment.number;
+		if (!syncer.isAlive())
+			syncer.start();
+		return reader.records;
+	}
+
+	public synchronized void write(Order order) {
+		if (order.getJournalKey() == 0)
+			order.setJournalKey(++lastOrderKey);
+		writer.order(order);
+		append();
+	}
+
+	public synchronized void write(Execution execution) {
+		Order order = execution.getOrder();
+		if (order != null && order.getJournalKey() == 0)
+			write(order);
+		if (execution.getJournalKey() == 0)
+			execution.setJournalKey(++lastExecutionKey);
+		writer.execution(execution);
+		append();
+	}
+
+	public synchronized void write(IOI ioi) {
+		writer.ioi(ioi);
+		append();
+	}
+
+	/**
+	 * Stops the sync thread, letting a checkpoint in progress finish, and
+	 * forces everything written so far to disk.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		LockSupport.unpark(syncer);
+		try {
+			syncer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		sync();
+		synchronized (this) {
+			for (Segment full : retired)
+				close(full);
+			retired.clear();
+			if (segment != null)
+				close(segment);
+			if (prepared != null) {
+				close(prepared);
+				delete(segmentFile(prepared.number));
+				prepared = null;
+			}
+		}
+	}
+
+	/*
+	 * Copies the record in the writer's buffer into the mapped segment. The
+	 * length goes in last, so a reader never sees a length without the
+	 * record behind it.
+	 */
+	private void append() {
+		if (closed)
+			return;
+		ByteBuffer record = writer.finish();
+		int length = record.remaining();
+		if (segment.buffer.remaining() < HEADER_SIZE + length) {
+			try {
+				rollOver();
+			} catch (IOException e) {
+				AsyncLog.error("Could not open the next order journal segment", e);
+				return;
+			}
+		}
+		MappedByteBuffer buffer = segment.buffer;
+		int recordStart = buffer.position();
+		buffer.position(recordStart + 4);
+		buffer.putInt(writer.checksum());
+		buffer.put(record);
+		buffer.putInt(recordStart, length);
+		if (unsynced.isEmpty() || unsynced.get(unsynced.size() - 1) != buffer)
+			unsynced.add(buffer);
+	}
+
+	/*
+	 * Moves on to the segment the sync thread mapped ahead and leaves the
+	 * checkpoint to that thread, so a writer only swaps buffers here. The
+	 * full segment stays in the unsynced list until it has been forced.
+	 */
+	private void rollOver() throws IOException {
+		Segment next = prepared;
+		prepared = null;
+		if (next == null) // the sync thread has not mapped it yet
+			next = openSegment(segment.number + 1);
+		retired.add(segment);
+		segment = next;
+		checkpointDue = next.number;
+		LockSupport.unpark(syncer);
+	}
+
+	private void syncLoop() {
+		while (!closed) {
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(syncInterval));
+			sync();
+			long number = checkpointDue;
+			if (number != 0 && !closed) {
+				checkpoint(number);
+				synchronized (this) {
+					if (checkpointDue == number)
+						checkpointDue = 0;
+				}
+			}
+			prepareSegment();
+		}
+	}
+
+	/*
+	 * Takes the list of written segments under the lock, but forces them
+	 * outside it so that writers are never held up by the disk.
+	 */
+	private void sync() {
+		List<MappedByteBuffer> toSync;
+		synchronized (this) {
+			if (unsynced.isEmpty())
+				return;
+			toSync = unsynced;
+			unsynced = new ArrayList<MappedByteBuffer>(2);
+		}
+		for (MappedByteBuffer buffer : toSync)
+			buffer.force();
+	}
+
+	/*
+	 * Maps the segment after the current one, so that rolling over does not
+	 * wait for the file system. Mapping happens outside the lock.
+	 */
+	private void prepareSegment() {
+		long number;
+		synchronized (this) {
+			if (closed || prepared != null || segment == null)
+				return;
+			number = segment.number + 1;
+		}
+		Segment next;
+		try {
+			next = openSegment(number);
+		} catch (IOException e) {
+			AsyncLog.error("Could not map the next order journal segment", e);
+			return;
+		}
+		synchronized (this) {
+			if (!closed && prepared == null && segment.number + 1 == number) {
+				prepared = next;
+				return;
+			}
+		}
+		close(next);
+	}
+
+	/*
+	 * Writes what the sets hold now to the checkpoint file of the given
+	 * segment, with the orders of cached executions that the order set no
+	 * longer holds ahead of the executions. Objects that have no key yet are
+	 * left out, as their first record is still to be written to the segment.
+	 * A record written while the checkpoint is taken can be in both; replay
+	 * applies the segment's copy last. Once the checkpoint is on disk the
+	 * segments and checkpoints before it are deleted.
+	 */
+	private void checkpoint(long number) {
+		List<Order> cachedOrders = snapshot(orders.getBuffer());
+		List<Execution> cachedExecutions = snapshot(executions.getBuffer());
+		List<IOI> cachedIOIs = snapshot(iois.getBuffer());
+		RecordWriter checkpointWriter = new RecordWriter();
+		File file = checkpointFile(number);
+		try {
+			FileOutputStream stream = new FileOutputStream(file);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+				Set<Order> written = Collections.newSetFromMap(new IdentityHashMap<Order, Boolean>());
+				written.addAll(cachedOrders);
+				for (Execution execution : cachedExecutions) {
+					Order order = execution.getOrder();
+					if (order != null && order.getJournalKey() != 0 && written.add(order)) {
+						checkpointWriter.order(order);
+						writeRecord(out, checkpointWriter);
+					}
+				}
+				for (Order order : cachedOrders) {
+					if (order.getJournalKey() != 0) {
+						checkpointWriter.order(order);
+						writeRecord(out, checkpointWriter);
+					}
+				}
+				for (Execution execution : cachedExecutions) {
+					if (execution.getJournalKey() != 0) {
+						checkpointWriter.execution(execution);
+						writeRecord(out, checkpointWriter);
+					}
+				}
+				for (IOI ioi : cachedIOIs) {
+					checkpointWriter.ioi(ioi);
+					writeRecord(out, checkpointWriter);
+				}
+				checkpointWriter.begin(CHECKPOINT);
+				writeRecord(out, checkpointWriter);
+				out.flush();
+				stream.getFD().sync();
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			AsyncLog.error("Could not write the order journal checkpoint " + file, e);
+			return;
+		}
+
+		synchronized (this) {
+			for (Iterator<Segment> i = retired.iterator(); i.hasNext();) {
+				Segment full = i.next();
+				if (full.number < number) {
+					close(full);
+					i.remove();
+				}
+			}
+		}
+		for (long older : listNumbers(false)) {
+			if (older < number)
+				delete(segmentFile(older));
+		}
+		for (long older : listNumbers(true)) {
+			if (older < number)
+				delete(checkpointFile(older));
+		}
+	}
+
+	private static void writeRecord(DataOutputStream out, RecordWriter writer) throws IOException {
+		ByteBuffer record = writer.finish();
+		out.writeInt(record.remaining());
+		out.writeInt(writer.checksum());
+		out.write(record.array(), 0, record.remaining());
+	}
+
+	private static <T> List<T> snapshot(RingBuffer<T> buffer) {
+		synchronized (buffer) {
+			List<T> elements = new ArrayList<T>(buffer.size());
+			for (int i = 0; i < buffer.size(); i++)
+				elements.add(buffer.get(i));
+			return elements;
+		}
+	}
+
+	private Segment openSegment(long number) throws IOException {
+		RandomAccessFile opened = new RandomAccessFile(segmentFile(number), "rw");
+		long size = Math.max(SEGMENT_SIZE, opened.length());
+		if (size > Integer.MAX_VALUE) {
+			opened.close();
+			throw new IOException("Order journal segment " + segmentFile(number) + " is too large");
+		}
+		return new Segment(number, opened, opened.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+	}
+
+	/*
+	 * The mapping stays valid after the file is closed.
+	 */
+	private static ByteBuffer mapReadOnly(File file) throws IOException {
+		RandomAccessFile opened = new RandomAccessFile(file, "r");
+		try {
+			long length = Math.min(opened.length(), Integer.MAX_VALUE);
+			return opened.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			opened.close();
+		}
+	}
+
+	private static void close(Segment segment) {
+		try {
+			segment.file.close();
+		} catch (IOException e) {
+			AsyncLog.error("Could not close the order journal segment " + segment.number, e);
+		}
+	}
+
+	private static void delete(File file) {
+		if (file.exists() && !file.delete())
+			AsyncLog.warn("Could not delete the order journal file " + file);
+	}
+
+	private File segmentFile(long number) {
+		return new File(directory, name + "." + number);
+	}
+
+	private File checkpointFile(long number) {
+		return new File(directory, name + "." + number + CHECKPOINT_SUFFIX);
+	}
+
+	/*
+	 * @return the numbers of the segment files, or of the checkpoint files,
+	 *         in ascending order.
+	 */
+	private List<Long> listNumbers(boolean checkpoints) {
+		List<Long> numbers = new ArrayList<Long>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			String prefix = name + ".";
+			for (File candidate : files) {
+				String suffix = candidate.getName().startsWith(prefix)
+						? candidate.getName().substring(prefix.length())
+						: "";
+				if (checkpoints) {
+					if (!suffix.endsWith(CHECKPOINT_SUFFIX))
+						continue;
+					suffix = suffix.substring(0, suffix.length() - CHECKPOINT_SUFFIX.length());
+				}
+				if (!suffix.isEmpty() && suffix.length() < 19 && suffix.matches("[0-9]+"))
+					numbers.add(Long.valueOf(suffix));
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	private boolean hasCheckpoint(long number) throws IOException {
+		RecordReader reader = new RecordReader(
+				Collections.singletonList(mapReadOnly(checkpointFile(number))));
+		ByteBuffer record;
+		while ((record = reader.next()) != null) {
+			if (record.get() == CHECKPOINT)
+				return true;
+		}
+		return false;
+	}
+
+	private static String getString(ByteBuffer record) {
+		short length = record.getShort();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		record.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void replayOrder(long key, ByteBuffer record, Map<Long, Order> ordersByKey, OrderSet orders) {
+		Order order = ordersByKey.get(key);
+		boolean added = order != null;
+		if (!added) {
+			order = new Order();
+			order.setJournalKey(key);
+			ordersByKey.put(key, order);
+		}
+		order.setID(getString(record));
+		Order.observeID(order.getID());
+		order.setClientID(getString(record));
+		order.setOrigClientID(getString(record));
+		order.setSymbol(getString(record));
+		order.setSecurityID(getString(record));
+		order.setIdSource(getString(record));
+		order.restoreCustomField(getString(record));
+		String session = getString(record);
+		if (session != null) {
+			SessionID sessionID = sessionsByName.get(session);
+			if (sessionID == null) {
+				sessionID = new SessionID(session);
+				sessionsByName.put(session, sessionID);
+			}
+			order.setSessionID(sessionID);
+		}
+		order.setSide(record.getChar());
+		order.setType(record.getChar());
+		order.setTif(record.getChar());
+		order.setStatus(record.getChar());
+		byte flags = record.get();
+		order.setReceivedOrder((flags & 1) != 0);
+		order.setReceivedCancel((flags & 2) != 0);
+		order.setReceivedReplace((flags & 4) != 0);
+		order.setRejectedCancelReplace((flags & 8) != 0);
+		order.restore(record.getLong(), record.getLong(), record.getLong(), record.getLong(), record.getLong(),
+				record.getLong());
+		if (!added)
+			orders.add(order, false);
+	}
+
+	private void replayExecution(long key, ByteBuffer record, Map<Long, Order> ordersByKey,
+			Map<Long, Execution> executionsByKey, ExecutionSet executions) {
+		Order order = ordersByKey.get(record.getLong());
+		String id = getString(record);
+		Execution execution = executionsByKey.get(key);
+		boolean added = execution != null;
+		if (!added) {
+			execution = new Execution(order);
+			execution.setJournalKey(key);
+			executionsByKey.put(key, execution);
+		}
+		execution.setID(id);
+		Execution.observeID(id);
+		execution.setRefID(getString(record));
+		execution.setSymbol(getString(record));
+		execution.setCustField(getString(record));
+		execution.setExecType(record.getChar());
+		execution.setExecTranType(record.getChar());
+		execution.setDKd(record.get() != 0);
+		execution.setLastSharesUnits(record.getLong());
+		execution.setLastPxUnits(record.getLong());
+		execution.setLeavesQtyUnits(record.getLong());
+		execution.setCumQtyUnits(record.getLong());
+		execution.setAvgPxUnits(record.getLong());
+		if (!added && order != null)
+			executions.add(execution);
+	}
+
+	private void replayIOI(ByteBuffer record, IOIset iois, Set<String> replayedIOIs) {
+		IOI ioi = new IOI();
+		ioi.setID(getString(record));
+		if (ioi.getID() != null && !replayedIOIs.add(ioi.getID()))
+			return;
+		IOI.observeID(ioi.getID());
+		ioi.setRefID(getString(record));
+		ioi.setType(getString(record));
+		ioi.setSide(getString(record));
+		ioi.setQuantity(record.getInt());
+		ioi.setSymbol(getString(record));
+		ioi.setSecurityID(getString(record));
+		ioi.setIDSource(getString(record));
+		ioi.setPrice(record.getDouble());
+		ioi.setNatural(getString(record));
+		iois.add(ioi);
+	}
+
+	private static final class Segment {
+		final long number;
+		final RandomAccessFile file;
+		final MappedByteBuffer buffer;
+
+		Segment(long number, RandomAccessFile file, MappedByteBuffer buffer) {
+			this.number = number;
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+
+	/*
+	 * Encodes one record at a time into a buffer of its own. The writers
+	 * share one under the journal's lock and each checkpoint has another.
+	 */
+	private static final class RecordWriter {
+		private ByteBuffer scratch = ByteBuffer.allocate(512);
+		private final CRC32 crc = new CRC32();
+
+		void order(Order order) {
+			begin(ORDER);
+			scratch.putLong(order.getJournalKey());
+			putString(order.getID());
+			putString(order.getClientID());
+			putString(order.getOrigClientID());
+			putString(order.getSymbol());
+			putString(order.getSecurityID());
+			putString(order.getIdSource());
+			putString(order.getCustomField());
+			putString(order.getSessionID() == null ? null : order.getSessionID().toString());
+			scratch.putChar(order.getFIXSide());
+			scratch.putChar(order.getFIXType());
+			scratch.putChar(order.getFIXTif());
+			scratch.putChar(order.getFIXStatus());
+			byte flags = 0;
+			if (order.isReceivedOrder())
+				flags |= 1;
+			if (order.isReceivedCancel())
+				flags |= 2;
+			if (order.isReceivedReplace())
+				flags |= 4;
+			if (order.isRejectedCancelReplace())
+				flags |= 8;
+			scratch.put(flags);
+			scratch.putLong(order.getQuantityUnits());
+			scratch.putLong(order.getOpenUnits());
+			scratch.putLong(order.getExecutedUnits());
+			scratch.putLong(order.getExecutedValue());
+			scratch.putLong(order.getLimitUnits());
+			scratch.putLong(order.getAvgPxUnits());
+		}
+
+		void execution(Execution execution) {
+			Order order = execution.getOrder();
+			begin(EXECUTION);
+			scratch.putLong(execution.getJournalKey());
+			scratch.putLong(order == null ? 0 : order.getJournalKey());
+			putString(execution.getID());
+			putString(execution.getRefID());
+			putString(execution.getSymbol());
+			putString(execution.getCustField());
+			scratch.putChar(execution.getFIXExecType());
+			scratch.putChar(execution.getFIXExecTranType());
+			scratch.put((byte) (execution.isDKd() ? 1 : 0));
+			scratch.putLong(execution.getLastSharesUnits());
+			scratch.putLong(execution.getLastPxUnits());
+			scratch.putLong(execution.getLeavesQtyUnits());
+			scratch.putLong(execution.getCumQtyUnits());
+			scratch.putLong(execution.getAvgPxUnits());
+		}
+
+		void ioi(IOI ioi) {
+			begin(IOI_RECORD);
+			putString(ioi.getID());
+			putString(ioi.getRefID());
+			putString(ioi.getType());
+			putString(ioi.getSide());
+			scratch.putInt(ioi.getQuantity());
+			putString(ioi.getSymbol());
+			putString(ioi.getSecurityID());
+			putString(ioi.getIDSource());
+			scratch.putDouble(ioi.getPrice());
+			putString(ioi.getNatural());
+		}
+
+		void begin(byte type) {
+			scratch.clear();
+			scratch.put(type);
+		}
+
+		/**
+		 * @return the encoded record, from its type byte on.
+		 */
+		ByteBuffer finish() {
+			scratch.flip();
+			crc.reset();
+			crc.update(scratch.array(), 0, scratch.limit());
+			return scratch;
+		}
+
+		int checksum() {
+			return (int) crc.getValue();
+		}
+
+		private void putString(String value) {
+			if (value == null) {
+				ensureCapacity(2);
+				scratch.putShort((short) -1);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > Short.MAX_VALUE)
+				bytes = Arrays.copyOf(bytes, Short.MAX_VALUE);
+			ensureCapacity(2 + bytes.length + 64);
+			scratch.putShort((short) bytes.length);
+			scratch.put(bytes);
+		}
+
+		private void ensureCapacity(int needed) {
+			if (scratch.remaining() >= needed + 64)
+				return;
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + needed + 64));
+			scratch.flip();
+			larger.put(scratch);
+			scratch = larger;
+		}
+	}
+
+	/*
+	 * Walks the records of a checkpoint and the segments after it, in order.
+	 * Each buffer ends at its end mark or at the first record that is
+	 * incomplete.
+	 */
+	private static final class RecordReader {
+		private final ByteBuffer[] buffers;
+		private final boolean verify;
+		private final CRC32 crc = new CRC32();
+		int current = 0; // the buffer being read
+		long records = 0;
+		boolean torn = false; // the last buffer read ends in an incomplete record
+
+		RecordReader(List<? extends ByteBuffer> sources) {
+			verify = true;
+			buffers = new ByteBuffer[sources.size()];
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = sources.get(i).duplicate();
+				buffers[i].position(0);
+			}
+		}
+
+		/*
+		 * Reads the records another reader has checked again, without
+		 * checking them.
+		 */
+		RecordReader(RecordReader checked) {
+			verify = false;
+			buffers = new ByteBuffer[checked.buffers.length];
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = checked.buffers[i].duplicate();
+				buffers[i].limit(buffers[i].position());
+				buffers[i].position(0);
+			}
+		}
+
+		/**
+		 * @return the next record, positioned at its type byte, or null at
+		 *         the end of the journal.
+		 */
+		ByteBuffer next() {
+			while (current < buffers.length) {
+				ByteBuffer record = read(buffers[current]);
+				if (record != null) {
+					records++;
+					return record;
+				}
+				current++;
+			}
+			return null;
+		}
+
+		/**
+		 * @return where the last buffer's records end, once they have all
+		 *         been read.
+		 */
+		int end() {
+			return buffers[buffers.length - 1].position();
+		}
+
+		private ByteBuffer read(ByteBuffer buffer) {
+			if (buffer.remaining() < HEADER_SIZE) {
+				torn = false;
+				return null;
+			}
+			int recordStart = buffer.position();
+			int length = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining() - 4 || (verify && !checksumMatches(buffer, length))) {
+				torn = length != 0;
+				buffer.position(recordStart);
+				return null;
+			}
+			buffer.position(buffer.position() + 4);
+			ByteBuffer record = buffer.slice();
+			record.limit(length);
+			buffer.position(buffer.position() + length);
+			return record;
+		}
+
+		private boolean checksumMatches(ByteBuffer buffer, int length) {
+			int expected = buffer.getInt(buffer.position());
+			ByteBuffer payload = buffer.duplicate();
+			payload.position(buffer.position() + 4);
+			payload.limit(buffer.position() + 4 + length);
+			crc.reset();
+			crc.update(payload);
+			return (int) crc.getValue() == expected;
+		}
+	}
+}
@@ -5,54 +5,154 @@
  * 
  * Contents : This class is a Set of Order objects with a utility methods to
  * access the individual orders.
+ *
+ * A session's OrderSet is a view over the application's: it holds no orders
+ * of its own, only lookups of and a queue to fill for the orders of its
+ * session, which leave it when the application's set evicts them.
  */
 
 package edu.harvard.fas.zfeledy.fiximulator.core;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import edu.harvard.fas.zfeledy.fiximulator.ui.OrderTableModel;
+import edu.harvard.fas.zfeledy.fiximulator.util.RingBuffer;
 
 public class OrderSet {
-	private ArrayList<Order> orders = new ArrayList<Order>();
-	private ArrayList<Order> ordersToFill = new ArrayList<Order>();
+	private final RingBuffer<Order> orders;
+	// the set that holds the orders of this one, itself unless it is a view
+	private final OrderSet cache;
+	private final CopyOnWriteArrayList<OrderSet> views = new CopyOnWriteArrayList<OrderSet>();
+	// lookup indexes, changed only under the orders buffer's lock so they
+	// stay in step with its adds and evictions
+	private Index ordersByID = new Index();
+	private Index ordersByClientID = new Index();
+	private ConcurrentHashMap<String, Order> ordersByOrigClientID = new ConcurrentHashMap<String, Order>();
+	// written by the session thread, drained by the executor thread
+	private ConcurrentLinkedQueue<Order> ordersToFill = new ConcurrentLinkedQueue<Order>();
+	private volatile Thread fillWaiter = null;
 	private OrderTableModel orderTableModel = null;
+	private OrderJournal journal = null;
+
+	/*
+	 * Maps a key to the oldest cached order that has it. Later orders with the
+	 * same key, such as the cancels and replaces that inherit an OrderID,
+	 * queue up behind it and take its place when it is evicted. Lookups need
+	 * no lock.
+	 */
+	private static final class Index {
+		private final ConcurrentHashMap<String, Order> oldest = new ConcurrentHashMap<String, Order>();
+		private final IdentityHashMap<Order, Order> next = new IdentityHashMap<Order, Order>();
+
+		Order get(String key) {
+			return oldest.get(key);
+		}
+
+		int size() {
+			return oldest.size();
+		}
+
+		void add(String key, Order order) {
+			if (key == null)
+				return;
+			Order last = oldest.putIfAbsent(key, order);
+			if (last == null)
+				return;
+			Order following;
+			while (last != order && (following = next.get(last)) != null)
+				last = following;
+			if (last != order)
+				next.put(last, order);
+		}
+
+		// orders are evicted oldest first, so the order is the head of its key
+		void remove(String key, Order order) {
+			Order following = next.remove(order);
+			if (key == null)
+				return;
+			if (following != null)
+				oldest.replace(key, order, following);
+			else
+				oldest.remove(key, order);
+		}
+	}
 
 	public OrderSet() {
+		cache = this;
+		orders = new RingBuffer<Order>(50, new RingBuffer.EvictionListener<Order>() {
+			public void evicted(Order order) {
+				unindex(order);
+				for (OrderSet view : views)
+					view.unindex(order);
+			}
+		});
+	}
+
+	/**
+	 * A view over the given set. Orders added to the view are added to that
+	 * set, and are only looked up in the view for as long as that set holds
+	 * them. Counts, positions and limits are those of the whole set.
+	 */
+	public OrderSet(OrderSet cache) {
+		this.cache = cache.cache;
+		orders = this.cache.orders;
+		this.cache.views.add(this);
 	}
 
 	public void add(Order order, boolean toFill) {
-		orders.add(order);
-		if (toFill)
-			ordersToFill.add(order);
-		int limit = 50;
-		try {
-			limit = (int) FIXimulator.getApplication().getSettings().getLong("FIXimulatorCachedObjects");
-		} catch (Exception e) {
+		// adding to a full buffer evicts, and unindexes, the oldest order
+		synchronized (orders) {
+			order.setSequence(orders.add(order));
+			cache.index(order);
+			if (cache != this)
+				index(order);
 		}
-		while (orders.size() > limit) {
-			orders.remove(0);
+		if (cache.journal != null)
+			cache.journal.write(order);
+		if (toFill)
+			addOrderToFill(order);
+		// the table picks the new row up on its next refresh
+		if (cache.orderTableModel != null)
+			cache.orderTableModel.update();
+	}
+
+	/*
+	 * Adds an order the cache already holds to the view's lookups, as orders
+	 * replayed from the journal are before any others are added.
+	 */
+	void addCached(Order order) {
+		synchronized (orders) {
+			index(order);
 		}
-		if(FIXimulator.isUiEnabled())
-		orderTableModel.update(); //TODO NON UI
 	}
 	public void add(CustomOrder order, boolean toFill) {
-		orders.add(order);
-		if (toFill)
-			ordersToFill.add(order);
-		int limit = 50;
-		try {
-			limit = (int) FIXimulator.getApplication().getSettings().getLong("FIXimulatorCachedObjects");
-		} catch (Exception e) {
-		}
-		while (orders.size() > limit) {
-			orders.remove(0);
-		}
-		orderTableModel.update();
+		add((Order) order, toFill);
+	}
+
+	public void setLimit(int limit) {
+		orders.setCapacity(limit);
+	}
+	/**
+	 * Marks the order's row for a repaint. Never blocks the caller.
+	 */
+	public void update(Order order) {
+		if (cache.journal != null)
+			cache.journal.write(order);
+		if (cache.orderTableModel != null)
+			cache.orderTableModel.update(order.getSequence());
 	}
-	public void update() {
-		orderTableModel.update();
+
+	/**
+	 * Records every order added or updated from now on in the journal.
+	 */
+	public void setJournal(OrderJournal journal) {
+		this.journal = journal;
 	}
 
 	public void addCallback(OrderTableModel orderTableModel) {
@@ -63,27 +163,120 @@ public class OrderSet {
 		return orders.size();
 	}
 
+	public RingBuffer<Order> getBuffer() {
+		return orders;
+	}
+
 	public Order getOrder(int i) {
 		return orders.get(i);
 	}
 
+	/**
+	 * Looks an order up by OrderID or, failing that, by ClOrdID. When several
+	 * cached orders share an id the oldest one is returned.
+	 */
 	public Order getOrder(String id) {
-		Iterator<Order> iterator = orders.iterator();
-		while (iterator.hasNext()) {
-			Order order = iterator.next();
-			if (order.getID().equals(id) || order.getClientID().equals(id))
-				return order;
+		if (id == null)
+			return null;
+		Order order = ordersByID.get(id);
+		if (order == null)
+			order = ordersByClientID.get(id);
+		return order;
+	}
+
+	/**
+	 * Follows a cancel/replace chain forward from the given ClOrdID to the
+	 * last accepted replacement, the order that is live now. A cancel or
+	 * replace request resolves its OrigClOrdID through this, so a request
+	 * that names an order replaced since still finds the live one.
+	 */
+	public Order getLatestOrder(String clientID) {
+		Order order = ordersByClientID.get(clientID);
+		if (order == null)
+			return null;
+		int hops = ordersByClientID.size();
+		while (order.getClientID() != null && hops-- > 0) {
+			Order next = ordersByOrigClientID.get(order.getClientID());
+			if (next == null)
+				break;
+			order = next;
+		}
+		return order;
+	}
+
+	/**
+	 * Links an accepted replacement to the order it replaces, so that
+	 * getLatestOrder follows the chain to it. Only accepted replacements are
+	 * linked, so a request that is pending or rejected never takes the place
+	 * of the live order.
+	 */
+	public void addReplacement(Order order) {
+		if (order.getOrigClientID() == null)
+			return;
+		synchronized (orders) {
+			// an evicted order could never be unlinked again
+			if (orders.getBySequence(order.getSequence()) != order)
+				return;
+			cache.ordersByOrigClientID.put(order.getOrigClientID(), order);
+			if (cache != this)
+				ordersByOrigClientID.put(order.getOrigClientID(), order);
 		}
-		return null;
+	}
+
+	// both called with the orders buffer's lock held
+	private void index(Order order) {
+		ordersByID.add(order.getID(), order);
+		ordersByClientID.add(order.getClientID(), order);
+	}
+
+	private void unindex(Order order) {
+		ordersByID.remove(order.getID(), order);
+		ordersByClientID.remove(order.getClientID(), order);
+		if (order.getOrigClientID() != null)
+			ordersByOrigClientID.remove(order.getOrigClientID(), order);
+	}
+
+	private void addOrderToFill(Order order) {
+		ordersToFill.offer(order);
+		Thread waiter = fillWaiter;
+		if (waiter != null)
+			LockSupport.unpark(waiter);
 	}
 
 	public boolean haveOrdersToFill() {
-		if (ordersToFill.size() > 0)
-			return true;
-		return false;
+		return !ordersToFill.isEmpty();
 	}
 
 	public Order getOrderToFill() {
-		return ordersToFill.remove(0);
+		return ordersToFill.poll();
+	}
+
+	/**
+	 * Moves up to max waiting orders into the given list.
+	 *
+	 * @return the number of orders drained.
+	 */
+	public int drainOrdersToFill(List<Order> batch, int max) {
+		int drained = 0;
+		Order order;
+		while (drained < max && (order = ordersToFill.poll()) != null) {
+			batch.add(order);
+			drained++;
+		}
+		return drained;
+	}
+
+	/**
+	 * Parks the calling thread until an order to fill is added, the timeout
+	 * elapses or the thread is interrupted. Only one thread may wait at a time.
+	 */
+	public void awaitOrdersToFill(long timeout, TimeUnit unit) {
+		fillWaiter = Thread.currentThread();
+		try {
+			if (ordersToFill.isEmpty())
+				LockSupport.parkNanos(this, unit.toNanos(timeout));
+		} finally {
+			fillWaiter = null;
+		}
 	}
 }
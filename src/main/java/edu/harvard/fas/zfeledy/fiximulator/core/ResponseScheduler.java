@@ -0,0 +1,85 @@
+/*
+ * File : ResponseScheduler.java
+ *
+ * Contents : This class runs delayed message responses (pending new, fills,
+ * done for day) as timed tasks on a single scheduler thread so that the
+ * session thread is never put to sleep.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.AsyncLog;
+
+public class ResponseScheduler {
+	private final ScheduledThreadPoolExecutor scheduler;
+	private final AtomicInteger pending = new AtomicInteger();
+
+	public ResponseScheduler() {
+		scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "FIXimulator-ResponseScheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Runs the given steps one after the other, waiting the given delay before
+	 * each of them. Only the next step of a sequence is ever queued, so each
+	 * in-flight order costs a single queue entry and no thread of its own.
+	 */
+	public void schedule(long delay, TimeUnit unit, Runnable... steps) {
+		if (steps.length == 0)
+			return;
+		pending.incrementAndGet();
+		new StepSequence(delay, unit, steps).next();
+	}
+
+	/**
+	 * The number of step sequences that have not yet run to completion.
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	private class StepSequence implements Runnable {
+		private final long delay;
+		private final TimeUnit unit;
+		private final Runnable[] steps;
+		private int step = 0;
+
+		StepSequence(long delay, TimeUnit unit, Runnable[] steps) {
+			this.delay = delay;
+			this.unit = unit;
+			this.steps = steps;
+		}
+
+		void next() {
+			scheduler.schedule(this, delay, unit);
+		}
+
+		public void run() {
+			try {
+				steps[step++].run();
+			} catch (Exception e) {
+				// the later steps still run
+				AsyncLog.error("A delayed response failed", e);
+			}
+			if (step < steps.length)
+				next();
+			else
+				pending.decrementAndGet();
+		}
+	}
+}
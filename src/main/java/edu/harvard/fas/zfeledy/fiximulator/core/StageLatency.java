@@ -0,0 +1,155 @@
+/*
+ * File : StageLatency.java
+ *
+ * Contents : This class times the stages a message goes through, for one
+ * message type on one session:
+ *
+ * For orders, cancels and replaces coming in
+ *   DECODE  fromApp until the handler runs (message log, type dispatch)
+ *   ORDER   building the Order from the message
+ *   STORE   adding the Order to the order sets
+ *   TOTAL   all of fromApp, including any reports sent right away
+ * For execution reports going out
+ *   FILL    working out a fill and updating the order
+ *   ENCODE  building the ExecutionReport
+ *   SEND    sendMessage, the on-behalf-of fields and Session.sendToTarget,
+ *           which encodes the report, stores it and writes it out
+ *
+ * Each stage records into its own lock-free histogram, a stage that is
+ * never recorded costs nothing but the empty slot. The histograms are
+ * published over JMX, where they can be read, reset or snapshot. DISABLED
+ * stands in when FIXimulatorLatencyMonitor=N and does not read the clock.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.AsyncLog;
+import edu.harvard.fas.zfeledy.fiximulator.util.LatencyHistogram;
+import quickfix.SessionID;
+
+public class StageLatency implements StageLatencyMXBean {
+	public enum Stage {
+		DECODE, ORDER, STORE, TOTAL, FILL, ENCODE, SEND
+	}
+
+	// a stage slower than this is recorded as this
+	private static final long HIGHEST_TRACKABLE = TimeUnit.SECONDS.toNanos(10);
+	private static final Stage[] STAGES = Stage.values();
+	public static final StageLatency DISABLED = new StageLatency(null, null, false);
+
+	private final SessionID sessionID;
+	private final String messageType;
+	private final boolean enabled;
+	private final AtomicReferenceArray<LatencyHistogram> histograms = new AtomicReferenceArray<LatencyHistogram>(
+			STAGES.length);
+
+	public StageLatency(SessionID sessionID, String messageType) {
+		this(sessionID, messageType, true);
+	}
+
+	private StageLatency(SessionID sessionID, String messageType, boolean enabled) {
+		this.sessionID = sessionID;
+		this.messageType = messageType;
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return the time to measure the first stage from.
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	public void record(Stage stage, long nanos) {
+		if (!enabled)
+			return;
+		LatencyHistogram histogram = histograms.get(stage.ordinal());
+		if (histogram == null) {
+			histograms.compareAndSet(stage.ordinal(), null, new LatencyHistogram(HIGHEST_TRACKABLE));
+			histogram = histograms.get(stage.ordinal());
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Records the time from start until now and returns now, so the end of
+	 * one stage can be the start of the next.
+	 */
+	public long recordSince(Stage stage, long start) {
+		if (!enabled)
+			return 0;
+		long now = System.nanoTime();
+		record(stage, now - start);
+		return now;
+	}
+
+	public String getSessionID() {
+		return sessionID.toString();
+	}
+
+	public String getMessageType() {
+		return messageType;
+	}
+
+	public List<StageStatistics> getStages() {
+		List<StageStatistics> stages = new ArrayList<StageStatistics>();
+		for (Stage stage : STAGES) {
+			LatencyHistogram histogram = histograms.get(stage.ordinal());
+			if (histogram != null)
+				stages.add(new StageStatistics(stage.name(), histogram));
+		}
+		return stages;
+	}
+
+	/*
+	 * Swaps fresh histograms in, a record racing the swap may land in the old
+	 * one after it was read and be lost.
+	 */
+	public List<StageStatistics> snapshot() {
+		List<StageStatistics> stages = new ArrayList<StageStatistics>();
+		for (Stage stage : STAGES) {
+			if (histograms.get(stage.ordinal()) == null)
+				continue;
+			LatencyHistogram histogram = histograms.getAndSet(stage.ordinal(),
+					new LatencyHistogram(HIGHEST_TRACKABLE));
+			stages.add(new StageStatistics(stage.name(), histogram));
+		}
+		return stages;
+	}
+
+	public void reset() {
+		for (Stage stage : STAGES) {
+			LatencyHistogram histogram = histograms.get(stage.ordinal());
+			if (histogram != null)
+				histogram.reset();
+		}
+	}
+
+	/**
+	 * Publishes the latencies on the platform MBean server, in place of any
+	 * published earlier for the same session and message type.
+	 */
+	void register() {
+		try {
+			ObjectName name = new ObjectName("FIXimulator:type=StageLatency,session="
+					+ ObjectName.quote(sessionID.toString()) + ",msgType=" + ObjectName.quote(messageType));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			AsyncLog.warn("Could not publish the latencies of " + messageType + " on " + sessionID + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * File : StageLatencyMXBean.java
+ *
+ * Contents : The JMX view of the per-stage latencies of one message type on
+ * one session. Registered as
+ * FIXimulator:type=StageLatency,session=...,msgType=...
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.util.List;
+
+public interface StageLatencyMXBean {
+	String getSessionID();
+
+	String getMessageType();
+
+	/**
+	 * @return the statistics of every stage recorded since the last reset or
+	 *         snapshot, in nanoseconds.
+	 */
+	List<StageStatistics> getStages();
+
+	/**
+	 * @return the same as getStages, and starts every stage over.
+	 */
+	List<StageStatistics> snapshot();
+
+	void reset();
+}
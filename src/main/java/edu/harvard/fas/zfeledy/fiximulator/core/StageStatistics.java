@@ -0,0 +1,87 @@
+/*
+ * File : StageStatistics.java
+ *
+ * Contents : The latency percentiles of one stage, in nanoseconds, as JMX
+ * shows them.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.core;
+
+import java.beans.ConstructorProperties;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.LatencyHistogram;
+
+public class StageStatistics {
+	private final String stage;
+	private final long count;
+	private final long min;
+	private final double mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long p999;
+	private final long max;
+
+	@ConstructorProperties({ "stage", "count", "min", "mean", "p50", "p90", "p99", "p999", "max" })
+	public StageStatistics(String stage, long count, long min, double mean, long p50, long p90, long p99,
+			long p999, long max) {
+		this.stage = stage;
+		this.count = count;
+		this.min = min;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	StageStatistics(String stage, LatencyHistogram histogram) {
+		this(stage, histogram.getTotalCount(), histogram.getMin(), histogram.getMean(),
+				histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+				histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMax());
+	}
+
+	public String getStage() {
+		return stage;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getP999() {
+		return p999;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-6s count %d min %d mean %.0f p50 %d p90 %d p99 %d p99.9 %d max %d (ns)", stage,
+				count, min, mean, p50, p90, p99, p999, max);
+	}
+}
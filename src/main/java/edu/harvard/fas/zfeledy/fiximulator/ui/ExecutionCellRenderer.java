@@ -26,6 +26,8 @@ public class ExecutionCellRenderer extends DefaultTableCellRenderer {
 		Component component = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, myRow, column);
 		Boolean DKd = (Boolean) ((ExecutionTableModel) table.getModel()).getValueAt(myRow, 12);
 
+		if (DKd == null)
+			return component;
 		if (DKd) {
 			component.setForeground(Color.RED);
 		}
@@ -9,19 +9,18 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.ui;
 
-import javax.swing.table.AbstractTableModel;
-
 import edu.harvard.fas.zfeledy.fiximulator.core.Execution;
 import edu.harvard.fas.zfeledy.fiximulator.core.ExecutionSet;
 import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulator;
 import edu.harvard.fas.zfeledy.fiximulator.core.Order;
 
-public class ExecutionTableModel extends AbstractTableModel {
+public class ExecutionTableModel extends RingBufferTableModel<Execution> {
 	private static ExecutionSet executions = FIXimulator.getApplication().getExecutions();
 	private static String[] columns = { "ID", "ClOrdID", "Side", "Symbol", "LastQty", "LastPx", "CumQty", "AvgPx",
 			"Open", "ExecType", "ExecTranType", "RefID", "DKd" };
 
 	public ExecutionTableModel() {
+		super(executions.getBuffer());
 		FIXimulator.getApplication().getExecutions().addCallback(this);
 	}
 
@@ -49,12 +48,8 @@ public class ExecutionTableModel extends AbstractTableModel {
 		return String.class;
 	}
 
-	public int getRowCount() {
-		return executions.getCount();
-	}
-
-	public Object getValueAt(int row, int column) {
-		Execution execution = executions.getExecution(row);
+	@Override
+	protected Object getValueAt(Execution execution, int column) {
 		Order order = execution.getOrder();
 		if (column == 0)
 			return execution.getID();
@@ -85,7 +80,7 @@ public class ExecutionTableModel extends AbstractTableModel {
 		return "";
 	}
 
-	public void update() {
-		fireTableDataChanged();
+	public Execution getExecution(int row) {
+		return getElement(row);
 	}
 }
@@ -10,14 +10,26 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.ui;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.io.File;
 
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
+import javax.swing.border.TitledBorder;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 
+import edu.harvard.fas.zfeledy.fiximulator.core.BatchedJdbcLogFactory;
 import edu.harvard.fas.zfeledy.fiximulator.core.Execution;
 import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulator;
 import edu.harvard.fas.zfeledy.fiximulator.core.IOI;
 import edu.harvard.fas.zfeledy.fiximulator.core.Order;
+import quickfix.field.MsgType;
 
 public class FIXimulatorFrame extends javax.swing.JFrame {
 	private static FIXimulator fiximulator;
@@ -32,6 +44,7 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 			e.printStackTrace();
 		}
 		initComponents();
+		initReportTable();
 	}
 
 	public IOI getDialogIOI() {
@@ -1170,7 +1183,8 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 
 		queryLabel.setText("Query:");
 
-		queryText.setText("select text from messages_log where text like '%35=6%';");
+		queryText.setText("select m.text from messages_index i join messages_log m on m.id = i.log_id"
+				+ " where i.msgtype = '6';");
 
 		cannedQueryCombo.setModel(new javax.swing.DefaultComboBoxModel(
 				new String[] { "Show last 10 IOIs...", "Show last 10 orders...", "Show last 10 executions...",
@@ -1385,12 +1399,12 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 			} else {
 				// default due to bad value
 				cachedObjectsCombo.setSelectedItem("50");
-				FIXimulator.getApplication().getSettings().setLong("FIXimulatorCachedObjects", 50);
+				FIXimulator.getApplication().setCachedObjects(50);
 			}
 		} catch (Exception e) {
 			// default to to setting not existing
 			cachedObjectsCombo.setSelectedItem("50");
-			FIXimulator.getApplication().getSettings().setLong("FIXimulatorCachedObjects", 50);
+			FIXimulator.getApplication().setCachedObjects(50);
 		}
 		cachedObjectsCombo.addActionListener(new java.awt.event.ActionListener() {
 			public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -1407,12 +1421,12 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 			} else {
 				// default due to bad value
 				pricePrecisionCombo.setSelectedItem("4");
-				FIXimulator.getApplication().getSettings().setLong("FIXimulatorPricePrecision", 4);
+				FIXimulator.getApplication().setPricePrecision(4);
 			}
 		} catch (Exception e) {
 			// default to to setting not existing
 			pricePrecisionCombo.setSelectedItem("4");
-			FIXimulator.getApplication().getSettings().setLong("FIXimulatorPricePrecision", 4);
+			FIXimulator.getApplication().setPricePrecision(4);
 		}
 		pricePrecisionCombo.addActionListener(new java.awt.event.ActionListener() {
 			public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -1743,12 +1757,36 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 		ioiDialog.dispose();
 	}// GEN-LAST:event_ioiDialogOKActionPerformed
 
-	private void cancelIOIButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_cancelIOIButtonActionPerformed
+	/*
+	 * The element of the selected row, or null if no row is selected or the
+	 * element has been evicted since the table was last refreshed.
+	 */
+	private Order getSelectedOrder() {
+		int row = orderTable.getSelectedRow();
+		if (row == -1)
+			return null;
+		return ((OrderTableModel) orderTable.getModel()).getOrder(orderTable.convertRowIndexToModel(row));
+	}
+
+	private Execution getSelectedExecution() {
+		int row = executionTable.getSelectedRow();
+		if (row == -1)
+			return null;
+		return ((ExecutionTableModel) executionTable.getModel())
+				.getExecution(executionTable.convertRowIndexToModel(row));
+	}
+
+	private IOI getSelectedIOI() {
 		int row = ioiTable.getSelectedRow();
-		// if there is a row selected
-		if (row != -1) {
-			row = ioiTable.convertRowIndexToModel(row);
-			IOI ioi = FIXimulator.getApplication().getIOIs().getIOI(row);
+		if (row == -1)
+			return null;
+		return ((IOITableModel) ioiTable.getModel()).getIOI(ioiTable.convertRowIndexToModel(row));
+	}
+
+	private void cancelIOIButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_cancelIOIButtonActionPerformed
+		IOI ioi = getSelectedIOI();
+		// if no rows are selected, or the row's ioi has been evicted
+		if (ioi != null) {
 			IOI cancelIOI = ioi.clone();
 			cancelIOI.setType("CANCEL");
 			FIXimulator.getApplication().sendIOI(cancelIOI);
@@ -1756,12 +1794,10 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_cancelIOIButtonActionPerformed
 
 	private void replaceIOIButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_replaceIOIButtonActionPerformed
-		int row = ioiTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
+		IOI ioi = getSelectedIOI();
+		// if no rows are selected, or the row's ioi has been evicted
+		if (ioi != null) {
 			ioiDialog.setTitle("Replace IOI...");
-			row = ioiTable.convertRowIndexToModel(row);
-			IOI ioi = FIXimulator.getApplication().getIOIs().getIOI(row);
 			dialogIOI = ioi.clone();
 			dialogIOI.setType("REPLACE");
 
@@ -1798,11 +1834,9 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_replaceIOIButtonActionPerformed
 
 	private void acknowledgeButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_acknowledgeButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			if (order.getStatus().equals("Received") || order.getStatus().equals("Pending New")) {
 				FIXimulator.getApplication().acknowledge(order);
 			} else {
@@ -1822,11 +1856,9 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_partialsSliderChanged
 
 	private void executionBustButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_executionBustButtonActionPerformed
-		int row = executionTable.getSelectedRow();
-		// if there is a row selected
-		if (row != -1) {
-			row = executionTable.convertRowIndexToModel(row);
-			Execution execution = FIXimulator.getApplication().getExecutions().getExecution(row);
+		Execution execution = getSelectedExecution();
+		// if no rows are selected, or the row's execution has been evicted
+		if (execution != null) {
 			if (execution.getExecType().equals("Fill") || execution.getExecType().equals("Partial fill")) {
 				FIXimulator.getApplication().bust(execution);
 			} else {
@@ -1897,8 +1929,8 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_aboutMenuItemActionPerformed
 
 	private void pricePrecisionComboActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_pricePrecisionComboActionPerformed
-		FIXimulator.getApplication().getSettings().setLong("FIXimulatorPricePrecision",
-				Long.valueOf(pricePrecisionCombo.getSelectedItem().toString()));
+		FIXimulator.getApplication().setPricePrecision(
+				Integer.valueOf(pricePrecisionCombo.getSelectedItem().toString()));
 	}// GEN-LAST:event_pricePrecisionComboActionPerformed
 
 	private void sendOnBehalfOfCompIDActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_sendOnBehalfOfCompIDActionPerformed
@@ -1912,8 +1944,8 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_sendOnBehalfOfSubIDActionPerformed
 
 	private void cachedObjectsComboActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_cachedObjectsComboActionPerformed
-		FIXimulator.getApplication().getSettings().setLong("FIXimulatorCachedObjects",
-				Long.valueOf(cachedObjectsCombo.getSelectedItem().toString()));
+		FIXimulator.getApplication().setCachedObjects(
+				Integer.valueOf(cachedObjectsCombo.getSelectedItem().toString()));
 	}// GEN-LAST:event_cachedObjectsComboActionPerformed
 
 	private void showSettingsButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_showSettingsButtonActionPerformed
@@ -1921,11 +1953,9 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_showSettingsButtonActionPerformed
 
 	private void orderRejectButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_orderRejectButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			if (order.getStatus().equals("Received") || order.getStatus().equals("Pending New")) {
 				FIXimulator.getApplication().reject(order);
 			} else {
@@ -1935,31 +1965,25 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_orderRejectButtonActionPerformed
 
 	private void cancelButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_cancelButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			FIXimulator.getApplication().cancel(order);
 		}
 	}// GEN-LAST:event_cancelButtonActionPerformed
 
 	private void dfdButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_dfdButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			FIXimulator.getApplication().dfd(order);
 		}
 	}// GEN-LAST:event_dfdButtonActionPerformed
 
 	private void cancelPendingButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_cancelPendingButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			if (order.isReceivedCancel()) {
 				FIXimulator.getApplication().pendingCancel(order);
 			} else {
@@ -1969,21 +1993,17 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_cancelPendingButtonActionPerformed
 
 	private void cancelAcceptButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_cancelAcceptButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			FIXimulator.getApplication().cancel(order);
 		}
 	}// GEN-LAST:event_cancelAcceptButtonActionPerformed
 
 	private void replacePendingButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_replacePendingButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			if (order.isReceivedReplace()) {
 				FIXimulator.getApplication().pendingReplace(order);
 			} else {
@@ -1993,11 +2013,9 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_replacePendingButtonActionPerformed
 
 	private void replaceAcceptButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_replaceAcceptButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			if (order.isReceivedReplace() || order.getStatus().equals("Pending Replace")) {
 				FIXimulator.getApplication().replace(order);
 			} else {
@@ -2007,11 +2025,9 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_replaceAcceptButtonActionPerformed
 
 	private void cancelRejectButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_cancelRejectButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			if (order.isReceivedCancel() || order.getStatus().equals("Pending Cancel")) {
 				FIXimulator.getApplication().rejectCancelReplace(order, true);
 				
@@ -2022,11 +2038,9 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_cancelRejectButtonActionPerformed
 
 	private void replaceRejectButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_replaceRejectButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			if (order.isReceivedReplace() || order.getStatus().equals("Pending Replace")) {
 				FIXimulator.getApplication().rejectCancelReplace(order, false);
 			} else {
@@ -2054,11 +2068,9 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_executionDialogCancelActionPerformed
 
 	private void executeButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_executeButtonActionPerformed
-		int row = orderTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = orderTable.convertRowIndexToModel(row);
-			Order order = FIXimulator.getApplication().getOrders().getOrder(row);
+		Order order = getSelectedOrder();
+		// if no rows are selected, or the row's order has been evicted
+		if (order != null) {
 			dialogExecution = new Execution(order);
 			executionDialogShares.setValue(0);
 			executionDialogPrice.setValue(0.0);
@@ -2069,11 +2081,9 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	}// GEN-LAST:event_executeButtonActionPerformed
 
 	private void executionCorrectButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_executionCorrectButtonActionPerformed
-		int row = executionTable.getSelectedRow();
-		// if no rows are selected
-		if (row != -1) {
-			row = executionTable.convertRowIndexToModel(row);
-			Execution execution = FIXimulator.getApplication().getExecutions().getExecution(row);
+		Execution execution = getSelectedExecution();
+		// if no rows are selected, or the row's execution has been evicted
+		if (execution != null) {
 			if (execution.getExecType().equals("Fill") || execution.getExecType().equals("Partial fill")) {
 				dialogExecution = execution.clone();
 				executionDialogShares.setValue(execution.getLastShares());
@@ -2102,34 +2112,83 @@ public class FIXimulatorFrame extends javax.swing.JFrame {
 	private void cannedQueryRunButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_cannedQueryRunButtonActionPerformed
 		QueryTableModel qtm = (QueryTableModel) reportTable.getModel();
 		String can = cannedQueryCombo.getSelectedItem().toString();
-		String symbol = querySymbolText.getText().toString().trim().toLowerCase();
-		String query = "";
+		String symbol = querySymbolText.getText().toString().trim();
+		// the indexed columns of messages_index, the symbol is matched
+		// ignoring case by the table collation
+		String last = "select i.id,m.text from " + BatchedJdbcLogFactory.INDEXED_MESSAGES
+				+ " where i.msgtype = ? order by i.id desc limit 10";
+		String bySymbol = "select i.id,m.text from " + BatchedJdbcLogFactory.INDEXED_MESSAGES
+				+ " where i.symbol = ? and i.msgtype = ? order by i.id";
 
 		if (can.equals("Show last 10 IOIs..."))
-			query = "select id,text from messages_log " + "where text like '%35=6%' order by id desc limit 10;";
+			qtm.setQuery(last, MsgType.INDICATION_OF_INTEREST);
 		if (can.equals("Show last 10 orders..."))
-			query = "select id,text from messages_log " + "where text like '%35=D%' order by id desc limit 10;";
+			qtm.setQuery(last, MsgType.ORDER_SINGLE);
 		if (can.equals("Show last 10 executions..."))
-			query = "select id,text from messages_log " + "where text like '%35=8%' order by id desc limit 10;";
+			qtm.setQuery(last, MsgType.EXECUTION_REPORT);
 		if (can.equals("Show all IOIs where Symbol(55) is..."))
-			query = "select id,text from messages_log " + "where text like '%35=6%' and lower(text) like '%55=" + symbol
-					+ "%';";
+			qtm.setQuery(bySymbol, symbol, MsgType.INDICATION_OF_INTEREST);
 		if (can.equals("Show all orders where Symbol(55) is..."))
-			query = "select id,text from messages_log " + "where text like '%35=D%' and lower(text) like '%55=" + symbol
-					+ "%';";
+			qtm.setQuery(bySymbol, symbol, MsgType.ORDER_SINGLE);
 		if (can.equals("Show all executions where Symbol(55) is..."))
-			query = "select id,text from messages_log " + "where text like '%35=8%' and lower(text) like '%55=" + symbol
-					+ "%';";
+			qtm.setQuery(bySymbol, symbol, MsgType.EXECUTION_REPORT);
 		if (can.equals("Show all activity where Symbol(55) is..."))
-			query = "select id,text from messages_log " + "where lower(text) like '%55=" + symbol + "%';";
+			qtm.setQuery("select i.id,m.text from " + BatchedJdbcLogFactory.INDEXED_MESSAGES
+					+ " where i.symbol = ? order by i.id", symbol);
+	}// GEN-LAST:event_cannedQueryRunButtonActionPerformed
+
+	/*
+	 * Query results arrive in the background, so the columns are sized when
+	 * the model reports them, and the rows shown are counted in the title of
+	 * the Reporting panel. Escape stops a running query, Ctrl+N shows the next
+	 * page of one with more rows than the table holds.
+	 */
+	private void initReportTable() {
+		reportTable.getModel().addTableModelListener(new TableModelListener() {
+			public void tableChanged(TableModelEvent e) {
+				QueryTableModel model = (QueryTableModel) reportTable.getModel();
+				String title = "Reporting";
+				if (model.isTruncated() || model.getFirstRow() > 0)
+					title += String.format(": rows %,d to %,d", model.getFirstRow() + 1,
+							model.getFirstRow() + model.getRowCount());
+				else if (model.getRowCount() > 0)
+					title += String.format(": %,d rows", model.getRowCount());
+				if (model.isTruncated())
+					title += ", more to come (Ctrl+N for the next page)";
+				((TitledBorder) reportActionPanel.getBorder()).setTitle(title);
+				reportActionPanel.repaint();
+				if (e.getFirstRow() != TableModelEvent.HEADER_ROW)
+					return;
+				// after the table has rebuilt its columns
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (reportTable.getColumnCount() == 2 && reportTable.getColumnName(0).equalsIgnoreCase("id")) {
+							reportTable.getColumnModel().getColumn(0).setPreferredWidth(50);
+							reportTable.getColumnModel().getColumn(1).setPreferredWidth(1000);
+						}
+					}
+				});
+			}
+		});
+		reportTable.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0),
+				"cancelQuery");
+		reportTable.getActionMap().put("cancelQuery", new AbstractAction() {
+			private static final long serialVersionUID = 1L;
 
-		qtm.setQuery(query);
+			public void actionPerformed(ActionEvent e) {
+				((QueryTableModel) reportTable.getModel()).cancel();
+			}
+		});
+		reportTable.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+				.put(KeyStroke.getKeyStroke(KeyEvent.VK_N, InputEvent.CTRL_DOWN_MASK), "nextPage");
+		reportTable.getActionMap().put("nextPage", new AbstractAction() {
+			private static final long serialVersionUID = 1L;
 
-		if (reportTable.getColumnCount() > 1) {
-			reportTable.getColumnModel().getColumn(0).setPreferredWidth(50);
-			reportTable.getColumnModel().getColumn(1).setPreferredWidth(1000);
-		}
-	}// GEN-LAST:event_cannedQueryRunButtonActionPerformed
+			public void actionPerformed(ActionEvent e) {
+				((QueryTableModel) reportTable.getModel()).nextPage();
+			}
+		});
+	}
 
 	public static void main(String args[]) {
 		
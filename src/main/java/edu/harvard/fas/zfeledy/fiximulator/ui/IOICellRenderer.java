@@ -25,6 +25,8 @@ public class IOICellRenderer extends DefaultTableCellRenderer {
 		int myRow = table.convertRowIndexToModel(row);
 		Component component = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, myRow, column);
 		String type = (String) ((IOITableModel) table.getModel()).getValueAt(myRow, 1);
+		if (type == null)
+			return component;
 		if (type.equals("NEW")) {
 			component.setForeground(Color.BLACK);
 		}
@@ -9,18 +9,17 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.ui;
 
-import javax.swing.table.AbstractTableModel;
-
 import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulator;
 import edu.harvard.fas.zfeledy.fiximulator.core.IOI;
 import edu.harvard.fas.zfeledy.fiximulator.core.IOIset;
 
-public class IOITableModel extends AbstractTableModel {
+public class IOITableModel extends RingBufferTableModel<IOI> {
 	private static IOIset iois = FIXimulator.getApplication().getIOIs();
 	private static String[] columns = { "ID", "Type", "Side", "Shares", "Symbol", "Price", "SecurityID", "IDSource",
 			"Natural", "RefID" };
 
 	public IOITableModel() {
+		super(iois.getBuffer());
 		FIXimulator.getApplication().getIOIs().addCallback(this);
 	}
 
@@ -42,12 +41,8 @@ public class IOITableModel extends AbstractTableModel {
 		return String.class;
 	}
 
-	public int getRowCount() {
-		return iois.getCount();
-	}
-
-	public Object getValueAt(int row, int column) {
-		IOI ioi = iois.getIOI(row);
+	@Override
+	protected Object getValueAt(IOI ioi, int column) {
 		if (column == 0)
 			return ioi.getID();
 		if (column == 1)
@@ -71,7 +66,7 @@ public class IOITableModel extends AbstractTableModel {
 		return new Object();
 	}
 
-	public void update() {
-		fireTableDataChanged();
+	public IOI getIOI(int row) {
+		return getElement(row);
 	}
 }
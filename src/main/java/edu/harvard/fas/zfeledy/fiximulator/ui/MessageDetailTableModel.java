@@ -93,8 +93,9 @@ public class MessageDetailTableModel extends AbstractTableModel implements ListS
 			// if the first row is selected when it gets purged
 			if (row != -1) {
 				row = messageTable.convertRowIndexToModel(row);
-				LogMessage msg = messages.getMessage(row);
-				updateMessageDetailsTable(msg);
+				LogMessage msg = ((MessageTableModel) messageTable.getModel()).getMessage(row);
+				if (msg != null)
+					updateMessageDetailsTable(msg);
 			}
 		}
 	}
@@ -9,14 +9,12 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.ui;
 
-import javax.swing.table.AbstractTableModel;
-
 import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulator;
 import edu.harvard.fas.zfeledy.fiximulator.core.LogMessage;
 import edu.harvard.fas.zfeledy.fiximulator.core.LogMessageSet;
 import quickfix.field.converter.UtcTimestampConverter;
 
-public class MessageTableModel extends AbstractTableModel {
+public class MessageTableModel extends RingBufferTableModel<LogMessage> {
 	/**
 	 * 
 	 */
@@ -25,6 +23,7 @@ public class MessageTableModel extends AbstractTableModel {
 	private static String[] columns = { "#", "Direction", "SendingTime", "Type", "Message" };
 
 	public MessageTableModel() {
+		super(messages.getBuffer());
 		messages.addCallback(this);
 	}
 
@@ -44,12 +43,8 @@ public class MessageTableModel extends AbstractTableModel {
 		return String.class;
 	}
 
-	public int getRowCount() {
-		return messages.getCount();
-	}
-
-	public Object getValueAt(int row, int column) {
-		LogMessage msg = messages.getMessage(row);
+	@Override
+	protected Object getValueAt(LogMessage msg, int column) {
 		if (column == 0)
 			return msg.getMessageIndex();
 		if (column == 1)
@@ -63,7 +58,7 @@ public class MessageTableModel extends AbstractTableModel {
 		return new Object();
 	}
 
-	public void update() {
-		fireTableDataChanged();
+	public LogMessage getMessage(int row) {
+		return getElement(row);
 	}
 }
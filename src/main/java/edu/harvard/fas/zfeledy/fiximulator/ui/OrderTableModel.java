@@ -9,18 +9,17 @@
 
 package edu.harvard.fas.zfeledy.fiximulator.ui;
 
-import javax.swing.table.AbstractTableModel;
-
 import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulator;
 import edu.harvard.fas.zfeledy.fiximulator.core.Order;
 import edu.harvard.fas.zfeledy.fiximulator.core.OrderSet;
 
-public class OrderTableModel extends AbstractTableModel {
+public class OrderTableModel extends RingBufferTableModel<Order> {
 	private static OrderSet orders = FIXimulator.getApplication().getOrders();
 	private static String[] columns = { "ID", "Status", "Side", "Quantity", "Symbol", "Type", "Limit", "TIF",
 			"Executed", "Open", "AvgPx", "ClOrdID", "OrigClOrdID","CustomField" };
 
 	public OrderTableModel() {
+		super(orders.getBuffer());
 		FIXimulator.getApplication().getOrders().addCallback(this);
 	}
 
@@ -48,12 +47,8 @@ public class OrderTableModel extends AbstractTableModel {
 		return String.class;
 	}
 
-	public int getRowCount() {
-		return orders.getCount();
-	}
-
-	public Object getValueAt(int row, int column) {
-		Order order = (Order) orders.getOrder(row);
+	@Override
+	protected Object getValueAt(Order order, int column) {
 		if (column == 0)
 			return order.getID();
 		if (column == 1)
@@ -85,7 +80,7 @@ public class OrderTableModel extends AbstractTableModel {
 		return new Object();
 	}
 
-	public void update() {
-		fireTableDataChanged();
+	public Order getOrder(int row) {
+		return getElement(row);
 	}
 }
@@ -2,40 +2,71 @@
  * File : QueryTableModel.java
  *
  * Author : Zoltan Feledy
- * 
+ *
  * Contents : This class is the TableModel for the SQL queries for reporting.
- * 
+ * Queries run on a background thread over a pooled connection and the rows
+ * are added to the table a page at a time as they are fetched. A new query
+ * cancels the one still running. The table holds at most maxRows rows; a
+ * query with more waits once it has fetched that many, and nextPage()
+ * replaces them with the next maxRows rows.
+ *
  */
 
 package edu.harvard.fas.zfeledy.fiximulator.ui;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
-import java.sql.Statement;
-import java.util.Vector;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
+import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 
 import edu.harvard.fas.zfeledy.fiximulator.core.FIXimulator;
+import edu.harvard.fas.zfeledy.fiximulator.util.AsyncLog;
+import edu.harvard.fas.zfeledy.fiximulator.util.ConnectionPool;
+import quickfix.SessionSettings;
 
 class QueryTableModel extends AbstractTableModel {
-	Vector results = new Vector();
-	private static String[] columns = { "Results" };
-	Connection connection;
-	Statement statement;
-	String url;
-	String driver;
-	String user;
-	String pass;
+	private static final long serialVersionUID = 1L;
+	private static final int PAGE_SIZE = 1000;
+	private static final int DEFAULT_MAX_ROWS = 200000;
+
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "FIXimulator-Query");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	// only touched on the event dispatch thread
+	private List<String[]> results = new ArrayList<String[]>();
+	private String[] columns = { "Results" };
+	private boolean truncated = false;
+	private long firstRow = 0; // how many rows came before those shown
+	private Semaphore pageRequests = null;
+	// the query the table is showing, pages from older queries are dropped
+	private int generation = 0;
+
+	private Future<?> running = null;
+	private volatile PreparedStatement statement = null;
+	private SessionSettings settings;
+	private int maxRows = DEFAULT_MAX_ROWS;
 
 	public QueryTableModel() {
 		try {
-			url = FIXimulator.getApplication().getSettings().getString("JdbcURL");
-			driver = FIXimulator.getApplication().getSettings().getString("JdbcDriver");
-			user = FIXimulator.getApplication().getSettings().getString("JdbcUser");
-			pass = FIXimulator.getApplication().getSettings().getString("JdbcPassword");
+			settings = FIXimulator.getApplication().getSettings();
+			if (settings.isSetting("FIXimulatorQueryMaxRows"))
+				maxRows = Math.max(1, (int) settings.getLong("FIXimulatorQueryMaxRows"));
 		} catch (Exception e) {
 		}
 	}
@@ -54,49 +85,173 @@ class QueryTableModel extends AbstractTableModel {
 	}
 
 	public Object getValueAt(int row, int column) {
-		return ((String[]) results.elementAt(row))[column];
+		return results.get(row)[column];
 	}
 
-	public void setQuery(String query) {
-		results = new Vector();
+	/**
+	 * @return true if the query has more rows than those shown, waiting to be
+	 *         fetched by nextPage().
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
 
-		try {
-			Class.forName(driver).newInstance();
-			connection = DriverManager.getConnection(url, user, pass);
-		} catch (Exception e) {
-			System.out.println("Could not initialize the database.");
-			e.printStackTrace();
+	/**
+	 * @return the number of rows of the query before the first one shown.
+	 */
+	public long getFirstRow() {
+		return firstRow;
+	}
+
+	/**
+	 * Replaces the rows shown with the next page of the query, if it has
+	 * more. Must be called on the event dispatch thread.
+	 */
+	public void nextPage() {
+		if (!truncated)
+			return;
+		truncated = false;
+		firstRow += results.size();
+		results = new ArrayList<String[]>();
+		fireTableDataChanged();
+		pageRequests.release();
+	}
+
+	/**
+	 * Starts the query with the given values bound to its ? placeholders and
+	 * returns straight away. Must be called on the event dispatch thread.
+	 */
+	public void setQuery(final String query, final String... parameters) {
+		cancel();
+		final int current = generation;
+		final Semaphore pages = new Semaphore(0);
+		pageRequests = pages;
+		results = new ArrayList<String[]>();
+		truncated = false;
+		firstRow = 0;
+		fireTableDataChanged();
+		running = executor.submit(new Runnable() {
+			public void run() {
+				execute(current, query, parameters, pages);
+			}
+		});
+	}
+
+	/**
+	 * Stops the running query, the rows fetched so far stay in the table.
+	 */
+	public void cancel() {
+		generation++;
+		if (running != null)
+			running.cancel(true);
+		PreparedStatement active = statement;
+		if (active != null) {
+			try {
+				active.cancel();
+			} catch (SQLException e) {
+			}
 		}
+	}
 
+	private void execute(int current, String query, String[] parameters, Semaphore pages) {
+		Connection connection = null;
 		try {
-			statement = connection.createStatement();
-			ResultSet rs = statement.executeQuery(query);
-			ResultSetMetaData meta = (ResultSetMetaData) rs.getMetaData();
-			int fields = meta.getColumnCount();
-			columns = new String[fields];
-			for (int i = 0; i < fields; i++) {
-				columns[i] = meta.getColumnName(i + 1);
+			connection = ConnectionPool.getConnection(settings);
+			PreparedStatement prepared = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			statement = prepared;
+			try {
+				for (int i = 0; i < parameters.length; i++)
+					prepared.setString(i + 1, parameters[i]);
+				// the MySQL driver only streams rows with this fetch size,
+				// otherwise it reads the whole result into memory
+				if (connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql"))
+					prepared.setFetchSize(Integer.MIN_VALUE);
+				else
+					prepared.setFetchSize(PAGE_SIZE);
+				ResultSet rs = prepared.executeQuery();
+				try {
+					fetch(current, rs, pages);
+				} finally {
+					rs.close();
+				}
+			} finally {
+				statement = null;
+				prepared.close();
 			}
-			while (rs.next()) {
-				String[] record = new String[fields];
-				for (int i = 0; i < fields; i++) {
-					record[i] = rs.getString(i + 1);
+		} catch (SQLException e) {
+			if (!Thread.currentThread().isInterrupted())
+				AsyncLog.error("Query failed: " + query, e);
+		} finally {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (SQLException e) {
 				}
-				results.addElement(record);
 			}
-			statement.close();
-			rs.close();
-			fireTableChanged(null);
-		} catch (Exception e) {
-			results = new Vector();
-			e.printStackTrace();
 		}
+	}
 
-		if (connection != null) {
-			try {
-				connection.close();
-			} catch (Exception e) {
+	private void fetch(final int current, ResultSet rs, Semaphore pages) throws SQLException {
+		ResultSetMetaData meta = rs.getMetaData();
+		final int fields = meta.getColumnCount();
+		final String[] names = new String[fields];
+		for (int i = 0; i < fields; i++)
+			names[i] = meta.getColumnName(i + 1);
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (current != generation)
+					return;
+				columns = names;
+				fireTableStructureChanged();
+			}
+		});
+
+		int rows = 0;
+		List<String[]> page = new ArrayList<String[]>(PAGE_SIZE);
+		while (rs.next()) {
+			if (Thread.currentThread().isInterrupted())
+				return;
+			if (rows == maxRows) {
+				// hold the result open until the next page is asked for
+				publish(current, page, true);
+				page = new ArrayList<String[]>(PAGE_SIZE);
+				try {
+					pages.acquire();
+				} catch (InterruptedException e) {
+					return;
+				}
+				rows = 0;
+			}
+			String[] record = new String[fields];
+			for (int i = 0; i < fields; i++)
+				record[i] = rs.getString(i + 1);
+			page.add(record);
+			rows++;
+			if (page.size() == PAGE_SIZE) {
+				publish(current, page, false);
+				page = new ArrayList<String[]>(PAGE_SIZE);
 			}
 		}
+		publish(current, page, false);
+	}
+
+	private void publish(final int current, final List<String[]> page, final boolean capped) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (current != generation)
+					return;
+				if (!page.isEmpty()) {
+					int first = results.size();
+					results.addAll(page);
+					fireTableRowsInserted(first, results.size() - 1);
+				}
+				if (capped) {
+					truncated = true;
+					// lets listeners pick up the change
+					fireTableRowsUpdated(results.size() - 1, results.size() - 1);
+				}
+			}
+		});
 	}
 }
@@ -0,0 +1,182 @@
+/*
+ * File : RingBufferTableModel.java
+ *
+ * Contents : This class is the base TableModel for the tables that show the
+ * contents of a RingBuffer. The engine threads only mark rows as dirty; a
+ * Swing timer publishes the changes on the event dispatch thread at a fixed
+ * rate as row inserted, updated and deleted events.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.ui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import edu.harvard.fas.zfeledy.fiximulator.util.RingBuffer;
+
+public abstract class RingBufferTableModel<T> extends AbstractTableModel {
+	private static final long serialVersionUID = 1L;
+	// 20 frames per second
+	public static final int REFRESH_INTERVAL = 50;
+
+	private final RingBuffer<T> buffer;
+	// the sequence numbers of changed elements, written by any thread and
+	// read by the timer
+	private final Set<Long> changed = ConcurrentHashMap.newKeySet();
+	private volatile boolean dirty = false;
+	private volatile boolean allChanged = false;
+	// the sequence window the table has been told about, only touched on the
+	// event dispatch thread
+	private long publishedFirst;
+	private long publishedNext;
+	private final Timer timer;
+
+	public RingBufferTableModel(RingBuffer<T> buffer) {
+		this.buffer = buffer;
+		synchronized (buffer) {
+			publishedFirst = buffer.getFirstSequence();
+			publishedNext = buffer.getNextSequence();
+		}
+		timer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+			public void actionPerformed(ActionEvent event) {
+				publish();
+			}
+		});
+		timer.start();
+	}
+
+	/**
+	 * The value of a column for an element that is still held by the buffer.
+	 */
+	protected abstract Object getValueAt(T element, int column);
+
+	public int getRowCount() {
+		return (int) (publishedNext - publishedFirst);
+	}
+
+	public Object getValueAt(int row, int column) {
+		T element = getElement(row);
+		// evicted since the last refresh, the row goes with the next one
+		if (element == null)
+			return null;
+		return getValueAt(element, column);
+	}
+
+	/**
+	 * @return the element shown in the given model row, or null if it has been
+	 *         evicted since the table was last refreshed.
+	 */
+	public T getElement(int row) {
+		if (row < 0 || row >= getRowCount())
+			return null;
+		return buffer.getBySequence(publishedFirst + row);
+	}
+
+	/**
+	 * Marks the table for a refresh to pick up added and evicted elements. Safe
+	 * to call from any thread; never blocks.
+	 */
+	public void update() {
+		dirty = true;
+	}
+
+	/**
+	 * Marks the row of an element for a repaint on the next refresh.
+	 *
+	 * @param sequence
+	 *            the sequence number the buffer gave the element when it was
+	 *            added.
+	 */
+	public void update(long sequence) {
+		if (sequence >= 0)
+			changed.add(sequence);
+		dirty = true;
+	}
+
+	/**
+	 * Marks every row for a repaint on the next refresh.
+	 */
+	public void updateAll() {
+		allChanged = true;
+		dirty = true;
+	}
+
+	public void stop() {
+		timer.stop();
+	}
+
+	private void publish() {
+		if (!dirty)
+			return;
+		dirty = false;
+
+		long first;
+		long next;
+		synchronized (buffer) {
+			first = buffer.getFirstSequence();
+			next = buffer.getNextSequence();
+		}
+
+		// evicted rows are always the oldest, at the top of the model
+		long deleteTo = Math.min(first, publishedNext);
+		if (deleteTo > publishedFirst) {
+			int deleted = (int) (deleteTo - publishedFirst);
+			publishedFirst = deleteTo;
+			fireTableRowsDeleted(0, deleted - 1);
+		}
+		// anything added and evicted between two refreshes is never shown
+		if (publishedNext < first) {
+			publishedFirst = first;
+			publishedNext = first;
+		}
+		if (next > publishedNext) {
+			int from = getRowCount();
+			publishedNext = next;
+			fireTableRowsInserted(from, getRowCount() - 1);
+		}
+
+		// take the changes made so far, later ones wait for the next refresh
+		long[] updates = new long[changed.size()];
+		int count = 0;
+		for (Long sequence : changed) {
+			if (changed.remove(sequence)) {
+				if (count == updates.length)
+					updates = Arrays.copyOf(updates, count * 2 + 1);
+				updates[count++] = sequence;
+			}
+		}
+		if (allChanged) {
+			allChanged = false;
+			if (getRowCount() > 0)
+				fireTableRowsUpdated(0, getRowCount() - 1);
+		} else if (count > 0) {
+			// one event for each run of adjacent rows
+			Arrays.sort(updates, 0, count);
+			int rows = getRowCount();
+			int from = -1;
+			int to = -1;
+			for (int i = 0; i < count; i++) {
+				long row = updates[i] - publishedFirst;
+				if (row < 0 || row >= rows)
+					continue;
+				if (from >= 0 && row <= to + 1) {
+					to = (int) row;
+					continue;
+				}
+				if (from >= 0)
+					fireTableRowsUpdated(from, to);
+				from = (int) row;
+				to = (int) row;
+			}
+			if (from >= 0)
+				fireTableRowsUpdated(from, to);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * File : AsyncLog.java
+ *
+ * Contents : This class is a console log that keeps stdout off the message
+ * handling threads. Callers put entries in a bounded in-memory ring and a
+ * background thread writes them out in batches. When the ring is full new
+ * entries are dropped and counted instead of blocking the caller.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.util;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AsyncLog {
+	public static final int OFF = -1;
+	public static final int ERROR = 0;
+	public static final int WARN = 1;
+	public static final int INFO = 2;
+	public static final int DEBUG = 3;
+	private static final String[] LEVEL_NAMES = { "ERROR", "WARN", "INFO", "DEBUG" };
+
+	private static final int CAPACITY = 8192;
+	private static final int BATCH_SIZE = 256;
+
+	private static volatile int level = INFO;
+	private static final ArrayBlockingQueue<Entry> entries = new ArrayBlockingQueue<Entry>(CAPACITY);
+	private static final AtomicLong dropped = new AtomicLong();
+	private static long reportedDrops = 0;
+	private static final PrintStream out = System.out;
+
+	static {
+		Thread drainer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "FIXimulator-AsyncLog");
+		drainer.setDaemon(true);
+		drainer.start();
+		// write out whatever is still queued when the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, "FIXimulator-AsyncLog-Flush"));
+	}
+
+	private AsyncLog() {
+	}
+
+	/**
+	 * Check this before building an expensive message, so that nothing is
+	 * formatted for a level that is switched off.
+	 */
+	public static boolean isEnabled(int messageLevel) {
+		return messageLevel <= level;
+	}
+
+	public static boolean isDebugEnabled() {
+		return DEBUG <= level;
+	}
+
+	public static boolean isInfoEnabled() {
+		return INFO <= level;
+	}
+
+	public static void setLevel(int newLevel) {
+		level = newLevel;
+	}
+
+	/**
+	 * Sets the level by name (OFF, ERROR, WARN, INFO or DEBUG). Unknown names
+	 * leave the level unchanged.
+	 */
+	public static void setLevel(String name) {
+		if (name == null)
+			return;
+		if (name.trim().equalsIgnoreCase("OFF")) {
+			level = OFF;
+			return;
+		}
+		for (int i = 0; i < LEVEL_NAMES.length; i++) {
+			if (LEVEL_NAMES[i].equalsIgnoreCase(name.trim()))
+				level = i;
+		}
+	}
+
+	public static int getLevel() {
+		return level;
+	}
+
+	/**
+	 * The total number of entries thrown away because the ring was full.
+	 */
+	public static long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public static void error(String message) {
+		log(ERROR, message, null);
+	}
+
+	public static void error(String message, Throwable cause) {
+		log(ERROR, message, cause);
+	}
+
+	public static void warn(String message) {
+		log(WARN, message, null);
+	}
+
+	public static void info(String message) {
+		log(INFO, message, null);
+	}
+
+	public static void debug(String message) {
+		log(DEBUG, message, null);
+	}
+
+	public static void log(int messageLevel, String message, Throwable cause) {
+		if (messageLevel > level)
+			return;
+		if (!entries.offer(new Entry(messageLevel, message, cause)))
+			dropped.incrementAndGet();
+	}
+
+	private static void drain() {
+		List<Entry> batch = new ArrayList<Entry>(BATCH_SIZE);
+		while (true) {
+			try {
+				batch.add(entries.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			entries.drainTo(batch, BATCH_SIZE - 1);
+			write(batch);
+			batch.clear();
+		}
+	}
+
+	private static void flush() {
+		List<Entry> batch = new ArrayList<Entry>();
+		entries.drainTo(batch);
+		write(batch);
+	}
+
+	private static synchronized void write(List<Entry> batch) {
+		StringBuilder text = new StringBuilder(batch.size() * 64);
+		for (Entry entry : batch) {
+			if (entry.level != INFO)
+				text.append(LEVEL_NAMES[entry.level]).append(": ");
+			text.append(entry.message).append(System.lineSeparator());
+			if (entry.cause != null) {
+				StringWriter trace = new StringWriter();
+				entry.cause.printStackTrace(new PrintWriter(trace));
+				text.append(trace);
+			}
+		}
+		long lost = dropped.get();
+		if (lost > reportedDrops) {
+			text.append("WARN: ").append(lost - reportedDrops).append(" log entries dropped")
+					.append(System.lineSeparator());
+			reportedDrops = lost;
+		}
+		out.print(text);
+		out.flush();
+	}
+
+	private static class Entry {
+		final int level;
+		final String message;
+		final Throwable cause;
+
+		Entry(int level, String message, Throwable cause) {
+			this.level = level;
+			this.message = message;
+			this.cause = cause;
+		}
+	}
+}
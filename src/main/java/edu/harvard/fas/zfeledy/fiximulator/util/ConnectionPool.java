@@ -0,0 +1,66 @@
+/*
+ * File : ConnectionPool.java
+ *
+ * Contents : This class hands out pooled JDBC connections to the FIXimulator
+ * database. A proxool pool is registered from the Jdbc settings the first
+ * time a connection is asked for; closing a connection returns it to the
+ * pool.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.logicalcobwebs.proxool.ProxoolConstants;
+import org.logicalcobwebs.proxool.ProxoolException;
+import org.logicalcobwebs.proxool.ProxoolFacade;
+
+import quickfix.ConfigError;
+import quickfix.FieldConvertError;
+import quickfix.SessionSettings;
+
+public class ConnectionPool {
+	private static final String ALIAS = "fiximulator";
+	private static final String PROXOOL_DRIVER = "org.logicalcobwebs.proxool.ProxoolDriver";
+	private static final int DEFAULT_MAXIMUM_CONNECTIONS = 8;
+
+	private static String poolURL = null;
+
+	private ConnectionPool() {
+	}
+
+	/**
+	 * @return a connection from the pool, the caller must close it.
+	 */
+	public static Connection getConnection(SessionSettings settings) throws SQLException {
+		return DriverManager.getConnection(getURL(settings));
+	}
+
+	private static synchronized String getURL(SessionSettings settings) throws SQLException {
+		if (poolURL != null)
+			return poolURL;
+		try {
+			Class.forName(PROXOOL_DRIVER);
+			Properties info = new Properties();
+			info.setProperty("user", settings.getString("JdbcUser"));
+			info.setProperty("password", settings.getString("JdbcPassword"));
+			int maximum = DEFAULT_MAXIMUM_CONNECTIONS;
+			if (settings.isSetting("JdbcMaxActiveConnection"))
+				maximum = (int) settings.getLong("JdbcMaxActiveConnection");
+			info.setProperty(ProxoolConstants.MAXIMUM_CONNECTION_COUNT_PROPERTY, String.valueOf(maximum));
+			info.setProperty(ProxoolConstants.HOUSE_KEEPING_TEST_SQL_PROPERTY, "SELECT 1");
+			String url = ProxoolConstants.PROXOOL + ProxoolConstants.ALIAS_DELIMITER + ALIAS
+					+ ProxoolConstants.URL_DELIMITER + settings.getString("JdbcDriver")
+					+ ProxoolConstants.URL_DELIMITER + settings.getString("JdbcURL");
+			ProxoolFacade.registerConnectionPool(url, info);
+			poolURL = ProxoolConstants.PROXOOL + ProxoolConstants.ALIAS_DELIMITER + ALIAS;
+			return poolURL;
+		} catch (ClassNotFoundException | ConfigError | FieldConvertError | ProxoolException e) {
+			throw new SQLException("Could not create the connection pool", e);
+		}
+	}
+}
@@ -42,46 +42,50 @@ package edu.harvard.fas.zfeledy.fiximulator.util;
 import java.util.Date;
 
 import quickfix.FieldConvertError;
-import quickfix.field.converter.UtcTimestampConverter;
+import quickfix.field.MsgType;
+import quickfix.field.SenderCompID;
+import quickfix.field.SendingTime;
+import quickfix.field.TargetCompID;
 
 /**
  * @author Brian M. Coyner
  */
 public class FIXMessageHelper {
+	// each thread reuses its own scanner
+	private static final ThreadLocal<FIXTagScanner> scanners = new ThreadLocal<FIXTagScanner>() {
+		@Override
+		protected FIXTagScanner initialValue() {
+			return new FIXTagScanner();
+		}
+	};
+
+	/**
+	 * The calling thread's scanner. It is overwritten by the next scan on the
+	 * same thread, including the ones done by the methods of this class.
+	 */
+	public static FIXTagScanner getScanner() {
+		return scanners.get();
+	}
 
 	public static String getTargetCompId(String rawMessage, char delimeter) {
-		int beginIndex = rawMessage.indexOf("56=") + 3;
-		int endIndex = rawMessage.indexOf(delimeter, beginIndex);
-		return rawMessage.substring(beginIndex, endIndex);
+		return scan(rawMessage, delimeter).getString(TargetCompID.FIELD);
 	}
 
 	public static String getSenderCompId(String rawMessage, char delimeter) {
-		int beginIndex = rawMessage.indexOf("49=") + 3;
-		int endIndex = rawMessage.indexOf(delimeter, beginIndex);
-		return rawMessage.substring(beginIndex, endIndex);
+		return scan(rawMessage, delimeter).getString(SenderCompID.FIELD);
 	}
 
 	public static String getMessageType(String rawMessage, char delimeter) {
-		int beginIndex = rawMessage.indexOf("35=");
-		if (beginIndex == -1) {
-			return null;
-		}
-
-		beginIndex += 3;
-
-		int endIndex = rawMessage.indexOf(delimeter, beginIndex);
-		return rawMessage.substring(beginIndex, endIndex);
+		return scan(rawMessage, delimeter).getString(MsgType.FIELD);
 	}
 
 	public static Date getSendingTime(String rawMessage, char delimeter) throws FieldConvertError {
-		int beginIndex = rawMessage.indexOf("52=");
-		if (beginIndex == -1) {
-			return null;
-		}
-
-		beginIndex += 3;
+		return scan(rawMessage, delimeter).getUtcTimestamp(SendingTime.FIELD);
+	}
 
-		int endIndex = rawMessage.indexOf(delimeter, beginIndex);
-		return UtcTimestampConverter.convert(rawMessage.substring(beginIndex, endIndex));
+	private static FIXTagScanner scan(CharSequence rawMessage, char delimeter) {
+		FIXTagScanner scanner = scanners.get();
+		scanner.scan(rawMessage, delimeter);
+		return scanner;
 	}
 }
@@ -0,0 +1,336 @@
+/*
+ * File : FIXTagScanner.java
+ *
+ * Contents : This class tokenizes a raw FIX message in a single pass into a
+ * table of tags and value offsets. Values are read straight out of the
+ * scanned buffer, so looking a field up allocates nothing unless a String or
+ * Date is asked for. A scanner can be reused for any number of messages.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import quickfix.FieldConvertError;
+import quickfix.field.converter.UtcTimestampConverter;
+
+public class FIXTagScanner {
+	public static final char SOH = (char) 0x01;
+
+	// exactly one of these is the scanned message
+	private byte[] bytes;
+	private CharSequence chars;
+	// either of them as characters, for parsers that take a CharSequence
+	private final CharSequence text = new CharSequence() {
+		public char charAt(int index) {
+			return FIXTagScanner.this.charAt(index);
+		}
+
+		public int length() {
+			return bytes != null ? bytes.length : chars.length();
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			if (bytes != null)
+				return new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+			return chars.subSequence(start, end);
+		}
+	};
+
+	private int[] tags = new int[64];
+	private int[] valueStarts = new int[64];
+	private int[] valueEnds = new int[64];
+	private int count = 0;
+
+	public FIXTagScanner() {
+	}
+
+	/**
+	 * Scans an ASCII buffer.
+	 *
+	 * @return the number of fields found.
+	 */
+	public int scan(byte[] message, int offset, int length, char delimiter) {
+		bytes = message;
+		chars = null;
+		return tokenize(offset, offset + length, delimiter);
+	}
+
+	public int scan(byte[] message, char delimiter) {
+		return scan(message, 0, message.length, delimiter);
+	}
+
+	/**
+	 * Scans a String or any other CharSequence without copying it.
+	 *
+	 * @return the number of fields found.
+	 */
+	public int scan(CharSequence message, char delimiter) {
+		bytes = null;
+		chars = message;
+		return tokenize(0, message.length(), delimiter);
+	}
+
+	public int getFieldCount() {
+		return count;
+	}
+
+	/**
+	 * @param i
+	 *            the position of the field in the message, 0 being the first.
+	 */
+	public int getTag(int i) {
+		return tags[i];
+	}
+
+	public int getValueStart(int i) {
+		return valueStarts[i];
+	}
+
+	public int getValueEnd(int i) {
+		return valueEnds[i];
+	}
+
+	/**
+	 * @return the position of the first field with the given tag, or -1 if the
+	 *         message does not have one.
+	 */
+	public int indexOf(int tag) {
+		for (int i = 0; i < count; i++) {
+			if (tags[i] == tag)
+				return i;
+		}
+		return -1;
+	}
+
+	public boolean isSet(int tag) {
+		return indexOf(tag) >= 0;
+	}
+
+	/**
+	 * @return the value of the tag, or null if it is not in the message.
+	 */
+	public String getString(int tag) {
+		int i = indexOf(tag);
+		if (i < 0)
+			return null;
+		int start = valueStarts[i];
+		int end = valueEnds[i];
+		if (bytes != null)
+			return new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+		return chars.subSequence(start, end).toString();
+	}
+
+	/**
+	 * Compares the value of the tag with the given text without copying it.
+	 */
+	public boolean valueEquals(int tag, CharSequence text) {
+		int i = indexOf(tag);
+		if (i < 0)
+			return false;
+		int start = valueStarts[i];
+		if (valueEnds[i] - start != text.length())
+			return false;
+		for (int j = 0; j < text.length(); j++) {
+			if (charAt(start + j) != text.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the first character of the value, or 0 if the tag is not in the
+	 *         message.
+	 */
+	public char getChar(int tag) {
+		int i = indexOf(tag);
+		if (i < 0 || valueEnds[i] == valueStarts[i])
+			return 0;
+		return charAt(valueStarts[i]);
+	}
+
+	/**
+	 * @throws NumberFormatException
+	 *             if the tag is missing or not an integer.
+	 */
+	public long getLong(int tag) {
+		int i = indexOf(tag);
+		if (i < 0)
+			throw new NumberFormatException("Tag " + tag + " not found");
+		int start = valueStarts[i];
+		int end = valueEnds[i];
+		boolean negative = start < end && charAt(start) == '-';
+		if (negative)
+			start++;
+		if (start == end)
+			throw new NumberFormatException("Tag " + tag + " has no value");
+		long value = 0;
+		for (int j = start; j < end; j++) {
+			char c = charAt(j);
+			if (c < '0' || c > '9')
+				throw new NumberFormatException("Tag " + tag + " is not an integer");
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	public int getInt(int tag) {
+		return (int) getLong(tag);
+	}
+
+	/**
+	 * The value of a decimal tag scaled to the given number of decimals, as
+	 * used by FixedPoint.
+	 *
+	 * @throws NumberFormatException
+	 *             if the tag is missing or not a decimal.
+	 */
+	public long getDecimal(int tag, int decimals) {
+		int i = indexOf(tag);
+		if (i < 0)
+			throw new NumberFormatException("Tag " + tag + " not found");
+		return FixedPoint.parse(text, valueStarts[i], valueEnds[i], decimals);
+	}
+
+	/**
+	 * @return the UTC timestamp value of the tag, or null if it is not in the
+	 *         message.
+	 */
+	public Date getUtcTimestamp(int tag) throws FieldConvertError {
+		String value = getString(tag);
+		if (value == null)
+			return null;
+		return UtcTimestampConverter.convert(value);
+	}
+
+	private char charAt(int i) {
+		if (bytes != null)
+			return (char) (bytes[i] & 0xff);
+		return chars.charAt(i);
+	}
+
+	/*
+	 * Tags are read as numbers, so a search for 35 can never match 135= and
+	 * the value of one field is never mistaken for the start of another. A
+	 * trailing field without a delimiter is still recorded.
+	 *
+	 * A data field such as RawData (96) can hold the delimiter, so, as in
+	 * QuickFIX/J, its value is the number of characters given by the length
+	 * field just before it. If the length does not end on a delimiter the
+	 * field is read up to the next one instead.
+	 */
+	private int tokenize(int from, int to, char delimiter) {
+		count = 0;
+		int tag = 0;
+		int valueStart = -1;
+		// the data field announced by the field just scanned, if any
+		int dataTag = 0;
+		int dataLength = -1;
+		for (int i = from; i < to; i++) {
+			char c = charAt(i);
+			if (valueStart < 0) {
+				if (c == '=') {
+					valueStart = i + 1;
+					int dataEnd = valueStart + dataLength;
+					if (tag == dataTag && dataLength >= 0
+							&& (dataEnd == to || (dataEnd < to && charAt(dataEnd) == delimiter))) {
+						add(tag, valueStart, dataEnd);
+						i = dataEnd; // the delimiter after the value
+						tag = 0;
+						valueStart = -1;
+						dataTag = 0;
+						dataLength = -1;
+					}
+				} else if (c >= '0' && c <= '9') {
+					tag = tag * 10 + (c - '0');
+				} else if (c == delimiter) {
+					tag = 0; // empty or malformed field
+				}
+			} else if (c == delimiter) {
+				add(tag, valueStart, i);
+				dataTag = getDataTag(tag);
+				dataLength = dataTag == 0 ? -1 : parseLength(valueStart, i);
+				tag = 0;
+				valueStart = -1;
+			}
+		}
+		if (valueStart >= 0)
+			add(tag, valueStart, to);
+		return count;
+	}
+
+	/**
+	 * @return the length as a number of characters, or -1 if it is not one.
+	 */
+	private int parseLength(int start, int end) {
+		if (start == end)
+			return -1;
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			char c = charAt(i);
+			if (c < '0' || c > '9' || length > text.length())
+				return -1;
+			length = length * 10 + (c - '0');
+		}
+		return length;
+	}
+
+	/**
+	 * @return the data field whose length the given FIX 4.4 field holds, or
+	 *         0 if it is not a length field.
+	 */
+	private static int getDataTag(int lengthTag) {
+		switch (lengthTag) {
+		case 90: // SecureDataLen
+			return 91;
+		case 93: // SignatureLength
+			return 89;
+		case 95: // RawDataLength
+			return 96;
+		case 212: // XmlDataLen
+			return 213;
+		case 348: // EncodedIssuerLen
+			return 349;
+		case 350: // EncodedSecurityDescLen
+			return 351;
+		case 352: // EncodedListExecInstLen
+			return 353;
+		case 354: // EncodedTextLen
+			return 355;
+		case 356: // EncodedSubjectLen
+			return 357;
+		case 358: // EncodedHeadlineLen
+			return 359;
+		case 360: // EncodedAllocTextLen
+			return 361;
+		case 362: // EncodedUnderlyingIssuerLen
+			return 363;
+		case 364: // EncodedUnderlyingSecurityDescLen
+			return 365;
+		case 445: // EncodedListStatusTextLen
+			return 446;
+		case 618: // EncodedLegIssuerLen
+			return 619;
+		case 621: // EncodedLegSecurityDescLen
+			return 622;
+		default:
+			return 0;
+		}
+	}
+
+	private void add(int tag, int valueStart, int valueEnd) {
+		if (count == tags.length) {
+			int size = count * 2;
+			tags = Arrays.copyOf(tags, size);
+			valueStarts = Arrays.copyOf(valueStarts, size);
+			valueEnds = Arrays.copyOf(valueEnds, size);
+		}
+		tags[count] = tag;
+		valueStarts[count] = valueStart;
+		valueEnds[count] = valueEnd;
+		count++;
+	}
+}
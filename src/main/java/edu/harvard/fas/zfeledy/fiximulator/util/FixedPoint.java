@@ -0,0 +1,193 @@
+/*
+ * File : FixedPoint.java
+ *
+ * Contents : This class holds the conversions and arithmetic for prices and
+ * quantities stored as scaled longs. Prices are held in millionths and
+ * quantities in hundredths. A notional value (price times quantity) is held
+ * in millionths like a price, which keeps it well clear of overflow.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.util;
+
+public class FixedPoint {
+	public static final int PRICE_DECIMALS = 6;
+	public static final long PRICE_SCALE = 1000000L;
+	public static final int QTY_DECIMALS = 2;
+	public static final long QTY_SCALE = 100L;
+	// one cent, used when an instrument does not specify its tick size
+	public static final long DEFAULT_TICK = PRICE_SCALE / 100;
+
+	private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+			100000000L, 1000000000L };
+
+	private FixedPoint() {
+	}
+
+	public static long toPrice(double price) {
+		return Math.round(price * PRICE_SCALE);
+	}
+
+	public static double priceToDouble(long price) {
+		return (double) price / PRICE_SCALE;
+	}
+
+	public static long toQty(double quantity) {
+		return Math.round(quantity * QTY_SCALE);
+	}
+
+	public static double qtyToDouble(long quantity) {
+		return (double) quantity / QTY_SCALE;
+	}
+
+	/**
+	 * The scaled value of a decimal string, rounded half away from zero to
+	 * the given number of decimals. Unlike Double.valueOf this is exact.
+	 */
+	public static long parse(String value, int decimals) {
+		if (value == null)
+			throw new NumberFormatException("null");
+		return parse(value, 0, value.length(), decimals);
+	}
+
+	/**
+	 * Parses the characters from start up to end of the text in place, as
+	 * parse(String, int) does.
+	 */
+	public static long parse(CharSequence text, int start, int end, int decimals) {
+		int length = end;
+		int i = start;
+		while (i < length && text.charAt(i) <= ' ')
+			i++;
+		while (length > i && text.charAt(length - 1) <= ' ')
+			length--;
+		boolean negative = false;
+		if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+			negative = text.charAt(i) == '-';
+			i++;
+		}
+		long result = 0;
+		int fraction = -1; // digits seen after the point, -1 before it
+		boolean digits = false;
+		boolean roundUp = false;
+		for (; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '.' && fraction < 0) {
+				fraction = 0;
+			} else if (c >= '0' && c <= '9') {
+				digits = true;
+				if (fraction < decimals) {
+					result = result * 10 + (c - '0');
+					if (fraction >= 0)
+						fraction++;
+				} else if (fraction == decimals) {
+					// first dropped digit decides the rounding
+					roundUp = c >= '5';
+					fraction++;
+				}
+			} else {
+				throw new NumberFormatException("For input string: \"" + text.subSequence(start, end) + "\"");
+			}
+		}
+		if (!digits)
+			throw new NumberFormatException("For input string: \"" + text.subSequence(start, end) + "\"");
+		int scaled = fraction < 0 ? 0 : Math.min(fraction, decimals);
+		result *= POWERS_OF_TEN[decimals - scaled];
+		if (roundUp)
+			result++;
+		return negative ? -result : result;
+	}
+
+	public static long parsePrice(String value) {
+		return parse(value, PRICE_DECIMALS);
+	}
+
+	/**
+	 * The decimal string of a scaled value, without trailing zeros.
+	 */
+	public static String format(long value, int decimals) {
+		long scale = POWERS_OF_TEN[decimals];
+		long whole = Math.abs(value / scale);
+		long fraction = Math.abs(value % scale);
+		StringBuilder text = new StringBuilder(24);
+		if (value < 0)
+			text.append('-');
+		text.append(whole);
+		if (fraction != 0) {
+			text.append('.');
+			int digits = decimals;
+			while (fraction % 10 == 0) {
+				fraction /= 10;
+				digits--;
+			}
+			String fractionText = Long.toString(fraction);
+			for (int i = fractionText.length(); i < digits; i++)
+				text.append('0');
+			text.append(fractionText);
+		}
+		return text.toString();
+	}
+
+	public static String formatPrice(long price) {
+		return format(price, PRICE_DECIMALS);
+	}
+
+	/**
+	 * The price increment for a number of decimal places, e.g. 100 (0.0001)
+	 * for a precision of 4.
+	 */
+	public static long tickForPrecision(int precision) {
+		if (precision >= PRICE_DECIMALS)
+			return 1;
+		if (precision <= 0)
+			return PRICE_SCALE;
+		return POWERS_OF_TEN[PRICE_DECIMALS - precision];
+	}
+
+	/**
+	 * Rounds a price half away from zero to the nearest multiple of the tick
+	 * size.
+	 */
+	public static long roundToTick(long price, long tick) {
+		if (tick <= 1)
+			return price;
+		long half = tick / 2;
+		if (price >= 0)
+			return (price + half) / tick * tick;
+		return -((-price + half) / tick * tick);
+	}
+
+	/**
+	 * The notional value of a fill, scaled by PRICE_SCALE. Whole shares are
+	 * exact, the value of a fraction of a share is rounded half away from
+	 * zero.
+	 *
+	 * @throws ArithmeticException
+	 *             if the value is over about 9 trillion unscaled, rather
+	 *             than wrapping around.
+	 */
+	public static long notional(long quantity, long price) {
+		long whole = Math.multiplyExact(quantity / QTY_SCALE, price);
+		return Math.addExact(whole, divide(Math.multiplyExact(quantity % QTY_SCALE, price), QTY_SCALE));
+	}
+
+	/**
+	 * The average price of a notional value over a quantity, rounded half
+	 * away from zero to the price scale. Worked out in two steps, so that
+	 * no notional value can overflow.
+	 */
+	public static long averagePrice(long notional, long quantity) {
+		if (quantity == 0)
+			return 0;
+		long whole = notional / quantity * QTY_SCALE;
+		return whole + divide(notional % quantity * QTY_SCALE, quantity);
+	}
+
+	// rounds half away from zero, the divisor is positive
+	private static long divide(long value, long divisor) {
+		long half = divisor / 2;
+		if (value >= 0)
+			return (value + half) / divisor;
+		return -((-value + half) / divisor);
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * File : IdGenerator.java
+ *
+ * Contents : This class hands out unique, increasing IDs without locking.
+ * An ID is the milliseconds since 2020 shifted left by SEQUENCE_BITS, plus
+ * a sequence number within the millisecond. The time part keeps IDs
+ * increasing across restarts as long as the clock does. A millisecond that
+ * runs out of sequence numbers borrows from the next one, so an ID is never
+ * repeated. A CAS on the last ID issued is all the coordination there is.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IdGenerator {
+	// 2020-01-01T00:00:00Z
+	private static final long EPOCH = 1577836800000L;
+	// 65536 IDs a millisecond before borrowing
+	private static final int SEQUENCE_BITS = 16;
+	private static final int MAX_DIGITS = 19;
+
+	private final char prefix;
+	private final AtomicLong last = new AtomicLong();
+
+	public IdGenerator(char prefix) {
+		this.prefix = prefix;
+	}
+
+	public long nextValue() {
+		long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+		long previous;
+		long next;
+		do {
+			previous = last.get();
+			next = Math.max(previous + 1, now);
+		} while (!last.compareAndSet(previous, next));
+		return next;
+	}
+
+	/**
+	 * @return the next ID as the prefix followed by its decimal digits.
+	 */
+	public String next() {
+		return format(prefix, nextValue());
+	}
+
+	/**
+	 * Makes sure every later ID is greater than one issued before, such as an
+	 * ID read back from the journal. IDs with another prefix are ignored.
+	 */
+	public void observe(String id) {
+		long value = parse(id);
+		if (value < 0)
+			return;
+		long previous;
+		while ((previous = last.get()) < value && !last.compareAndSet(previous, value))
+			;
+	}
+
+	// writes the digits straight into the characters of the String
+	static String format(char prefix, long value) {
+		char[] chars = new char[MAX_DIGITS + 1];
+		int position = chars.length;
+		do {
+			chars[--position] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		chars[--position] = prefix;
+		return new String(chars, position, chars.length - position);
+	}
+
+	private long parse(String id) {
+		if (id == null || id.length() < 2 || id.length() > MAX_DIGITS + 1 || id.charAt(0) != prefix)
+			return -1;
+		long value = 0;
+		for (int i = 1; i < id.length(); i++) {
+			char digit = id.charAt(i);
+			if (digit < '0' || digit > '9')
+				return -1;
+			value = value * 10 + (digit - '0');
+		}
+		return value;
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * File : LatencyHistogram.java
+ *
+ * Contents : This class records latencies in a log-linear histogram laid out
+ * the same way as HdrHistogram: values are kept to three significant digits
+ * from 1 up to the highest trackable value, in a fixed array of counts.
+ * Recording is a single atomic increment, so any number of threads can
+ * record into one histogram without locking.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.util;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+	// 2048 sub-buckets per bucket keeps 3 significant digits
+	private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 10;
+	private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+	private static final int SUB_BUCKET_COUNT = SUB_BUCKET_HALF_COUNT * 2;
+	private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+	private static final int LEADING_ZERO_COUNT_BASE = 64 - SUB_BUCKET_HALF_COUNT_MAGNITUDE - 1;
+	/** One hour in nanoseconds. */
+	public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = 3600L * 1000 * 1000 * 1000;
+
+	private final long highestTrackableValue;
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong maxValue = new AtomicLong();
+	private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+
+	public LatencyHistogram() {
+		this(DEFAULT_HIGHEST_TRACKABLE_VALUE);
+	}
+
+	public LatencyHistogram(long highestTrackableValue) {
+		if (highestTrackableValue < 2 * SUB_BUCKET_COUNT)
+			throw new IllegalArgumentException("highestTrackableValue must be at least " + 2 * SUB_BUCKET_COUNT);
+		this.highestTrackableValue = highestTrackableValue;
+		// each bucket doubles the range covered by the one before it
+		int buckets = 1;
+		long smallestUntrackable = SUB_BUCKET_COUNT;
+		while (smallestUntrackable <= highestTrackableValue) {
+			smallestUntrackable <<= 1;
+			buckets++;
+		}
+		counts = new AtomicLongArray((buckets + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE);
+	}
+
+	/**
+	 * Records one value. Values above the highest trackable value are
+	 * recorded as the highest trackable value, negative values as 0.
+	 */
+	public void record(long value) {
+		recordCount(value, 1);
+	}
+
+	private void recordCount(long value, long count) {
+		if (value < 0)
+			value = 0;
+		if (value > highestTrackableValue)
+			value = highestTrackableValue;
+		counts.addAndGet(countsIndex(value), count);
+		totalCount.addAndGet(count);
+		long max;
+		while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value))
+			;
+		long min;
+		while (value < (min = minValue.get()) && !minValue.compareAndSet(min, value))
+			;
+	}
+
+	/**
+	 * Adds the counts of another histogram with the same range to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		if (other.counts.length() != counts.length())
+			throw new IllegalArgumentException("Histograms cover different ranges");
+		for (int i = 0; i < counts.length(); i++) {
+			long count = other.counts.get(i);
+			if (count != 0)
+				recordCount(valueFromIndex(i), count);
+		}
+	}
+
+	/**
+	 * @return a copy of the histogram as it is now, while recording goes on
+	 *         into this one.
+	 */
+	public LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram(highestTrackableValue);
+		copy.add(this);
+		return copy;
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		totalCount.set(0);
+		maxValue.set(0);
+		minValue.set(Long.MAX_VALUE);
+	}
+
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	public long getMax() {
+		return totalCount.get() == 0 ? 0 : maxValue.get();
+	}
+
+	public long getMin() {
+		return totalCount.get() == 0 ? 0 : minValue.get();
+	}
+
+	public double getMean() {
+		long total = 0;
+		double sum = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			long count = counts.get(i);
+			if (count != 0) {
+				sum += (double) medianEquivalentValue(i) * count;
+				total += count;
+			}
+		}
+		return total == 0 ? 0 : sum / total;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100.
+	 * @return the highest value that the given percentage of the recorded
+	 *         values are at or below, to the precision of the histogram.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = totalCount.get();
+		if (total == 0)
+			return 0;
+		long countAtPercentile = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= countAtPercentile)
+				return Math.min(highestEquivalentValue(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Prints count, mean, the usual percentiles and max with the values
+	 * divided by the given scale, for example 1000 to show nanoseconds as
+	 * microseconds.
+	 */
+	public void print(PrintStream out, String title, double scale, String unit) {
+		out.println(title + " (" + unit + "), " + getTotalCount() + " samples");
+		out.printf("  min %12.1f  mean %12.1f%n", getMin() / scale, getMean() / scale);
+		double[] percentiles = { 50, 90, 99, 99.9, 99.99 };
+		for (double percentile : percentiles)
+			out.printf("  p%-6s %12.1f%n", format(percentile), getValueAtPercentile(percentile) / scale);
+		out.printf("  max     %12.1f%n", getMax() / scale);
+	}
+
+	private static String format(double percentile) {
+		return percentile == (long) percentile ? Long.toString((long) percentile) : Double.toString(percentile);
+	}
+
+	private static int countsIndex(long value) {
+		int bucketIndex = LEADING_ZERO_COUNT_BASE - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK);
+		int subBucketIndex = (int) (value >>> bucketIndex);
+		return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + (subBucketIndex - SUB_BUCKET_HALF_COUNT);
+	}
+
+	private static long valueFromIndex(int index) {
+		int bucketIndex = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+		int subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+		if (bucketIndex < 0) {
+			subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+			bucketIndex = 0;
+		}
+		return (long) subBucketIndex << bucketIndex;
+	}
+
+	// the width of the range of values that share a count with this index
+	private static long rangeSize(int index) {
+		int bucketIndex = Math.max(0, (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1);
+		return 1L << bucketIndex;
+	}
+
+	private static long highestEquivalentValue(int index) {
+		return valueFromIndex(index) + rangeSize(index) - 1;
+	}
+
+	private static long medianEquivalentValue(int index) {
+		return valueFromIndex(index) + (rangeSize(index) >> 1);
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * File : RingBuffer.java
+ *
+ * Contents : This class is a bounded, insertion ordered collection. Once it
+ * is full each add evicts the oldest element in constant time.
+ *
+ */
+
+package edu.harvard.fas.zfeledy.fiximulator.util;
+
+public class RingBuffer<T> {
+	private Object[] elements;
+	private int capacity;
+	private int head = 0; // array position of the oldest element
+	private int size = 0;
+	private long firstSequence = 0; // sequence number of the oldest element
+	private EvictionListener<T> listener;
+
+	/**
+	 * Notified of every element that is pushed out of the buffer, either by an
+	 * add to a full buffer or by lowering its capacity.
+	 */
+	public interface EvictionListener<T> {
+		void evicted(T element);
+	}
+
+	public RingBuffer(int capacity) {
+		this(capacity, null);
+	}
+
+	public RingBuffer(int capacity, EvictionListener<T> listener) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		this.capacity = capacity;
+		this.listener = listener;
+		// the backing array grows up to the capacity as elements arrive
+		elements = new Object[Math.min(capacity, 16)];
+	}
+
+	/**
+	 * Appends the element, evicting the oldest element if the buffer is full.
+	 *
+	 * @return the sequence number of the element.
+	 */
+	public synchronized long add(T element) {
+		if (size == capacity)
+			evictOldest();
+		if (size == elements.length)
+			resize(Math.min(capacity, elements.length * 2));
+		elements[(head + size) % elements.length] = element;
+		size++;
+		return firstSequence + size - 1;
+	}
+
+	/**
+	 * @param i
+	 *            the position of the element, 0 being the oldest.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T get(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		return (T) elements[(head + i) % elements.length];
+	}
+
+	/**
+	 * Every element added gets the next sequence number. Unlike positions,
+	 * sequence numbers do not shift when older elements are evicted.
+	 *
+	 * @return the element, or null if it has been evicted or not yet added.
+	 */
+	public synchronized T getBySequence(long sequence) {
+		long i = sequence - firstSequence;
+		if (i < 0 || i >= size)
+			return null;
+		return get((int) i);
+	}
+
+	/**
+	 * The sequence number of the oldest element still held.
+	 */
+	public synchronized long getFirstSequence() {
+		return firstSequence;
+	}
+
+	/**
+	 * The sequence number that the next element added will get.
+	 */
+	public synchronized long getNextSequence() {
+		return firstSequence + size;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Changes the capacity, evicting the oldest elements if the buffer holds
+	 * more than the new capacity.
+	 */
+	public synchronized void setCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		while (size > capacity)
+			evictOldest();
+		this.capacity = capacity;
+		if (elements.length > capacity)
+			resize(Math.max(capacity, size));
+	}
+
+	public synchronized void clear() {
+		while (size > 0)
+			evictOldest();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void evictOldest() {
+		T evicted = (T) elements[head];
+		elements[head] = null;
+		head = (head + 1) % elements.length;
+		size--;
+		firstSequence++;
+		if (listener != null)
+			listener.evicted(evicted);
+	}
+
+	private void resize(int length) {
+		Object[] resized = new Object[length];
+		for (int i = 0; i < size; i++)
+			resized[i] = elements[(head + i) % elements.length];
+		elements = resized;
+		head = 0;
+	}
+}